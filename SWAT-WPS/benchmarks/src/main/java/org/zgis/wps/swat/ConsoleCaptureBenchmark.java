@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capturing the console output of a SWAT run, including progress parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ConsoleCaptureBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int lines;
+
+    private File root;
+    private String[] output;
+    private SwatProgressParser progress;
+
+    @Setup(Level.Trial)
+    public void createOutput() throws IOException {
+        this.root = Files.createTempDirectory("swat-benchmark").toFile();
+        // ten years of output, repeated
+        this.output = new String[3660];
+        for (int i = 0; i < this.output.length; i++) {
+            this.output[i] = SyntheticData.consoleLine(i);
+        }
+        File model = new File(this.root, "TxtInOut");
+        SyntheticData.writeTxtInOut(model, 1, 1, 10);
+        this.progress = SwatProgressParser.forModel(model);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public String capture() throws IOException {
+        double completed = 0;
+        try (SwatConsoleCapture console = SwatConsoleCapture.create(this.root)) {
+            for (int i = 0; i < this.lines; i++) {
+                String line = this.output[i % this.output.length];
+                console.append(line);
+                completed = Math.max(completed, this.progress.parse(line));
+            }
+            return console.getSummary() + completed;
+        }
+    }
+}
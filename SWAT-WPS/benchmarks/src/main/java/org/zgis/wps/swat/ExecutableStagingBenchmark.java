@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Staging the SWAT executable from the extension jar with {@link SwatExecutable#extractToTemp}, into an
+ * empty executable cache or one that already holds it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExecutableStagingBenchmark {
+
+    private static final String EXECUTABLE = "swat2012.exe";
+
+    @Param({"4", "32"})
+    public int executableMegabytes;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private File root;
+    private File cacheDir;
+    private ZipFile jar;
+
+    @Setup(Level.Trial)
+    public void createJar() throws IOException {
+        this.root = Files.createTempDirectory("swat-benchmark").toFile();
+        this.cacheDir = new File(this.root, "cache");
+        File jarFile = new File(this.root, "extension.jar");
+        // executables compress somewhat, random bytes wouldn't
+        byte[] block = new byte[64 * 1024];
+        Random random = new Random(1);
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
+            out.putNextEntry(new ZipEntry(EXECUTABLE));
+            for (int i = 0; i < this.executableMegabytes * 16; i++) {
+                for (int j = 0; j < block.length; j++) {
+                    block[j] = (byte) random.nextInt(j % 4 == 0 ? 256 : 16);
+                }
+                out.write(block);
+            }
+            out.closeEntry();
+        }
+        this.jar = new ZipFile(jarFile);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareCache() throws IOException {
+        if (!this.cached) {
+            FileUtils.deleteDirectory(this.cacheDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() throws IOException {
+        this.jar.close();
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public String extractToTemp() throws IOException {
+        return SwatExecutable.extractToTemp(this.jar, EXECUTABLE, this.cacheDir).getChecksum();
+    }
+}
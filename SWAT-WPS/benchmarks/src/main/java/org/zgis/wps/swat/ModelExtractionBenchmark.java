@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Setting up the model of a run: extracting the uploaded zip or linking the model from the model cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ModelExtractionBenchmark {
+
+    /**
+     * Subbasins of the model, with 5 HRUs each.
+     */
+    @Param({"10", "100", "500"})
+    public int subbasins;
+
+    private File root;
+    private File model;
+    private File modelZip;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void createModel() throws IOException {
+        this.root = Files.createTempDirectory("swat-benchmark").toFile();
+        this.model = new File(this.root, "TxtInOut");
+        SyntheticData.writeTxtInOut(this.model, this.subbasins, 5, 10);
+        this.modelZip = new File(this.root, "model.zip");
+        SyntheticData.zip(this.model, this.modelZip);
+        this.target = new File(this.root, "workspace");
+    }
+
+    @Setup(Level.Invocation)
+    public void clearWorkspace() throws IOException {
+        FileUtils.deleteDirectory(this.target);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteModel() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public int extractZip() throws IOException {
+        return SwatModelExtractor.create().extract(this.modelZip, this.target);
+    }
+
+    @Benchmark
+    public int linkFromModelCache() throws IOException {
+        return WorkspaceFiles.linkTree(this.model, this.target);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing O&amp;M 2.0 GetObservation responses as the weather fetch does, and aggregating them to the
+ * daily values written to the climate files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ObservationParsingBenchmark {
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Observations in the response, hourly.
+     */
+    @Param({"1000", "10000", "100000"})
+    public int observations;
+
+    private byte[] response;
+    private TimeValueSeries parsed;
+    private double[] daily;
+
+    @Setup(Level.Trial)
+    public void createResponse() throws IOException {
+        this.response = SyntheticData.getObservationResponse(this.observations);
+        this.parsed = new TimeValueSeries();
+        new OM2StreamingParser().parse(new ByteArrayInputStream(this.response), this.parsed);
+        this.daily = new double[this.observations / 24 + 1];
+    }
+
+    @Benchmark
+    public TimeValueSeries parse() throws IOException {
+        TimeValueSeries series = new TimeValueSeries();
+        new OM2StreamingParser().parse(new ByteArrayInputStream(this.response), series);
+        series.sortByTime();
+        return series;
+    }
+
+    @Benchmark
+    public int aggregateDaily() {
+        long firstDay = this.parsed.getTime(0) / DAY_MILLIS * DAY_MILLIS;
+        return this.parsed.aggregateDaily(firstDay, this.daily, TimeValueSeries.Aggregation.SUM);
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.n52.wps.io.IOUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packing the SWAT output files, with the {@link SwatOutputPackager} and with the 52N {@link IOUtils#zip}
+ * the runner used before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class OutputZipBenchmark {
+
+    /**
+     * Total size of the output files.
+     */
+    @Param({"8", "128"})
+    public int outputMegabytes;
+
+    private File root;
+    private List<File> outputFiles;
+    private File zip;
+    private File n52Zip;
+
+    /**
+     * Compression of the packager, only used by {@link #packager(Compression)}.
+     */
+    @State(Scope.Benchmark)
+    public static class Compression {
+        @Param({"store", "1", "6"})
+        public String level;
+    }
+
+    @Setup(Level.Trial)
+    public void createOutput() throws IOException {
+        this.root = Files.createTempDirectory("swat-benchmark").toFile();
+        long bytes = this.outputMegabytes * 1024L * 1024;
+        File rch = new File(this.root, "output.rch");
+        SyntheticData.writeOutputFile(rch, bytes / 2);
+        File sub = new File(this.root, "output.sub");
+        SyntheticData.writeOutputFile(sub, bytes * 3 / 10);
+        File hru = new File(this.root, "output.hru");
+        SyntheticData.writeOutputFile(hru, bytes / 5);
+        this.outputFiles = Arrays.asList(rch, sub, hru);
+        this.zip = new File(this.root, "swat_output.zip");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteZip() {
+        FileUtils.deleteQuietly(this.zip);
+        if (this.n52Zip != null) {
+            FileUtils.deleteQuietly(this.n52Zip);
+            this.n52Zip = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteOutput() throws IOException {
+        FileUtils.deleteDirectory(this.root);
+    }
+
+    @Benchmark
+    public long packager(Compression compression) throws IOException {
+        new SwatOutputPackager(SwatOutputPackager.parseLevel(compression.level)).write(this.outputFiles, this.zip);
+        return this.zip.length();
+    }
+
+    @Benchmark
+    public long n52IOUtilsZip() throws IOException {
+        this.n52Zip = IOUtils.zip(this.outputFiles.toArray(new File[this.outputFiles.size()]));
+        return this.n52Zip.length();
+    }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates the input of the benchmarks: TxtInOut model trees, SWAT output files and SOS responses.
+ * <p/>
+ * Everything is derived from a fixed seed, so every run of a benchmark works on the same data and no
+ * network or real model is needed.
+ */
+final class SyntheticData {
+
+    private static final long SEED = 20160401L;
+
+    /**
+     * Extensions of the files ArcSWAT writes for every subbasin and every HRU.
+     */
+    private static final String[] SUBBASIN_FILES = {"sub", "rte", "swq", "pnd", "wus", "wgn", "chm"};
+    private static final String[] HRU_FILES = {"hru", "mgt", "sol", "gw", "chm", "sep"};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Writes a TxtInOut directory with {@code subbasins} subbasins of {@code hrus} HRUs each, a
+     * {@code file.cio} and {@code years} of daily precipitation and temperature of one gage per subbasin.
+     *
+     * @return number of files written
+     */
+    static int writeTxtInOut(File dir, int subbasins, int hrus, int years) throws IOException {
+        Random random = new Random(SEED);
+        FileUtils.forceMkdir(dir);
+        int files = 0;
+        writeFileCio(new File(dir, SwatFileCio.FILE_NAME), years);
+        files++;
+        for (int s = 1; s <= subbasins; s++) {
+            for (String extension : SUBBASIN_FILES) {
+                writeParameterFile(new File(dir, String.format("%05d0000.%s", s, extension)), 60, random);
+                files++;
+            }
+            for (int h = 1; h <= hrus; h++) {
+                for (String extension : HRU_FILES) {
+                    writeParameterFile(new File(dir, String.format("%05d%04d.%s", s, h, extension)), 40, random);
+                    files++;
+                }
+            }
+        }
+        writeClimateFile(new File(dir, "pcp1.pcp"), subbasins, 1, years, random);
+        writeClimateFile(new File(dir, "tmp1.tmp"), subbasins, 2, years, random);
+        return files + 2;
+    }
+
+    /**
+     * Packs the files of {@code dir} (not recursing) into {@code zip}, as clients upload models.
+     */
+    static void zip(File dir, File zip) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                throw new IOException("Can't list " + dir);
+            }
+            for (File file : files) {
+                if (file.isFile()) {
+                    out.putNextEntry(new ZipEntry(file.getName()));
+                    Files.copy(file.toPath(), out);
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a file of about {@code bytes} bytes in the layout of {@code output.rch}.
+     */
+    static void writeOutputFile(File file, long bytes) throws IOException {
+        Random random = new Random(SEED);
+        StringBuilder line = new StringBuilder(200);
+        try (Writer out = newWriter(file)) {
+            out.write(" SWAT output file, synthetic\n\n\n\n\n\n\n"
+                              + "              RCH      GIS   MON     AREAkm2  FLOW_INcms FLOW_OUTcms\n");
+            long written = 0;
+            int day = 1;
+            while (written < bytes) {
+                for (int reach = 1; reach <= 50 && written < bytes; reach++) {
+                    line.setLength(0);
+                    line.append("REACH ");
+                    SwatWeatherWriter.appendInt(line, reach, 4);
+                    SwatWeatherWriter.appendInt(line, reach, 9);
+                    SwatWeatherWriter.appendInt(line, day, 6);
+                    for (int v = 0; v < 12; v++) {
+                        line.append(' ');
+                        SwatWeatherWriter.appendFixed(line, random.nextDouble() * 1000, 11, 3);
+                    }
+                    line.append('\n');
+                    out.append(line);
+                    written += line.length();
+                }
+                day = day % 366 + 1;
+            }
+        }
+    }
+
+    /**
+     * @return line {@code index} of the console output of a SWAT run, a progress line for every simulated
+     * year followed by a line per day
+     */
+    static String consoleLine(int index) {
+        if (index % 366 == 0) {
+            return "  Executing year " + (1990 + index / 366);
+        }
+        return "  Executing day " + index % 366;
+    }
+
+    /**
+     * @return an SOS 2.0 GetObservation response with {@code observations} hourly measurements. Every
+     * second observation refers to the time of the previous one by {@code xlink:href}, as the 52N SOS
+     * writes repeated times.
+     */
+    static byte[] getObservationResponse(int observations) {
+        Random random = new Random(SEED);
+        StringBuilder xml = new StringBuilder(observations * 420);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+           .append("<sos:GetObservationResponse xmlns:sos=\"http://www.opengis.net/sos/2.0\"")
+           .append(" xmlns:om=\"http://www.opengis.net/om/2.0\" xmlns:gml=\"http://www.opengis.net/gml/3.2\"")
+           .append(" xmlns:xlink=\"http://www.w3.org/1999/xlink\"")
+           .append(" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">");
+        long start = 1420070400000L;
+        for (int i = 0; i < observations; i++) {
+            xml.append("<sos:observationData><om:OM_Observation gml:id=\"o_").append(i).append("\">")
+               .append("<om:type xlink:href=\"http://www.opengis.net/def/observationType/OGC-OM/2.0/")
+               .append("OM_Measurement\"/>");
+            if (i % 2 == 1) {
+                xml.append("<om:phenomenonTime xlink:href=\"#t_").append(i - 1).append("\"/>");
+            }
+            else {
+                xml.append("<om:phenomenonTime><gml:TimeInstant gml:id=\"t_").append(i).append("\">")
+                   .append("<gml:timePosition>")
+                   .append(new DateTime(start + i / 2 * 3600000L, DateTimeZone.UTC))
+                   .append("</gml:timePosition></gml:TimeInstant></om:phenomenonTime>");
+            }
+            xml.append("<om:procedure xlink:href=\"http://vocab.example.com/sensorweb/procedure/gsod\"/>")
+               .append("<om:observedProperty xlink:href=\"")
+               .append(WeatherVariable.PRECIPITATION.getObservedProperty()).append("\"/>")
+               .append("<om:result xsi:type=\"gml:MeasureType\" uom=\"mm\">")
+               .append(Math.round(random.nextDouble() * 1000) / 100.0)
+               .append("</om:result></om:OM_Observation></sos:observationData>");
+        }
+        xml.append("</sos:GetObservationResponse>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void writeFileCio(File file, int years) throws IOException {
+        try (Writer out = newWriter(file)) {
+            out.write("Master Watershed File: file.cio\nSynthetic model\n");
+            out.write(String.format("%16d    | NBYR : Number of years simulated\n", years));
+            out.write(String.format("%16d    | IYR : Beginning year of simulation\n", 1990));
+            out.write(String.format("%16d    | IDAF : Beginning julian day of simulation\n", 1));
+            out.write(String.format("%16d    | IDAL : Ending julian day of simulation\n", 365));
+            out.write(String.format("%16d    | IPRINT: print code (month, day, year)\n", 1));
+            out.write(String.format("%16d    | NYSKIP: number of years to skip output printing/summarization\n", 0));
+        }
+    }
+
+    private static void writeParameterFile(File file, int lines, Random random) throws IOException {
+        StringBuilder line = new StringBuilder(80);
+        try (Writer out = newWriter(file)) {
+            out.write(" ." + file.getName() + " file, synthetic\n");
+            for (int i = 0; i < lines; i++) {
+                line.setLength(0);
+                SwatWeatherWriter.appendFixed(line, random.nextDouble() * 100, 16, 3);
+                line.append("    | PARM").append(i).append(" : synthetic parameter\n");
+                out.append(line);
+            }
+        }
+    }
+
+    private static void writeClimateFile(File file, int gages, int columnsPerGage, int years, Random random)
+            throws IOException {
+        StringBuilder line = new StringBuilder(7 + gages * columnsPerGage * 5);
+        try (Writer out = newWriter(file)) {
+            out.write("Synthetic climate input " + file.getName() + "\n");
+            for (String label : new String[]{"Lati", "Long", "Elev"}) {
+                line.setLength(0);
+                line.append(label).append("   ");
+                for (int g = 0; g < gages * columnsPerGage; g++) {
+                    SwatWeatherWriter.appendFixed(line, 0, 5, 1);
+                }
+                out.append(line).append('\n');
+            }
+            for (int y = 0; y < years; y++) {
+                for (int d = 1; d <= 365; d++) {
+                    line.setLength(0);
+                    SwatWeatherWriter.appendInt(line, 1990 + y, 4);
+                    SwatWeatherWriter.appendInt(line, d, 3);
+                    for (int g = 0; g < gages * columnsPerGage; g++) {
+                        SwatWeatherWriter.appendFixed(line, random.nextDouble() * 30, 5, 1);
+                    }
+                    out.append(line).append('\n');
+                }
+            }
+        }
+    }
+
+    private static Writer newWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1));
+    }
+}
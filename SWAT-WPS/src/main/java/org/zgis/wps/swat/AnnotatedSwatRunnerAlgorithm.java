@@ -15,31 +15,19 @@
  */
 package org.zgis.wps.swat;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.n52.wps.algorithm.annotation.*;
 import org.n52.wps.commons.context.ExecutionContextFactory;
 import org.n52.wps.io.data.GenericFileData;
 import org.n52.wps.io.data.GenericFileDataConstants;
 import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralBooleanBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.lang.annotation.Annotation;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.security.CodeSource;
-import java.security.ProtectionDomain;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
 /**
  * Runs SWAT model.
@@ -49,26 +37,158 @@ import java.util.zip.ZipFile;
         abstrakt = "This Algorithm runs SWAT on a given input model and returns the SWAT output in a ZIP file.",
         title = "SWAT Runner Algoritm",
         identifier = "swat-runner-algorithm",
-        statusSupported = false,
-        storeSupported = false)
+        statusSupported = true,
+        storeSupported = true)
 public class AnnotatedSwatRunnerAlgorithm extends AbstractAnnotatedAlgorithm {
 
     private static final Logger logger = LoggerFactory.getLogger(AnnotatedSwatRunnerAlgorithm.class);
 
     private List<GenericFileData> swatInputZip;
+    private String baseModel;
+    private List<GenericFileData> modelPatch;
+    private List<String> parameterEdits;
+    private String outputCompression;
+    private boolean forceRun = false;
+    private String printFrequency;
+    private List<String> outputFiles;
+    private List<Integer> reachVariables;
+    private List<Integer> subbasinVariables;
+    private List<Integer> hruVariables;
+    private List<Integer> hruIds;
     private String swatConsoleOutput = "";
     private GenericFileData swatOutputZipped;
+    private String runId;
+    private String swatModelHash;
+    private String runMetrics;
 
     @ComplexDataInput(
             identifier = "swat_model",
             title = "swat model input files",
-            abstrakt = "ZIP file containing the SWAT input files.",
+            abstrakt = "ZIP file containing the SWAT input files. May be left out if base_model is given.",
             binding = GenericFileDataBinding.class,
-            minOccurs = 1, maxOccurs = 1)
+            minOccurs = 0, maxOccurs = 1)
     public void setSwatInputZip(List<GenericFileData> gfd) {
         this.swatInputZip = gfd;
     }
 
+    @LiteralDataInput(
+            identifier = "base_model",
+            title = "base model",
+            abstrakt = "swat_model_hash of an earlier run, to run that model again without uploading it. "
+                    + "Use model_patch and parameter_edit to change it.",
+            minOccurs = 0, maxOccurs = 1)
+    public void setBaseModel(String baseModel) {
+        this.baseModel = baseModel;
+    }
+
+    @ComplexDataInput(
+            identifier = "model_patch",
+            title = "model patch",
+            abstrakt = "ZIP file with model files replacing those of swat_model or base_model, paths relative to "
+                    + "the model root.",
+            binding = GenericFileDataBinding.class,
+            minOccurs = 0, maxOccurs = 1)
+    public void setModelPatch(List<GenericFileData> modelPatch) {
+        this.modelPatch = modelPatch;
+    }
+
+    @LiteralDataInput(
+            identifier = "parameter_edit",
+            title = "parameter edit",
+            abstrakt = "A value to change in a model file as file:line:column=value, e.g. 000010001.gw:4:1=0.5. "
+                    + "Line and column count from 1, the value at the column is replaced and right aligned "
+                    + "to the end of the old value.",
+            minOccurs = 0, maxOccurs = 1000)
+    public void setParameterEdits(List<String> parameterEdits) {
+        this.parameterEdits = parameterEdits;
+    }
+
+    @LiteralDataInput(
+            identifier = "output_compression",
+            title = "output compression",
+            abstrakt = "Compression of swat_output_zipped: 'store' for no compression or a deflate level 1 (fastest) "
+                    + "to 9 (smallest).",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "6",
+            allowedValues = {"store", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public void setOutputCompression(String outputCompression) {
+        this.outputCompression = outputCompression;
+    }
+
+    @LiteralDataInput(
+            identifier = "force_run",
+            title = "force run",
+            abstrakt = "Run SWAT even if a result for the same model and options is cached.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "false",
+            binding = LiteralBooleanBinding.class)
+    public void setForceRun(Boolean forceRun) {
+        this.forceRun = forceRun != null && forceRun;
+    }
+
+    @LiteralDataInput(
+            identifier = "print_frequency",
+            title = "print frequency",
+            abstrakt = "Time step of the SWAT output, 'model' to keep the setting of the model's file.cio.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = SwatPrintOptions.MODEL,
+            allowedValues = {SwatPrintOptions.MODEL, "daily", "monthly", "yearly"})
+    public void setPrintFrequency(String printFrequency) {
+        this.printFrequency = printFrequency;
+    }
+
+    @LiteralDataInput(
+            identifier = "output_file",
+            title = "output file",
+            abstrakt = "Output file to return, e.g. output.rch. All output files are returned if not given. "
+                    + "SWAT prints only a single variable to output.rch, output.sub and output.hru if they "
+                    + "are not requested.",
+            minOccurs = 0, maxOccurs = 50)
+    public void setOutputFiles(List<String> outputFiles) {
+        this.outputFiles = outputFiles;
+    }
+
+    @LiteralDataInput(
+            identifier = "reach_variable",
+            title = "reach output variable",
+            abstrakt = "Code of a variable to print to output.rch (see the SWAT IO documentation of file.cio), "
+                    + "the variables of the model if not given.",
+            minOccurs = 0, maxOccurs = 20,
+            binding = LiteralIntBinding.class)
+    public void setReachVariables(List<Integer> reachVariables) {
+        this.reachVariables = reachVariables;
+    }
+
+    @LiteralDataInput(
+            identifier = "subbasin_variable",
+            title = "subbasin output variable",
+            abstrakt = "Code of a variable to print to output.sub, the variables of the model if not given.",
+            minOccurs = 0, maxOccurs = 15,
+            binding = LiteralIntBinding.class)
+    public void setSubbasinVariables(List<Integer> subbasinVariables) {
+        this.subbasinVariables = subbasinVariables;
+    }
+
+    @LiteralDataInput(
+            identifier = "hru_variable",
+            title = "HRU output variable",
+            abstrakt = "Code of a variable to print to output.hru, the variables of the model if not given.",
+            minOccurs = 0, maxOccurs = 20,
+            binding = LiteralIntBinding.class)
+    public void setHruVariables(List<Integer> hruVariables) {
+        this.hruVariables = hruVariables;
+    }
+
+    @LiteralDataInput(
+            identifier = "hru_id",
+            title = "HRU id",
+            abstrakt = "Number of a HRU to print to output.hru, the HRUs of the model if not given.",
+            minOccurs = 0, maxOccurs = 20,
+            binding = LiteralIntBinding.class)
+    public void setHruIds(List<Integer> hruIds) {
+        this.hruIds = hruIds;
+    }
+
     @ComplexDataOutput(identifier = "swat_output_zipped",
             title = "swat model output files as ZIP",
             abstrakt = "ZIP file containing the SWAT output files.",
@@ -84,6 +204,29 @@ public class AnnotatedSwatRunnerAlgorithm extends AbstractAnnotatedAlgorithm {
         return this.swatConsoleOutput;
     }
 
+    @LiteralDataOutput(identifier = "run_id",
+            title = "run id",
+            abstrakt = "Id of the run, to query single units and variables of its output with the "
+                    + "swat-output-query-algorithm.")
+    public String getRunId() {
+        return this.runId;
+    }
+
+    @LiteralDataOutput(identifier = "swat_model_hash",
+            title = "SWAT model hash",
+            abstrakt = "Hash of the (unpatched) model of the run, to pass as base_model to later runs.")
+    public String getSwatModelHash() {
+        return this.swatModelHash;
+    }
+
+    @LiteralDataOutput(identifier = "run_metrics",
+            title = "run metrics",
+            abstrakt = "JSON object with the milliseconds spent in every phase of the execution (e.g. swat_run), "
+                    + "CPU time and peak memory of SWAT and the size of the output.")
+    public String getRunMetrics() {
+        return this.runMetrics;
+    }
+
     @Execute
     public void runSwatProcess() throws IOException {
         logger.info("Trying to run SWAT model");
@@ -91,181 +234,49 @@ public class AnnotatedSwatRunnerAlgorithm extends AbstractAnnotatedAlgorithm {
         //TODO make a list of needed directories and create in loop
         String tempDirStr = ExecutionContextFactory.getContext().getTempDirectoryPath();
         File tempDir = new File(tempDirStr + System.getProperty("file.separator"));
-        File swatModelDir = new File(tempDirStr + System.getProperty("file.separator") +
-                                             "swatmodel" + System.getProperty("file.separator"));
 
         logger.info("Temp dir is: " + tempDirStr);
         logger.info("Temp file is: " + tempDir.getAbsolutePath());
 
-        try {
-            if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
-                throw new IOException("Could not create temp dir " + tempDir);
-            }
-            if (!swatModelDir.isDirectory() && !swatModelDir.mkdirs()) {
-                throw new IOException("Could not create swatmodel dir " + tempDir);
-            }
-
-            //unpack swat model
-            if (swatInputZip == null) {
-                logger.info("SwatInputZip was NULL");
-            }
-            else if (swatInputZip.size() != 1) {
-                logger.info("SwatInputZip size != 1 - " + swatInputZip.size());
-            }
-            else {
-                logger.info("Unpacking swatInputZip " + swatInputZip.get(0).getBaseFile(false).getAbsolutePath()
-                                    + " to " + swatModelDir.getAbsolutePath());
-                net.lingala.zip4j.core.ZipFile zipFile = new net.lingala.zip4j.core.ZipFile(swatInputZip.get(0).getBaseFile(false));
-                zipFile.extractAll(swatModelDir.getAbsolutePath());
-            }
-
-            URI jarUri = this.getJarURI();
-            logger.debug("Jar-File URI " + jarUri);
-
-            //FIXME this is bullshit, make own jar for every OS and provide executable this way.
-            String exeFilename = "swat/swat_rel64";
-            if (System.getProperty("os.name").toLowerCase().startsWith("windows")) {
-                exeFilename = exeFilename.concat("_win.exe");
-            }
-            else if (System.getProperty("os.name").toLowerCase().startsWith("mac")) {
-                exeFilename = exeFilename.concat("_osx");
-            }
-            else if (System.getProperty("os.name").toLowerCase().startsWith("linux")) {
-                exeFilename = exeFilename.concat("_linux");
-            }
-            else {
-                logger.warn("Could not determine OS, trying generic executable name");
-            }
-
-            URI exeFile = getFile(jarUri, exeFilename);
-            new File(exeFile).setExecutable(true);
-
-            ProcessBuilder pb = new ProcessBuilder(new File(exeFile).toString());
-            pb.redirectErrorStream(true);
-            pb.directory(swatModelDir);
-            Process process = pb.start();
-            InputStream stdOutStream = process.getInputStream();
-            InputStreamReader isr = new InputStreamReader(stdOutStream);
-            BufferedReader br = new BufferedReader(isr);
-            String line;
-            logger.info(String.format("Output of running %s is:\n",
-                                      Arrays.toString(pb.command().toArray())
-                                     ));
-            while ((line = br.readLine()) != null) {
-                logger.info(line);
-                this.swatConsoleOutput = this.swatConsoleOutput.concat(line).concat("\n");
-            }
-
-            int exitValue = process.waitFor();
-            if (exitValue != 0) {
-                throw new IOException("SWAT didn't complete successfully");
-            }
-
-            Collection<File> outFiles = FileUtils.listFiles(swatModelDir,
-                                                            new WildcardFileFilter("output.*"), TrueFileFilter.TRUE
-                                                           );
-            File outFilesZippend = org.n52.wps.io.IOUtils.zip(outFiles.toArray(new File[outFiles.size()]));
-            this.swatOutputZipped = new GenericFileData(outFilesZippend, "application/zip");
-        } catch (URISyntaxException e) {
-            logger.error("Could not determine uri of jar. ", e);
-            throw new IOException("Could not determine uri of jar. ", e);
+        File modelZip = null;
+        if (swatInputZip != null && swatInputZip.size() == 1) {
+            modelZip = swatInputZip.get(0).getBaseFile(false);
+        }
+        SwatModelPatch patch = new SwatModelPatch(
+                this.modelPatch != null && this.modelPatch.size() == 1
+                        ? this.modelPatch.get(0).getBaseFile(false) : null,
+                this.parameterEdits);
+        SwatPrintOptions printOptions = new SwatPrintOptions(this.printFrequency, this.outputFiles,
+                                                             this.reachVariables, this.subbasinVariables,
+                                                             this.hruVariables, this.hruIds);
+        SwatRun run = new SwatRun(modelZip, this.baseModel, patch, null, printOptions,
+                                  SwatOutputPackager.parseLevel(this.outputCompression), this.forceRun);
+
+        RunMetrics metrics = new RunMetrics("swat-runner-algorithm");
+        boolean failed = true;
+        long start = RunMetrics.start();
+        // the model and the output files SWAT writes live in a workspace that is removed after the run,
+        // only the results returned to the client go to the temp dir of the execution context
+        try (SwatWorkspaces.Workspace workspace = SwatWorkspaces.getInstance().create("run")) {
+            metrics.finish(RunMetrics.Phase.WORKSPACE, start);
+            run.execute(workspace, tempDir, new PercentProgressListener(0, 100) {
+                @Override
+                void report(int percent) {
+                    update(percent);
+                }
+            }, metrics);
+            failed = false;
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             logger.error("Exception on running SWAT process.", e);
             throw new IOException("Exception on running SWAT process.", e);
-        } catch (net.lingala.zip4j.exception.ZipException e) {
-            logger.error("Could not extract swat input model.", e);
-            throw new IOException("Could not extract swat input model.", e);
         } finally {
-            //TODO FIXME is that really necessary? The Execution context should delete this?
-/*
-            if (tempDir.isDirectory()) {
-                FileUtils.deleteDirectory(tempDir);
-            }
-*/
-        }
-    }
-
-    /**
-     * Gets the URI of the jar file this class is in.
-     *
-     * @return URI of jar file this class is in
-     * @throws URISyntaxException
-     */
-    private URI getJarURI()
-            throws URISyntaxException {
-        final ProtectionDomain domain;
-        final CodeSource source;
-        final URL url;
-        final URI uri;
-
-        domain = this.getClass().getProtectionDomain();
-        source = domain.getCodeSource();
-        url = source.getLocation();
-        uri = url.toURI();
-
-        return (uri);
-    }
-
-    /**
-     * @param locationUri
-     * @param fileName
-     * @return
-     * @throws ZipException
-     * @throws IOException
-     */
-    private URI getFile(final URI locationUri, final String fileName)
-            throws ZipException, IOException {
-        final File location;
-        final URI fileURI;
-
-        location = new File(locationUri);
-
-        // not in a JAR, just return the path on disk
-        if (location.isDirectory()) {
-            fileURI = URI.create(locationUri.toString() + System.getProperty("file.separator") + fileName);
-        }
-        else {
-            final ZipFile zipFile;
-
-            zipFile = new ZipFile(location);
-
-            try {
-                fileURI = extractToTemp(zipFile, fileName);
-            } finally {
-                zipFile.close();
-            }
+            metrics.report(failed);
+            this.runMetrics = metrics.toJson();
+            this.runId = run.getRunId();
+            this.swatModelHash = run.getModelHash();
+            this.swatConsoleOutput = run.getConsoleOutput();
         }
-        return (fileURI);
-    }
-
-    private URI extractToTemp(final ZipFile zipFile, final String filename)
-            throws IOException {
-        final File tempFile;
-        final ZipEntry entry;
-
-
-        tempFile = new File(ExecutionContextFactory.getContext().getTempDirectoryPath() + System
-                .getProperty("file.separator") + filename);
-        tempFile.getParentFile().mkdirs();
-        entry = zipFile.getEntry(filename);
-
-        if (entry == null) {
-            throw new FileNotFoundException("cannot find file: " + filename + " in archive: " + zipFile.getName());
-        }
-
-        try (OutputStream fileStream = new FileOutputStream(tempFile);
-             InputStream zipStream = zipFile.getInputStream(entry)) {
-            final byte[] buf;
-            int i;
-
-            buf = new byte[1024];
-            i = 0;
-
-            while ((i = zipStream.read(buf)) != -1) {
-                fileStream.write(buf, 0, i);
-            }
-        }
-
-        return (tempFile.toURI());
+        this.swatOutputZipped = new GenericFileData(run.getOutputZip(), "application/zip");
     }
 }
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A model parameter varied by a calibration, written as {@code name:method:files:line:column:min:max}.
+ * <p/>
+ * {@code files} is a file name pattern ({@code *.gw}) matched against the model's files; the value at
+ * {@code line} and {@code column} of every matching file is changed (see {@link SwatModelPatch}). As in
+ * SWAT-CUP, the method {@code v} replaces the value, {@code r} multiplies it by {@code (1 + x)} and
+ * {@code a} adds {@code x}, with {@code x} drawn from {@code [min, max]}.
+ */
+final class CalibrationParameter {
+
+    enum Method {
+        V, R, A
+    }
+
+    private final String name;
+    private final Method method;
+    private final String files;
+    private final int line;
+    private final int column;
+    private final double min;
+    private final double max;
+
+    CalibrationParameter(String name, Method method, String files, int line, int column, double min, double max) {
+        this.name = name;
+        this.method = method;
+        this.files = files;
+        this.line = line;
+        this.column = column;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code spec} is invalid
+     */
+    static CalibrationParameter parse(String spec) {
+        String[] parts = spec.trim().split("\\s*:\\s*");
+        if (parts.length != 7) {
+            throw new IllegalArgumentException("Invalid parameter '" + spec
+                                                       + "', expected name:method:files:line:column:min:max");
+        }
+        try {
+            Method method = Method.valueOf(parts[1].toUpperCase(Locale.ROOT));
+            int line = Integer.parseInt(parts[3]);
+            int column = Integer.parseInt(parts[4]);
+            double min = Double.parseDouble(parts[5]);
+            double max = Double.parseDouble(parts[6]);
+            if (parts[0].isEmpty() || parts[2].isEmpty() || line < 1 || column < 1 || !(min <= max)) {
+                throw new IllegalArgumentException("Invalid parameter '" + spec + "'");
+            }
+            return new CalibrationParameter(parts[0], method, parts[2], line, column, min, max);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid parameter '" + spec + "'", e);
+        }
+    }
+
+    /**
+     * Parses a list of parameter specifications.
+     */
+    static List<CalibrationParameter> parseAll(List<String> specs) {
+        List<CalibrationParameter> parameters = new ArrayList<>();
+        for (String spec : specs) {
+            parameters.add(parse(spec));
+        }
+        return parameters;
+    }
+
+    String getName() {
+        return this.name;
+    }
+
+    double getMin() {
+        return this.min;
+    }
+
+    double getMax() {
+        return this.max;
+    }
+
+    /**
+     * Finds the files of {@code modelDir} changed by this parameter and their current values.
+     *
+     * @throws IOException if no file matches or a value can't be read
+     */
+    Target resolve(File modelDir) throws IOException {
+        File[] matches = modelDir.listFiles((FileFilter) new WildcardFileFilter(this.files));
+        if (matches == null || matches.length == 0) {
+            throw new IOException("No model file matches " + this.files + " of parameter " + this.name);
+        }
+        Arrays.sort(matches);
+        String[] names = new String[matches.length];
+        double[] originals = new double[matches.length];
+        for (int i = 0; i < matches.length; i++) {
+            names[i] = matches[i].getName();
+            if (this.method != Method.V) {
+                String value = SwatModelPatch.readValue(matches[i], this.line, this.column);
+                try {
+                    originals[i] = Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Value '" + value + "' of parameter " + this.name + " in "
+                                                  + names[i] + " is no number", e);
+                }
+            }
+        }
+        return new Target(names, originals);
+    }
+
+    /**
+     * Formats a value for a model file. Values always get a decimal point, so fixed format reads with
+     * implied decimals can't shift them.
+     */
+    static String format(double value) {
+        String text = String.format(Locale.ROOT, "%.4f", value);
+        int end = text.length();
+        while (text.charAt(end - 1) == '0' && text.charAt(end - 2) != '.') {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * The files a parameter changes, with their values before the calibration.
+     */
+    final class Target {
+        private final String[] files;
+        private final double[] originals;
+
+        private Target(String[] files, double[] originals) {
+            this.files = files;
+            this.originals = originals;
+        }
+
+        /**
+         * Adds the edits that set this parameter to {@code x} to {@code edits}, in the
+         * {@link SwatModelPatch} format.
+         */
+        void addEdits(double x, List<String> edits) {
+            for (int i = 0; i < this.files.length; i++) {
+                double value;
+                switch (CalibrationParameter.this.method) {
+                    case R:
+                        value = this.originals[i] * (1 + x);
+                        break;
+                    case A:
+                        value = this.originals[i] + x;
+                        break;
+                    default:
+                        value = x;
+                        break;
+                }
+                edits.add(this.files[i] + ":" + CalibrationParameter.this.line + ":"
+                                  + CalibrationParameter.this.column + "=" + format(value));
+            }
+        }
+
+        int getFileCount() {
+            return this.files.length;
+        }
+    }
+}
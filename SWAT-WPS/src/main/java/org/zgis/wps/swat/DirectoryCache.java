@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * A size and age bounded LRU cache of directories, keyed by hex encoded SHA-256 hashes.
+ * <p/>
+ * Every entry is a sub directory of the cache root named after its key, so the cache survives
+ * restarts. Entries are prepared in a temporary directory and moved into place atomically. Entries are
+ * pinned while a {@link Lease} on them is open and are never evicted while pinned.
+ */
+final class DirectoryCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryCache.class);
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final String TEMP_PREFIX = ".tmp-";
+    private static final long STALE_TEMP_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final String name;
+    private final File root;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    /**
+     * Entries in access order, guarded by {@code this}.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * @param name         name used in log messages
+     * @param maxAgeMillis entries not used for this long are dropped, 0 to keep them forever
+     */
+    DirectoryCache(String name, File root, long maxBytes, long maxAgeMillis) throws IOException {
+        this.name = name;
+        this.root = root;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create " + name + " dir " + root);
+        }
+        load();
+    }
+
+    /**
+     * @return lease on the entry for {@code key} or null if there is no such (or only an expired) entry
+     */
+    Lease acquire(String key) {
+        File expired;
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            if (entry.pins == 0 && isExpired(entry, now)) {
+                remove(entry);
+                expired = detach(entry.directory);
+            }
+            else {
+                entry.pins++;
+                entry.lastAccess = now;
+                if (!entry.directory.setLastModified(now)) {
+                    logger.debug("Could not touch " + entry.directory);
+                }
+                return new Lease(entry);
+            }
+        }
+        logger.info("Dropping expired " + this.name + " entry " + key);
+        FileUtils.deleteQuietly(expired);
+        return null;
+    }
+
+    /**
+     * @return a new, empty directory next to the entries, to prepare an entry in
+     */
+    File newTempDir() throws IOException {
+        return Files.createTempDirectory(this.root.toPath(), TEMP_PREFIX).toFile();
+    }
+
+    /**
+     * Moves the prepared directory {@code prepared} into the cache as entry {@code key}, replacing a
+     * previous entry with the same key, and evicts entries if the cache is over budget.
+     *
+     * @return lease on the new entry
+     */
+    Lease put(String key, File prepared) throws IOException {
+        if (!KEY_PATTERN.matcher(key).matches()) {
+            throw new IllegalArgumentException("Invalid cache key " + key);
+        }
+        File target = new File(this.root, key);
+        long size = FileUtils.sizeOfDirectory(prepared);
+        File replaced = null;
+        Entry entry;
+        synchronized (this) {
+            Entry previous = this.entries.get(key);
+            if (previous != null && previous.pins > 0) {
+                throw new IOException(this.name + " entry " + key + " is in use");
+            }
+            if (target.exists()) {
+                replaced = detach(target);
+            }
+            if (previous != null) {
+                remove(previous);
+            }
+            Files.move(prepared.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            entry = new Entry(key, target, size);
+            entry.pins++;
+            this.entries.put(key, entry);
+            this.totalBytes += entry.size;
+        }
+        if (replaced != null) {
+            FileUtils.deleteQuietly(replaced);
+        }
+        evict();
+        return new Lease(entry);
+    }
+
+    /**
+     * @return number of bytes used by the entries
+     */
+    synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * @return number of entries
+     */
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return this.maxAgeMillis > 0 && now - entry.lastAccess > this.maxAgeMillis;
+    }
+
+    /**
+     * Renames an entry directory out of the way, so it can be deleted after the lock is released
+     * without racing with a {@link #put(String, File)} of the same key.
+     */
+    private File detach(File directory) {
+        File detached = new File(this.root, TEMP_PREFIX + "removed-" + UUID.randomUUID());
+        try {
+            Files.move(directory.toPath(), detached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return detached;
+        } catch (IOException e) {
+            logger.debug("Could not rename " + directory + ": " + e);
+            return directory;
+        }
+    }
+
+    private void remove(Entry entry) {
+        this.entries.remove(entry.key);
+        this.totalBytes -= entry.size;
+    }
+
+    /**
+     * Removes expired entries and, while the cache is over budget, the least recently used ones.
+     */
+    void evict() {
+        List<Entry> evicted = new ArrayList<>();
+        List<File> detached = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> it = this.entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.pins == 0 && (this.totalBytes > this.maxBytes || isExpired(entry, now))) {
+                    it.remove();
+                    this.totalBytes -= entry.size;
+                    evicted.add(entry);
+                    detached.add(detach(entry.directory));
+                }
+            }
+        }
+        for (int i = 0; i < evicted.size(); i++) {
+            Entry entry = evicted.get(i);
+            logger.info("Evicting " + this.name + " entry " + entry.key + " (" + entry.size + " bytes)");
+            FileUtils.deleteQuietly(detached.get(i));
+        }
+    }
+
+    /**
+     * Registers the entries already present in the cache dir, e.g. from before a restart, oldest first.
+     */
+    private void load() {
+        File[] dirs = this.root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        Arrays.sort(dirs, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        for (File dir : dirs) {
+            if (!dir.isDirectory()) {
+                continue;
+            }
+            if (!KEY_PATTERN.matcher(dir.getName()).matches()) {
+                if (dir.getName().startsWith(TEMP_PREFIX)
+                        && dir.lastModified() < System.currentTimeMillis() - STALE_TEMP_MILLIS) {
+                    // leftovers of interrupted preparations
+                    FileUtils.deleteQuietly(dir);
+                }
+                continue;
+            }
+            Entry entry = new Entry(dir.getName(), dir, FileUtils.sizeOfDirectory(dir));
+            entry.lastAccess = dir.lastModified();
+            this.entries.put(entry.key, entry);
+            this.totalBytes += entry.size;
+        }
+        logger.info(this.name + " " + this.root + " holds " + this.entries.size() + " entries, "
+                            + this.totalBytes + " bytes");
+        evict();
+    }
+
+    private void release(Entry entry) {
+        boolean overBudget;
+        synchronized (this) {
+            entry.pins--;
+            overBudget = this.totalBytes > this.maxBytes;
+        }
+        if (overBudget) {
+            evict();
+        }
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final File directory;
+        private final long size;
+        private long lastAccess = System.currentTimeMillis();
+        private int pins = 0;
+
+        private Entry(String key, File directory, long size) {
+            this.key = key;
+            this.directory = directory;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Keeps a cache entry from being evicted while it is in use.
+     */
+    final class Lease implements Closeable {
+        private final Entry entry;
+        private boolean closed = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return the directory of the entry
+         */
+        File getDirectory() {
+            return this.entry.directory;
+        }
+
+        /**
+         * @return key of the entry
+         */
+        String getKey() {
+            return this.entry.key;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                release(this.entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+/**
+ * Goodness of fit of simulated to observed values, accumulated pair by pair.
+ * <p/>
+ * Only sums are kept, so the criteria are available after a single pass over the simulation output
+ * without storing the simulated series:
+ * <ul>
+ * <li>NSE, Nash-Sutcliffe efficiency, 1 is a perfect fit</li>
+ * <li>KGE, Kling-Gupta efficiency (Gupta et al. 2009), 1 is a perfect fit</li>
+ * <li>PBIAS, percent bias, positive if the simulation underestimates, 0 is a perfect fit</li>
+ * </ul>
+ */
+final class GoodnessOfFit {
+
+    private int count = 0;
+    private double sumObserved = 0;
+    private double sumSimulated = 0;
+    private double sumObservedSquared = 0;
+    private double sumSimulatedSquared = 0;
+    private double sumProducts = 0;
+    private double sumSquaredErrors = 0;
+
+    /**
+     * Adds a pair of values, pairs with a missing (NaN) value are ignored.
+     */
+    void add(double observed, double simulated) {
+        if (Double.isNaN(observed) || Double.isNaN(simulated)) {
+            return;
+        }
+        this.count++;
+        this.sumObserved += observed;
+        this.sumSimulated += simulated;
+        this.sumObservedSquared += observed * observed;
+        this.sumSimulatedSquared += simulated * simulated;
+        this.sumProducts += observed * simulated;
+        double error = observed - simulated;
+        this.sumSquaredErrors += error * error;
+    }
+
+    /**
+     * @return number of pairs
+     */
+    int getCount() {
+        return this.count;
+    }
+
+    double getNse() {
+        double variance = this.sumObservedSquared - this.sumObserved * this.sumObserved / this.count;
+        return 1 - this.sumSquaredErrors / variance;
+    }
+
+    double getKge() {
+        double meanObserved = this.sumObserved / this.count;
+        double meanSimulated = this.sumSimulated / this.count;
+        double varObserved = this.sumObservedSquared / this.count - meanObserved * meanObserved;
+        double varSimulated = this.sumSimulatedSquared / this.count - meanSimulated * meanSimulated;
+        double covariance = this.sumProducts / this.count - meanObserved * meanSimulated;
+        double r = covariance / Math.sqrt(varObserved * varSimulated);
+        double alpha = Math.sqrt(varSimulated / varObserved);
+        double beta = meanSimulated / meanObserved;
+        return 1 - Math.sqrt((r - 1) * (r - 1) + (alpha - 1) * (alpha - 1) + (beta - 1) * (beta - 1));
+    }
+
+    double getPbias() {
+        return 100 * (this.sumObserved - this.sumSimulated) / this.sumObserved;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming (StAX) parser for O&amp;M 2.0 measurements in SOS 2.0 GetObservation responses.
+ * <p/>
+ * The response is consumed straight from the input stream and every {@code om:OM_Observation} with a
+ * numeric result is handed to an {@link ObservationSink} as soon as it is complete, so neither the
+ * document nor per-observation objects are kept. Phenomenon times referenced by {@code xlink:href}
+ * (as the 52N SOS writes them for repeated times) are resolved. The 52N SOS gives every phenomenon time an
+ * id but only refers back to recent ones, so just the most recently used ids are remembered.
+ */
+final class OM2StreamingParser {
+
+    static final String OM_NS = "http://www.opengis.net/om/2.0";
+    static final String GML_NS = "http://www.opengis.net/gml/3.2";
+    static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+    static final String OWS_NS = "http://www.opengis.net/ows/1.1";
+
+    private static final XMLInputFactory factory;
+
+    static {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Number of phenomenon time ids remembered for {@code xlink:href} references.
+     */
+    static final int REFERENCED_TIMES = 64;
+
+    private final DateTimeFormatter timeParser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    private final Map<String, Long> timesById = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > REFERENCED_TIMES;
+        }
+    };
+
+    /**
+     * Parses a GetObservation response.
+     *
+     * @return number of observations passed to {@code sink}
+     * @throws IOException if the stream can't be read, is no valid XML or is an OWS exception report
+     */
+    int parse(InputStream in, ObservationSink sink) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(in);
+            return parse(reader, sink);
+        } catch (XMLStreamException | IllegalArgumentException e) {
+            throw new IOException("Could not parse GetObservation response", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // the underlying stream is closed by the caller
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of phenomenon time ids remembered from the last response
+     */
+    int getReferencedTimes() {
+        return this.timesById.size();
+    }
+
+    private int parse(XMLStreamReader reader, ObservationSink sink) throws XMLStreamException, IOException {
+        this.timesById.clear();
+        int count = 0;
+        boolean inObservation = false;
+        boolean inPhenomenonTime = false;
+        long time = Long.MIN_VALUE;
+        String timeId = null;
+        String exceptionText = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String ns = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (OM_NS.equals(ns)) {
+                    if ("OM_Observation".equals(name)) {
+                        inObservation = true;
+                        time = Long.MIN_VALUE;
+                    }
+                    else if ("phenomenonTime".equals(name) && inObservation) {
+                        inPhenomenonTime = true;
+                        String href = reader.getAttributeValue(XLINK_NS, "href");
+                        if (href != null && href.startsWith("#")) {
+                            Long referenced = this.timesById.get(href.substring(1));
+                            if (referenced != null) {
+                                time = referenced;
+                            }
+                        }
+                    }
+                    else if ("result".equals(name) && inObservation) {
+                        String text = reader.getElementText().trim();
+                        if (time != Long.MIN_VALUE && !text.isEmpty()) {
+                            try {
+                                sink.observation(time, Double.parseDouble(text));
+                                count++;
+                            } catch (NumberFormatException ignored) {
+                                // not a measurement
+                            }
+                        }
+                    }
+                }
+                else if (GML_NS.equals(ns) && inPhenomenonTime) {
+                    if ("TimeInstant".equals(name) || "TimePeriod".equals(name)) {
+                        timeId = reader.getAttributeValue(GML_NS, "id");
+                    }
+                    else if ("timePosition".equals(name) || "beginPosition".equals(name)) {
+                        time = this.timeParser.parseMillis(reader.getElementText().trim());
+                        if (timeId != null) {
+                            this.timesById.put(timeId, time);
+                        }
+                    }
+                }
+                else if (OWS_NS.equals(ns) && "ExceptionText".equals(name)) {
+                    exceptionText = reader.getElementText();
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+                if (OM_NS.equals(reader.getNamespaceURI())) {
+                    if ("OM_Observation".equals(name)) {
+                        inObservation = false;
+                    }
+                    else if ("phenomenonTime".equals(name)) {
+                        inPhenomenonTime = false;
+                        timeId = null;
+                    }
+                }
+                else if (OWS_NS.equals(reader.getNamespaceURI()) && "ExceptionReport".equals(name)) {
+                    throw new IOException("SOS returned an exception: " + exceptionText);
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent local copy of SOS observation series.
+ * <p/>
+ * Every series (SOS url, procedure, observed property and station) is stored in one file below
+ * {@code swat.observation.store.dir}, together with the time intervals that have been fetched for it.
+ * A request only asks the SOS for the parts of its time range that are not covered yet and merges the
+ * answer into the stored series. The last {@code swat.observation.store.settle.hours} before the time of
+ * a fetch are never marked as covered, as a SOS may still receive observations for them; they are
+ * fetched again by the next request.
+ */
+final class ObservationStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ObservationStore.class);
+
+    private static final String KEY_VERSION = "sos-observations-1";
+    private static final int MAGIC = 0x53574f42;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".obs";
+
+    private static ObservationStore instance;
+
+    private final File root;
+    private final long settleMillis;
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+
+    ObservationStore(File root, long settleMillis) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs() && !root.isDirectory()) {
+            throw new IOException("Could not create observation store " + root);
+        }
+        this.root = root;
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * @return the shared store, configured from {@link SwatConfiguration}
+     */
+    static synchronized ObservationStore getInstance() throws IOException {
+        if (instance == null) {
+            instance = new ObservationStore(SwatConfiguration.getDirectory("observation.store.dir", "observations"),
+                                            SwatConfiguration.getLong("observation.store.settle.hours", 48)
+                                                    * 60 * 60 * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true unless the store is disabled with {@code swat.observation.store.enabled=false}
+     */
+    static boolean isEnabled() {
+        return SwatConfiguration.getBoolean("observation.store.enabled", true);
+    }
+
+    /**
+     * Returns the observations of {@code queries} between {@code begin} and {@code end}, fetching only
+     * what is not stored yet from the SOS.
+     *
+     * @return the observations of every query, sorted by time, in the order of {@code queries}
+     */
+    Map<SosClient.Query, TimeValueSeries> getObservations(SosClient client, String sosUrl,
+                                                          List<SosClient.Query> queries, DateTime begin,
+                                                          DateTime end) throws IOException {
+        long from = begin.getMillis();
+        long to = end.getMillis();
+
+        List<SosClient.Query> missingQueries = new ArrayList<>();
+        List<Interval> missingIntervals = new ArrayList<>();
+        for (SosClient.Query query : queries) {
+            Entry entry = load(key(sosUrl, query));
+            long[] missing = entry.missing(from, to);
+            for (int i = 0; i < missing.length; i += 2) {
+                missingQueries.add(query);
+                missingIntervals.add(new Interval(missing[i], missing[i + 1]));
+            }
+        }
+        logger.info(missingIntervals.size() + " intervals of " + queries.size() + " series missing locally");
+
+        long fetchTime = System.currentTimeMillis();
+        List<TimeValueSeries> fetched = client.getObservations(sosUrl, missingQueries, missingIntervals);
+
+        Map<SosClient.Query, TimeValueSeries> result = new LinkedHashMap<>();
+        for (SosClient.Query query : queries) {
+            if (result.containsKey(query)) {
+                continue;
+            }
+            String key = key(sosUrl, query);
+            Entry entry;
+            Object lock = lock(key);
+            synchronized (lock) {
+                entry = load(key);
+                boolean changed = false;
+                for (int i = 0; i < missingQueries.size(); i++) {
+                    if (missingQueries.get(i).equals(query)) {
+                        Interval interval = missingIntervals.get(i);
+                        entry.merge(interval.getStartMillis(), interval.getEndMillis(), fetched.get(i),
+                                    fetchTime - this.settleMillis);
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    save(key, entry);
+                }
+            }
+            result.put(query, entry.range(from, to));
+        }
+        return result;
+    }
+
+    private Object lock(String key) {
+        Object lock = this.locks.get(key);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = this.locks.putIfAbsent(key, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    static String key(String sosUrl, SosClient.Query query) {
+        MessageDigest digest = Checksums.newDigest();
+        digest.update(KEY_VERSION.getBytes(StandardCharsets.UTF_8));
+        for (String part : new String[]{sosUrl, query.getProcedure(), query.getObservedProperty(),
+                query.getFeatureOfInterest()}) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    private Entry load(String key) throws IOException {
+        File file = new File(this.root, key + SUFFIX);
+        if (!file.isFile()) {
+            return new Entry(new long[0], new TimeValueSeries());
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring stored observations in unknown format: " + file);
+                return new Entry(new long[0], new TimeValueSeries());
+            }
+            long[] covered = new long[in.readInt() * 2];
+            for (int i = 0; i < covered.length; i++) {
+                covered[i] = in.readLong();
+            }
+            int size = in.readInt();
+            TimeValueSeries series = new TimeValueSeries(size);
+            for (int i = 0; i < size; i++) {
+                series.observation(in.readLong(), in.readDouble());
+            }
+            return new Entry(covered, series);
+        }
+    }
+
+    private void save(String key, Entry entry) throws IOException {
+        File file = new File(this.root, key + SUFFIX);
+        File tmp = File.createTempFile(".tmp-" + key, SUFFIX, this.root);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entry.covered.length / 2);
+                for (long time : entry.covered) {
+                    out.writeLong(time);
+                }
+                out.writeInt(entry.series.size());
+                for (int i = 0; i < entry.series.size(); i++) {
+                    out.writeLong(entry.series.getTime(i));
+                    out.writeDouble(entry.series.getValue(i));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * A stored series and the intervals it covers, as sorted, disjoint {@code [begin, end]} pairs.
+     */
+    static final class Entry {
+        private long[] covered;
+        private TimeValueSeries series;
+
+        Entry(long[] covered, TimeValueSeries series) {
+            this.covered = covered;
+            this.series = series;
+        }
+
+        /**
+         * @return the parts of {@code [from, to]} that are not covered, as {@code [begin, end]} pairs
+         */
+        long[] missing(long from, long to) {
+            long[] missing = new long[this.covered.length + 2];
+            int count = 0;
+            long position = from;
+            for (int i = 0; i < this.covered.length && position < to; i += 2) {
+                long begin = this.covered[i];
+                long end = this.covered[i + 1];
+                if (end < position) {
+                    continue;
+                }
+                if (begin > position) {
+                    missing[count++] = position;
+                    missing[count++] = Math.min(begin, to);
+                }
+                position = Math.max(position, end);
+            }
+            if (position < to) {
+                missing[count++] = position;
+                missing[count++] = to;
+            }
+            return Arrays.copyOf(missing, count);
+        }
+
+        /**
+         * Replaces the stored observations in {@code [from, to]} by {@code fetched} and marks the interval
+         * up to {@code settledUntil} as covered.
+         */
+        void merge(long from, long to, TimeValueSeries fetched, long settledUntil) {
+            fetched.sortByTime();
+            TimeValueSeries merged = new TimeValueSeries(this.series.size() + fetched.size());
+            TimeValueSeries.merge(this.series, fetched, from, to, merged);
+            this.series = merged;
+
+            long coveredTo = Math.min(to, settledUntil);
+            if (coveredTo > from) {
+                cover(from, coveredTo);
+            }
+        }
+
+        void cover(long from, long to) {
+            int insert = 0;
+            while (insert < this.covered.length && this.covered[insert] < from) {
+                insert += 2;
+            }
+            long[] intervals = new long[this.covered.length + 2];
+            System.arraycopy(this.covered, 0, intervals, 0, insert);
+            intervals[insert] = from;
+            intervals[insert + 1] = to;
+            System.arraycopy(this.covered, insert, intervals, insert + 2, this.covered.length - insert);
+
+            // join overlapping and adjacent intervals
+            int count = 2;
+            for (int i = 2; i < intervals.length; i += 2) {
+                if (intervals[i] <= intervals[count - 1]) {
+                    intervals[count - 1] = Math.max(intervals[count - 1], intervals[i + 1]);
+                }
+                else {
+                    intervals[count++] = intervals[i];
+                    intervals[count++] = intervals[i + 1];
+                }
+            }
+            this.covered = Arrays.copyOf(intervals, count);
+        }
+
+        /**
+         * @return copy of the observations in {@code [from, to]}
+         */
+        TimeValueSeries range(long from, long to) {
+            int first = this.series.indexOf(from);
+            int last = this.series.indexOf(to == Long.MAX_VALUE ? to : to + 1);
+            TimeValueSeries range = new TimeValueSeries(last - first);
+            for (int i = first; i < last; i++) {
+                range.observation(this.series.getTime(i), this.series.getValue(i));
+            }
+            return range;
+        }
+
+        long[] getCovered() {
+            return this.covered;
+        }
+    }
+}
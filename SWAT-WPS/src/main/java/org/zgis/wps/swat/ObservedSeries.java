@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.LocalDate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Observed values of a single unit (e.g. the discharge at the outlet of a reach), keyed by the time steps
+ * of SWAT output.
+ * <p/>
+ * Read from CSV lines {@code date,value} where the date is {@code yyyy-mm-dd} (daily values),
+ * {@code yyyy-mm} (monthly) or {@code yyyy} (yearly). Blank lines, lines starting with {@code #} and a
+ * header line are skipped; {@code ;} may be used instead of {@code ,}.
+ */
+final class ObservedSeries {
+
+    private static final Pattern LINE = Pattern.compile(
+            "\\s*(\\d{4})(?:-(\\d{1,2})(?:-(\\d{1,2}))?)?\\s*[,;]\\s*([^,;\\s]+)\\s*(?:[,;].*)?");
+
+    private final int printMode;
+    /**
+     * Sorted {@code year * 1000 + period}.
+     */
+    private final int[] keys;
+    private final double[] values;
+
+    private ObservedSeries(int printMode, int[] keys, double[] values) {
+        this.printMode = printMode;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @throws IOException if the file can't be read, a line is invalid or dates of different time steps
+     *                     are mixed
+     */
+    static ObservedSeries read(File csv) throws IOException {
+        int printMode = -1;
+        int[] keys = new int[1024];
+        double[] values = new double[1024];
+        int count = 0;
+        boolean sorted = true;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv),
+                                                                          StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                Matcher matcher = LINE.matcher(line);
+                if (!matcher.matches()) {
+                    if (count == 0 && printMode < 0) {
+                        // header
+                        printMode = -2;
+                        continue;
+                    }
+                    throw new IOException("Invalid observation in line " + lineNumber + ": " + line);
+                }
+                int year = Integer.parseInt(matcher.group(1));
+                int mode;
+                int period;
+                try {
+                    if (matcher.group(3) != null) {
+                        mode = SwatOutputTable.DAILY;
+                        period = new LocalDate(year, Integer.parseInt(matcher.group(2)),
+                                               Integer.parseInt(matcher.group(3))).getDayOfYear();
+                    }
+                    else if (matcher.group(2) != null) {
+                        mode = SwatOutputTable.MONTHLY;
+                        period = Integer.parseInt(matcher.group(2));
+                        if (period < 1 || period > 12) {
+                            throw new IllegalArgumentException("Invalid month " + period);
+                        }
+                    }
+                    else {
+                        mode = SwatOutputTable.YEARLY;
+                        period = 0;
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid date in line " + lineNumber + ": " + line, e);
+                }
+                if (printMode >= 0 && mode != printMode) {
+                    throw new IOException("Line " + lineNumber + " has a different time step than the lines "
+                                                  + "before: " + line);
+                }
+                printMode = mode;
+
+                double value;
+                try {
+                    value = Double.parseDouble(matcher.group(4));
+                } catch (NumberFormatException e) {
+                    // no data
+                    continue;
+                }
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                keys[count] = year * 1000 + period;
+                values[count] = value;
+                if (count > 0 && keys[count] <= keys[count - 1]) {
+                    sorted = false;
+                }
+                count++;
+            }
+        }
+        if (count == 0) {
+            throw new IOException("No observations in " + csv.getName());
+        }
+        keys = Arrays.copyOf(keys, count);
+        values = Arrays.copyOf(values, count);
+        if (!sorted) {
+            sort(keys, values);
+        }
+        return new ObservedSeries(printMode, keys, values);
+    }
+
+    private static void sort(int[] keys, double[] values) throws IOException {
+        long[] packed = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            packed[i] = (long) keys[i] << 32 | i;
+        }
+        Arrays.sort(packed);
+        double[] copy = values.clone();
+        for (int i = 0; i < packed.length; i++) {
+            keys[i] = (int) (packed[i] >>> 32);
+            values[i] = copy[(int) packed[i]];
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                throw new IOException("Duplicate observation for " + keys[i] / 1000 + "/" + keys[i] % 1000);
+            }
+        }
+    }
+
+    /**
+     * @return {@link SwatOutputTable#DAILY}, {@link SwatOutputTable#MONTHLY} or {@link SwatOutputTable#YEARLY}
+     */
+    int getPrintMode() {
+        return this.printMode;
+    }
+
+    /**
+     * @return the print frequency name of {@link SwatPrintOptions}
+     */
+    String getPrintFrequency() {
+        switch (this.printMode) {
+            case SwatOutputTable.DAILY:
+                return "daily";
+            case SwatOutputTable.YEARLY:
+                return "yearly";
+            default:
+                return "monthly";
+        }
+    }
+
+    int size() {
+        return this.keys.length;
+    }
+
+    /**
+     * @param period day of the year, month or 0, like {@link SwatOutputTable.ValueSink}
+     * @return the observed value or NaN if there is none
+     */
+    double get(int year, int period) {
+        int index = Arrays.binarySearch(this.keys, year * 1000 + period);
+        return index >= 0 ? this.values[index] : Double.NaN;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+/**
+ * Maps the fraction of a run completed to the whole percents an algorithm reports to the WPS, and
+ * reports each percent only once and never a lower one.
+ */
+abstract class PercentProgressListener implements SwatProcessRunner.ProgressListener {
+
+    private final int first;
+    private final int last;
+    private int percent;
+
+    /**
+     * @param first percent reported before the run, the fraction 0 maps to it
+     * @param last  percent the fraction 1 maps to
+     */
+    PercentProgressListener(int first, int last) {
+        this.first = first;
+        this.last = last;
+        this.percent = first;
+    }
+
+    @Override
+    public void progress(double completed) {
+        int current = Math.min(this.first + (int) (completed * (this.last - this.first)), this.last);
+        if (current > this.percent) {
+            this.percent = current;
+            report(current);
+        }
+    }
+
+    /**
+     * @param percent percent completed, higher than any reported before
+     */
+    abstract void report(int percent);
+}
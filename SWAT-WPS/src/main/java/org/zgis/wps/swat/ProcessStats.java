@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * CPU time and peak resident set size of a child process, read from {@code /proc} on Linux.
+ * <p/>
+ * The values are sampled, the last sample should be taken when the process has closed its output but
+ * has not been waited for yet: the kernel keeps the CPU times of such a (zombie) process until it is
+ * reaped.
+ */
+final class ProcessStats {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessStats.class);
+
+    /**
+     * Clock ticks per second of the times in {@code /proc/<pid>/stat} (USER_HZ), 100 on all common
+     * Linux platforms.
+     */
+    private static final long CLOCK_TICKS = 100;
+
+    private final File stat;
+    private final File status;
+
+    private long cpuMillis = -1;
+    private long peakRssKb = -1;
+
+    private ProcessStats(File procDir) {
+        this.stat = new File(procDir, "stat");
+        this.status = new File(procDir, "status");
+    }
+
+    /**
+     * @return the statistics of {@code process} or null if they are not available on this platform
+     */
+    static ProcessStats of(Process process) {
+        long pid = pid(process);
+        File procDir = new File("/proc/" + pid);
+        if (pid <= 0 || !procDir.isDirectory()) {
+            return null;
+        }
+        return new ProcessStats(procDir);
+    }
+
+    /**
+     * Reads the current values. Failures (e.g. because the process has been reaped) are ignored, the
+     * values of the last successful sample are kept.
+     */
+    void sample() {
+        try {
+            String line = new String(Files.readAllBytes(this.stat.toPath()), StandardCharsets.US_ASCII);
+            // the command name in parentheses may contain blanks, the fields are counted after it
+            String[] fields = line.substring(line.lastIndexOf(')') + 2).trim().split("\\s+");
+            // utime and stime are fields 14 and 15 of the line, 12 and 13 after the command name
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            this.cpuMillis = Math.max(this.cpuMillis, ticks * 1000 / CLOCK_TICKS);
+
+            List<String> lines = Files.readAllLines(this.status.toPath(), StandardCharsets.US_ASCII);
+            for (String statusLine : lines) {
+                if (statusLine.startsWith("VmHWM:")) {
+                    long kb = Long.parseLong(statusLine.substring(6).replace("kB", "").trim());
+                    this.peakRssKb = Math.max(this.peakRssKb, kb);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not read " + this.stat.getParent(), e);
+        }
+    }
+
+    /**
+     * @return user and system CPU time of the process in milliseconds, -1 if unknown
+     */
+    long getCpuMillis() {
+        return this.cpuMillis;
+    }
+
+    /**
+     * @return peak resident set size of the process in KiB, -1 if unknown
+     */
+    long getPeakRssKb() {
+        return this.peakRssKb;
+    }
+
+    /**
+     * @return process id of {@code process}, -1 if it can't be determined
+     */
+    private static long pid(Process process) {
+        try {
+            // Java 9 and later
+            Method method = Process.class.getMethod("pid");
+            return ((Number) method.invoke(process)).longValue();
+        } catch (NoSuchMethodException e) {
+            // the UNIXProcess of Java 7 and 8
+            try {
+                Field field = process.getClass().getDeclaredField("pid");
+                field.setAccessible(true);
+                return field.getInt(process);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                return -1;
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
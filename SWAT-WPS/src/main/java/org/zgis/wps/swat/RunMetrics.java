@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing and resource figures of one algorithm execution.
+ * <p/>
+ * The figures are returned to the client as a JSON summary ({@link #toJson()}) and added to the server
+ * wide {@link SwatMetrics} when the execution is done ({@link #report(boolean)}).
+ */
+final class RunMetrics {
+
+    /**
+     * Phases of an execution. A phase that runs several times adds up.
+     */
+    enum Phase {
+        WORKSPACE("workspace_setup"),
+        MODEL("model_setup"),
+        EXECUTABLE("executable_staging"),
+        QUEUE("queue_wait"),
+        SWAT("swat_run"),
+        OUTPUT_ZIP("output_zip"),
+        OUTPUT_STORE("output_store"),
+        SOS_FETCH("sos_fetch"),
+        WEATHER_WRITE("weather_write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return name of the phase in the JSON summary and in JMX
+         */
+        String getKey() {
+            return this.key;
+        }
+    }
+
+    static final String SWAT_CPU_MILLIS = "swat_cpu_ms";
+    static final String SWAT_PEAK_RSS_KB = "swat_peak_rss_kb";
+    static final String OUTPUT_FILES = "output_files";
+    static final String OUTPUT_BYTES = "output_bytes";
+    static final String OUTPUT_ZIP_BYTES = "output_zip_bytes";
+    static final String OBSERVATIONS = "observations";
+    static final String CACHED_RESULT = "cached_result";
+
+    private final String algorithm;
+    private final long start = System.nanoTime();
+    private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+    private final Map<String, Long> values = new LinkedHashMap<>();
+    private long totalNanos = -1;
+    private boolean failed = false;
+
+    /**
+     * @param algorithm identifier of the executed algorithm
+     */
+    RunMetrics(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return start time for {@link #finish(Phase, long)}
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since {@code start} to {@code phase}.
+     */
+    synchronized void finish(Phase phase, long start) {
+        addNanos(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Adds {@code millis} to {@code phase}, for phases timed elsewhere.
+     */
+    synchronized void addMillis(Phase phase, long millis) {
+        addNanos(phase, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private void addNanos(Phase phase, long nanos) {
+        Long before = this.phaseNanos.get(phase);
+        this.phaseNanos.put(phase, (before == null ? 0 : before) + nanos);
+    }
+
+    /**
+     * Sets a figure, e.g. {@link #OUTPUT_BYTES}. Negative values mean unknown and are not set.
+     */
+    synchronized void set(String name, long value) {
+        if (value >= 0) {
+            this.values.put(name, value);
+        }
+    }
+
+    /**
+     * @return milliseconds spent in {@code phase}, -1 if it didn't run
+     */
+    synchronized long getMillis(Phase phase) {
+        Long nanos = this.phaseNanos.get(phase);
+        return nanos == null ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return the value of a figure, -1 if it is not set
+     */
+    synchronized long get(String name) {
+        Long value = this.values.get(name);
+        return value == null ? -1 : value;
+    }
+
+    /**
+     * Ends the execution and adds its figures to {@link SwatMetrics}.
+     *
+     * @param failed true if the execution failed
+     */
+    void report(boolean failed) {
+        synchronized (this) {
+            this.totalNanos = System.nanoTime() - this.start;
+            this.failed = failed;
+        }
+        SwatMetrics.getInstance().record(this);
+    }
+
+    String getAlgorithm() {
+        return this.algorithm;
+    }
+
+    synchronized boolean isFailed() {
+        return this.failed;
+    }
+
+    /**
+     * @return milliseconds from creation to {@link #report(boolean)}, or until now if not reported yet
+     */
+    synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.totalNanos >= 0 ? this.totalNanos : System.nanoTime() - this.start);
+    }
+
+    /**
+     * @return the phases that ran, with their milliseconds, in the order of {@link Phase}
+     */
+    synchronized Map<Phase, Long> getPhaseMillis() {
+        Map<Phase, Long> millis = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, Long> phase : this.phaseNanos.entrySet()) {
+            millis.put(phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue()));
+        }
+        return millis;
+    }
+
+    /**
+     * @return the figures set, in the order they were first set
+     */
+    synchronized Map<String, Long> getValues() {
+        return new LinkedHashMap<>(this.values);
+    }
+
+    /**
+     * @return the summary as a JSON object, e.g.
+     * {@code {"algorithm":"swat-runner-algorithm","total_ms":5230,"phases_ms":{"swat_run":5001},"output_bytes":1024}}
+     */
+    synchronized String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"algorithm\":\"").append(this.algorithm.replace("\\", "\\\\").replace("\"", "\\\""))
+            .append("\",\"failed\":").append(this.failed)
+            .append(",\"total_ms\":").append(getTotalMillis())
+            .append(",\"phases_ms\":{");
+        String separator = "";
+        for (Map.Entry<Phase, Long> phase : getPhaseMillis().entrySet()) {
+            json.append(separator).append('"').append(phase.getKey().getKey()).append("\":").append(phase.getValue());
+            separator = ",";
+        }
+        json.append('}');
+        for (Map.Entry<String, Long> value : this.values.entrySet()) {
+            json.append(",\"").append(value.getKey()).append("\":").append(value.getValue());
+        }
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fetches observations from a SOS 2.0 with the KVP binding.
+ * <p/>
+ * All requests share one pooled keep-alive HTTP client, so the connections to a SOS are reused across
+ * requests and algorithm runs. Several series are requested concurrently on a shared, bounded worker
+ * pool ({@code swat.sos.threads}).
+ */
+final class SosClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(SosClient.class);
+
+    static final String RESPONSE_FORMAT = "http://www.opengis.net/om/2.0";
+
+    private static SosClient instance;
+
+    private final DefaultHttpClient httpClient;
+    private final ExecutorService pool;
+
+    SosClient(int threads, int connectTimeoutMillis, int socketTimeoutMillis) {
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(Math.max(threads, 2) * 2);
+        connectionManager.setDefaultMaxPerRoute(threads);
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+        HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+
+        this.httpClient = new DefaultHttpClient(connectionManager, params);
+        this.pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("swat-sos"));
+    }
+
+    /**
+     * @return the shared client, configured from {@link SwatConfiguration}
+     */
+    static synchronized SosClient getInstance() {
+        if (instance == null) {
+            instance = new SosClient(Math.max(1, SwatConfiguration.getInt("sos.threads", 8)),
+                                     SwatConfiguration.getInt("sos.connect.timeout.ms", 10000),
+                                     SwatConfiguration.getInt("sos.socket.timeout.ms", 120000));
+        }
+        return instance;
+    }
+
+    /**
+     * Fetches all {@code queries} concurrently.
+     *
+     * @return the observations of every query, sorted by time, in the order of {@code queries}
+     * @throws IOException if any of the requests fails
+     */
+    Map<Query, TimeValueSeries> getObservations(String sosUrl, List<Query> queries, DateTime begin,
+                                                DateTime end) throws IOException {
+        Interval interval = begin != null && end != null ? new Interval(begin, end) : null;
+        List<TimeValueSeries> series = getObservations(sosUrl, queries,
+                                                       Collections.nCopies(queries.size(), interval));
+        Map<Query, TimeValueSeries> result = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            result.put(queries.get(i), series.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Fetches {@code queries.get(i)} restricted to {@code intervals.get(i)} concurrently. A query may
+     * occur several times with different intervals.
+     *
+     * @return the observations of every request, sorted by time, in the order of {@code queries}
+     * @throws IOException if any of the requests fails
+     */
+    List<TimeValueSeries> getObservations(final String sosUrl, List<Query> queries, List<Interval> intervals)
+            throws IOException {
+        List<Future<TimeValueSeries>> futures = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            final Query query = queries.get(i);
+            final Interval interval = intervals.get(i);
+            futures.add(this.pool.submit(new Callable<TimeValueSeries>() {
+                @Override
+                public TimeValueSeries call() throws IOException {
+                    return interval == null
+                            ? getObservations(sosUrl, query, null, null)
+                            : getObservations(sosUrl, query, interval.getStart(), interval.getEnd());
+                }
+            }));
+        }
+
+        List<TimeValueSeries> result = new ArrayList<>(queries.size());
+        try {
+            for (Future<TimeValueSeries> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching observations", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not fetch observations", e.getCause());
+        } finally {
+            for (Future<TimeValueSeries> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fetches the observations of a single query.
+     *
+     * @return the observations, sorted by time
+     */
+    TimeValueSeries getObservations(String sosUrl, Query query, DateTime begin, DateTime end)
+            throws IOException {
+        HttpGet get = new HttpGet(sosUrl + buildRequest(query, begin, end));
+        TimeValueSeries series = new TimeValueSeries();
+        try {
+            HttpResponse response = this.httpClient.execute(get);
+            HttpEntity entity = response.getEntity();
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                // a SOS reports exceptions with 400, the parser turns the report into an IOException
+                if (status != HttpStatus.SC_OK && status != HttpStatus.SC_BAD_REQUEST) {
+                    throw new IOException("SOS responded " + response.getStatusLine() + " for " + query);
+                }
+                if (entity == null) {
+                    throw new IOException("SOS sent no content for " + query);
+                }
+                try (InputStream content = entity.getContent()) {
+                    new OM2StreamingParser().parse(content, series);
+                }
+            } finally {
+                // releases the connection back to the pool
+                EntityUtils.consume(entity);
+            }
+        } catch (IOException e) {
+            get.abort();
+            throw e;
+        }
+
+        series.sortByTime();
+        if (series.size() > 0) {
+            logger.info("OK - " + query + " " + series.size() + " observations, last: "
+                                + new DateTime(series.getTime(series.size() - 1)));
+        }
+        else {
+            logger.info("MISSING - " + query);
+        }
+        return series;
+    }
+
+    static String buildRequest(Query query, DateTime begin, DateTime end) throws IOException {
+        DateTimeFormatter fmtIso = ISODateTimeFormat.dateTime();
+        StringBuilder kvp = new StringBuilder();
+        kvp.append("?service=SOS&version=2.0.0&request=GetObservation");
+        appendParameter(kvp, "procedure", query.getProcedure());
+        appendParameter(kvp, "observedProperty", query.getObservedProperty());
+        appendParameter(kvp, "featureOfInterest", query.getFeatureOfInterest());
+        appendParameter(kvp, "responseFormat", RESPONSE_FORMAT);
+        if (begin != null && end != null) {
+            appendParameter(kvp, "temporalFilter",
+                            "om:phenomenonTime," + begin.toString(fmtIso) + "/" + end.toString(fmtIso));
+        }
+        return kvp.toString();
+    }
+
+    private static void appendParameter(StringBuilder kvp, String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            kvp.append('&').append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+        }
+    }
+
+    /**
+     * One series of a SOS, i.e. the observations of a property at a station by a procedure.
+     * Any of them may be null to not restrict the request by it.
+     */
+    static final class Query {
+        private final String procedure;
+        private final String observedProperty;
+        private final String featureOfInterest;
+
+        Query(String procedure, String observedProperty, String featureOfInterest) {
+            this.procedure = procedure;
+            this.observedProperty = observedProperty;
+            this.featureOfInterest = featureOfInterest;
+        }
+
+        String getProcedure() {
+            return this.procedure;
+        }
+
+        String getObservedProperty() {
+            return this.observedProperty;
+        }
+
+        String getFeatureOfInterest() {
+            return this.featureOfInterest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Query)) {
+                return false;
+            }
+            Query other = (Query) o;
+            return equal(this.procedure, other.procedure)
+                    && equal(this.observedProperty, other.observedProperty)
+                    && equal(this.featureOfInterest, other.featureOfInterest);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = this.procedure != null ? this.procedure.hashCode() : 0;
+            result = 31 * result + (this.observedProperty != null ? this.observedProperty.hashCode() : 0);
+            result = 31 * result + (this.featureOfInterest != null ? this.featureOfInterest.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + this.procedure + ", " + this.observedProperty + ", " + this.featureOfInterest + "]";
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
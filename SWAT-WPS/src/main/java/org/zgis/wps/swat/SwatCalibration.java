@@ -0,0 +1,399 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Calibrates a SWAT model against the observed discharge of one reach.
+ * <p/>
+ * Every evaluation runs SWAT in its own {@link SwatWorkspaces workspace} linked from the base model, with
+ * the sampled parameter values written by a {@link SwatModelPatch}. SWAT prints only {@code FLOW_OUTcms} to
+ * {@code output.rch} at the time step of the observations, and the goodness of fit is computed while
+ * reading the file. The workspace is deleted right after. Evaluations run concurrently on a shared pool of
+ * {@code swat.calibration.threads} threads, the {@link SwatProcessScheduler} still limits the number of
+ * SWAT processes.
+ * <p/>
+ * Parameter sets are drawn by Latin hypercube sampling. A SUFI-2 like calibration repeats this for a
+ * number of iterations, narrowing the ranges after every iteration around the best tenth of the samples.
+ */
+final class SwatCalibration {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatCalibration.class);
+
+    /**
+     * {@code file.cio} code and {@code output.rch} name of the discharge out of a reach.
+     */
+    static final int FLOW_OUT_CODE = 2;
+    static final String FLOW_OUT = "FLOW_OUTcms";
+
+    /**
+     * Criterion that ranks parameter sets.
+     */
+    enum Objective {
+        NSE, KGE, PBIAS;
+
+        /**
+         * @return the score of an evaluation, higher is better; NaN for failed evaluations
+         */
+        double score(Evaluation evaluation) {
+            if (evaluation.getError() != null) {
+                return Double.NaN;
+            }
+            switch (this) {
+                case KGE:
+                    return evaluation.getKge();
+                case PBIAS:
+                    return -Math.abs(evaluation.getPbias());
+                default:
+                    return evaluation.getNse();
+            }
+        }
+    }
+
+    enum Sampling {
+        LHS, SUFI2
+    }
+
+    private static ExecutorService pool;
+
+    private final File modelDir;
+    private final SwatWorkspaces workspaces;
+    private final SwatProcessRunner runner;
+    private final List<CalibrationParameter> parameters;
+    private final List<CalibrationParameter.Target> targets = new ArrayList<>();
+    private final ObservedSeries observed;
+    private final int reach;
+    private final SwatFileCio fileCio;
+    private final int firstYear;
+    private final int printMode;
+
+    private int completed;
+    private int total;
+
+    /**
+     * @param modelDir   the base model, it is not changed
+     * @param workspaces creates the evaluation workspaces
+     * @param executable the SWAT executable
+     * @throws IOException if the model has no {@code file.cio} or a parameter matches no model file
+     */
+    SwatCalibration(File modelDir, SwatWorkspaces workspaces, File executable, List<CalibrationParameter> parameters,
+                    ObservedSeries observed, int reach) throws IOException {
+        this.modelDir = modelDir;
+        this.workspaces = workspaces;
+        this.runner = new SwatProcessRunner(executable);
+        this.parameters = parameters;
+        this.observed = observed;
+        this.reach = reach;
+        for (CalibrationParameter parameter : parameters) {
+            CalibrationParameter.Target target = parameter.resolve(modelDir);
+            logger.info("Parameter " + parameter.getName() + " changes " + target.getFileCount() + " files");
+            this.targets.add(target);
+        }
+
+        this.fileCio = SwatFileCio.read(modelDir);
+        new SwatPrintOptions(observed.getPrintFrequency(),
+                             Collections.singletonList(SwatOutputTable.Kind.RCH.getFileName()),
+                             Collections.singletonList(FLOW_OUT_CODE), null, null, null).apply(this.fileCio);
+        this.firstYear = SwatOutputTable.getFirstYear(this.fileCio);
+        this.printMode = SwatOutputTable.getPrintMode(this.fileCio);
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int threads = SwatConfiguration.getInt("calibration.threads", Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(Math.max(1, threads), new NamedThreadFactory("swat-calibration"));
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the calibration.
+     *
+     * @param samples    parameter sets evaluated per iteration
+     * @param iterations number of iterations, only used for {@link Sampling#SUFI2}
+     * @param listener   receives the fraction of evaluations done or null
+     * @return all evaluations, in the order they were sampled
+     * @throws IOException if all evaluations of an iteration failed
+     */
+    List<Evaluation> run(Sampling sampling, int samples, int iterations, Objective objective, long seed,
+                         SwatProcessRunner.ProgressListener listener) throws IOException, InterruptedException {
+        int rounds = sampling == Sampling.SUFI2 ? Math.max(1, iterations) : 1;
+        Random random = new Random(seed);
+        double[] min = new double[this.parameters.size()];
+        double[] max = new double[this.parameters.size()];
+        for (int p = 0; p < min.length; p++) {
+            min[p] = this.parameters.get(p).getMin();
+            max[p] = this.parameters.get(p).getMax();
+        }
+
+        synchronized (this) {
+            this.completed = 0;
+            this.total = rounds * samples;
+        }
+        List<Evaluation> evaluations = new ArrayList<>();
+        for (int iteration = 1; iteration <= rounds; iteration++) {
+            double[][] unit = latinHypercube(samples, min.length, random);
+            double[][] values = new double[samples][min.length];
+            for (int i = 0; i < samples; i++) {
+                for (int p = 0; p < min.length; p++) {
+                    values[i][p] = min[p] + unit[i][p] * (max[p] - min[p]);
+                }
+            }
+            List<Evaluation> results = evaluateAll(iteration, values, listener);
+            evaluations.addAll(results);
+
+            Evaluation best = best(results, objective, 1).get(0);
+            if (Double.isNaN(objective.score(best))) {
+                throw new IOException("All evaluations of iteration " + iteration + " failed, e.g. "
+                                              + results.get(0).getError());
+            }
+            logger.info("Iteration " + iteration + ": best " + objective + " " + objective.score(best));
+            if (iteration < rounds) {
+                narrow(best(results, objective, Math.max(2, samples / 10)), best, min, max);
+            }
+        }
+        return evaluations;
+    }
+
+    /**
+     * Narrows the ranges to those of the best samples, centred on the best one and never below a quarter
+     * of the previous width or outside of the initial range.
+     */
+    private void narrow(List<Evaluation> top, Evaluation best, double[] min, double[] max) {
+        for (int p = 0; p < min.length; p++) {
+            double center = best.getValues()[p];
+            double half = (max[p] - min[p]) / 8;
+            for (Evaluation evaluation : top) {
+                half = Math.max(half, Math.abs(evaluation.getValues()[p] - center));
+            }
+            CalibrationParameter parameter = this.parameters.get(p);
+            min[p] = Math.max(parameter.getMin(), center - half);
+            max[p] = Math.min(parameter.getMax(), center + half);
+            logger.info("Range of " + parameter.getName() + " narrowed to [" + min[p] + ", " + max[p] + "]");
+        }
+    }
+
+    /**
+     * @return the {@code count} best evaluations, best first
+     */
+    static List<Evaluation> best(List<Evaluation> evaluations, final Objective objective, int count) {
+        List<Evaluation> sorted = new ArrayList<>(evaluations);
+        Collections.sort(sorted, new Comparator<Evaluation>() {
+            @Override
+            public int compare(Evaluation o1, Evaluation o2) {
+                double s1 = objective.score(o1);
+                double s2 = objective.score(o2);
+                // NaN last
+                return Double.compare(Double.isNaN(s2) ? Double.NEGATIVE_INFINITY : s2,
+                                      Double.isNaN(s1) ? Double.NEGATIVE_INFINITY : s1);
+            }
+        });
+        return sorted.subList(0, Math.min(count, sorted.size()));
+    }
+
+    private List<Evaluation> evaluateAll(final int iteration, double[][] values,
+                                         final SwatProcessRunner.ProgressListener listener)
+            throws IOException, InterruptedException {
+        List<Future<Evaluation>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                final int index = i + 1;
+                final double[] set = values[i];
+                futures.add(getPool().submit(new Callable<Evaluation>() {
+                    @Override
+                    public Evaluation call() throws InterruptedException {
+                        Evaluation evaluation = evaluate(iteration, index, set);
+                        reportProgress(listener);
+                        return evaluation;
+                    }
+                }));
+            }
+            List<Evaluation> results = new ArrayList<>();
+            for (Future<Evaluation> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("Calibration failed", cause);
+        } finally {
+            for (Future<Evaluation> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private void reportProgress(SwatProcessRunner.ProgressListener listener) {
+        if (listener != null) {
+            synchronized (this) {
+                this.completed++;
+                listener.progress((double) this.completed / this.total);
+            }
+        }
+    }
+
+    /**
+     * Runs SWAT with one parameter set. Failures are recorded in the evaluation.
+     */
+    Evaluation evaluate(int iteration, int index, double[] values) throws InterruptedException {
+        SwatWorkspaces.Workspace evaluationWorkspace = null;
+        try {
+            evaluationWorkspace = this.workspaces.create("eval-" + iteration + "-" + index);
+            File workspace = evaluationWorkspace.getDirectory();
+            WorkspaceFiles.linkTree(this.modelDir, workspace);
+            WorkspaceFiles.makePrivate(new File(workspace, SwatFileCio.FILE_NAME));
+            this.fileCio.write(workspace);
+            List<String> edits = new ArrayList<>();
+            for (int p = 0; p < values.length; p++) {
+                this.targets.get(p).addEdits(values[p], edits);
+            }
+            new SwatModelPatch(null, edits).apply(workspace);
+
+            SwatProcessRunner.Result result = this.runner.run(workspace, workspace, null);
+            if (result.getExitValue() != 0) {
+                return new Evaluation(iteration, index, values, null, "SWAT exited with " + result.getExitValue());
+            }
+            final GoodnessOfFit fit = new GoodnessOfFit();
+            File rch = new File(workspace, SwatOutputTable.Kind.RCH.getFileName());
+            SwatOutputTable.stream(SwatOutputTable.Kind.RCH, rch, this.firstYear, this.printMode, this.reach,
+                                   FLOW_OUT, new SwatOutputTable.ValueSink() {
+                        @Override
+                        public void value(int year, int period, float value) {
+                            fit.add(SwatCalibration.this.observed.get(year, period), value);
+                        }
+                    });
+            if (fit.getCount() < 2) {
+                return new Evaluation(iteration, index, values, null, "Less than 2 simulated values of reach "
+                        + this.reach + " match the observations");
+            }
+            return new Evaluation(iteration, index, values, fit, null);
+        } catch (IOException e) {
+            logger.warn("Evaluation " + iteration + "-" + index + " failed", e);
+            return new Evaluation(iteration, index, values, null, String.valueOf(e.getMessage()));
+        } finally {
+            if (evaluationWorkspace != null) {
+                evaluationWorkspace.discard();
+            }
+        }
+    }
+
+    /**
+     * Latin hypercube sample of the unit cube: every dimension is divided into {@code samples} strata of
+     * equal width and every stratum is hit by exactly one sample.
+     *
+     * @return {@code samples} points in {@code [0, 1)^dimensions}
+     */
+    static double[][] latinHypercube(int samples, int dimensions, Random random) {
+        double[][] points = new double[samples][dimensions];
+        int[] strata = new int[samples];
+        for (int d = 0; d < dimensions; d++) {
+            for (int i = 0; i < samples; i++) {
+                strata[i] = i;
+            }
+            for (int i = samples - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = strata[i];
+                strata[i] = strata[j];
+                strata[j] = swap;
+            }
+            for (int i = 0; i < samples; i++) {
+                points[i][d] = (strata[i] + random.nextDouble()) / samples;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * A parameter set and its goodness of fit.
+     */
+    static final class Evaluation {
+        private final int iteration;
+        private final int index;
+        private final double[] values;
+        private final double nse;
+        private final double kge;
+        private final double pbias;
+        private final String error;
+
+        Evaluation(int iteration, int index, double[] values, GoodnessOfFit fit, String error) {
+            this.iteration = iteration;
+            this.index = index;
+            this.values = values;
+            this.nse = fit != null ? fit.getNse() : Double.NaN;
+            this.kge = fit != null ? fit.getKge() : Double.NaN;
+            this.pbias = fit != null ? fit.getPbias() : Double.NaN;
+            this.error = error;
+        }
+
+        int getIteration() {
+            return this.iteration;
+        }
+
+        int getIndex() {
+            return this.index;
+        }
+
+        double[] getValues() {
+            return this.values;
+        }
+
+        double getNse() {
+            return this.nse;
+        }
+
+        double getKge() {
+            return this.kge;
+        }
+
+        double getPbias() {
+            return this.pbias;
+        }
+
+        /**
+         * @return why the evaluation failed or null
+         */
+        String getError() {
+            return this.error;
+        }
+
+        @Override
+        public String toString() {
+            return "Evaluation " + this.iteration + "-" + this.index + " " + Arrays.toString(this.values);
+        }
+    }
+}
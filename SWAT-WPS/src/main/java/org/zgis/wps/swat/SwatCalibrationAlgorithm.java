@@ -0,0 +1,312 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.n52.wps.algorithm.annotation.*;
+import org.n52.wps.commons.context.ExecutionContextFactory;
+import org.n52.wps.io.data.GenericFileData;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Calibrates a SWAT model against observed discharge in a single request.
+ */
+@Algorithm(
+        version = "0.0.1", //TODO get this value from maven pom (via properties file)
+        abstrakt = "This Algorithm runs SWAT many times with sampled parameter values and returns the goodness "
+                + "of fit (NSE, KGE, PBIAS) of the discharge of a reach for every parameter set.",
+        title = "SWAT Calibration Algorithm",
+        identifier = "swat-calibration-algorithm",
+        statusSupported = true,
+        storeSupported = true)
+public class SwatCalibrationAlgorithm extends AbstractAnnotatedAlgorithm {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatCalibrationAlgorithm.class);
+
+    private List<GenericFileData> swatInputZip;
+    private String baseModel;
+    private List<String> parameters;
+    private List<GenericFileData> observedDischarge;
+    private int reach;
+    private String sampling;
+    private Integer samples;
+    private Integer iterations;
+    private String objective;
+    private Integer seed;
+    private GenericFileData calibrationResult;
+    private String bestParameters;
+    private String swatModelHash;
+
+    @ComplexDataInput(
+            identifier = "swat_model",
+            title = "swat model input files",
+            abstrakt = "ZIP file containing the SWAT input files. May be left out if base_model is given.",
+            binding = GenericFileDataBinding.class,
+            minOccurs = 0, maxOccurs = 1)
+    public void setSwatInputZip(List<GenericFileData> gfd) {
+        this.swatInputZip = gfd;
+    }
+
+    @LiteralDataInput(
+            identifier = "base_model",
+            title = "base model",
+            abstrakt = "swat_model_hash of an earlier run, to calibrate that model without uploading it.",
+            minOccurs = 0, maxOccurs = 1)
+    public void setBaseModel(String baseModel) {
+        this.baseModel = baseModel;
+    }
+
+    @LiteralDataInput(
+            identifier = "parameter",
+            title = "parameter",
+            abstrakt = "A parameter to calibrate as name:method:files:line:column:min:max, e.g. "
+                    + "GW_DELAY:v:*.gw:4:1:0:500. The value at line and column of all model files matching files "
+                    + "is replaced by (v), multiplied by 1 + (r) or increased by (a) a value in [min, max].",
+            minOccurs = 1, maxOccurs = 100)
+    public void setParameters(List<String> parameters) {
+        this.parameters = parameters;
+    }
+
+    @ComplexDataInput(
+            identifier = "observed_discharge",
+            title = "observed discharge",
+            abstrakt = "CSV with lines date,value of the discharge in m3/s; dates as yyyy-mm-dd, yyyy-mm or yyyy "
+                    + "for daily, monthly or yearly values.",
+            binding = GenericFileDataBinding.class,
+            minOccurs = 1, maxOccurs = 1)
+    public void setObservedDischarge(List<GenericFileData> observedDischarge) {
+        this.observedDischarge = observedDischarge;
+    }
+
+    @LiteralDataInput(
+            identifier = "reach",
+            title = "reach",
+            abstrakt = "Number of the reach the discharge was observed at.",
+            minOccurs = 1, maxOccurs = 1,
+            binding = LiteralIntBinding.class)
+    public void setReach(Integer reach) {
+        this.reach = reach;
+    }
+
+    @LiteralDataInput(
+            identifier = "sampling",
+            title = "sampling",
+            abstrakt = "'lhs' for a single Latin hypercube sample, 'sufi2' to narrow the parameter ranges around "
+                    + "the best samples in every iteration.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "lhs",
+            allowedValues = {"lhs", "sufi2"})
+    public void setSampling(String sampling) {
+        this.sampling = sampling;
+    }
+
+    @LiteralDataInput(
+            identifier = "samples",
+            title = "samples",
+            abstrakt = "Number of parameter sets per iteration.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "50",
+            binding = LiteralIntBinding.class)
+    public void setSamples(Integer samples) {
+        this.samples = samples;
+    }
+
+    @LiteralDataInput(
+            identifier = "iterations",
+            title = "iterations",
+            abstrakt = "Number of iterations of sufi2 sampling.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "3",
+            binding = LiteralIntBinding.class)
+    public void setIterations(Integer iterations) {
+        this.iterations = iterations;
+    }
+
+    @LiteralDataInput(
+            identifier = "objective",
+            title = "objective",
+            abstrakt = "Criterion the parameter sets are ranked by.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "nse",
+            allowedValues = {"nse", "kge", "pbias"})
+    public void setObjective(String objective) {
+        this.objective = objective;
+    }
+
+    @LiteralDataInput(
+            identifier = "seed",
+            title = "seed",
+            abstrakt = "Seed of the random sampling, to repeat a calibration. Random if not given.",
+            minOccurs = 0, maxOccurs = 1,
+            binding = LiteralIntBinding.class)
+    public void setSeed(Integer seed) {
+        this.seed = seed;
+    }
+
+    @ComplexDataOutput(identifier = "calibration_csv",
+            title = "calibration result as CSV",
+            abstrakt = "CSV with the columns iteration, evaluation, one column per parameter, nse, kge, pbias and "
+                    + "error for failed evaluations.",
+            binding = GenericFileDataBinding.class)
+    public GenericFileData getCalibrationResult() {
+        return this.calibrationResult;
+    }
+
+    @LiteralDataOutput(identifier = "best_parameters",
+            title = "best parameters",
+            abstrakt = "The best parameter set as name=value lines.")
+    public String getBestParameters() {
+        return this.bestParameters;
+    }
+
+    @LiteralDataOutput(identifier = "swat_model_hash",
+            title = "SWAT model hash",
+            abstrakt = "Hash of the calibrated model, to pass as base_model to later runs.")
+    public String getSwatModelHash() {
+        return this.swatModelHash;
+    }
+
+    @Execute
+    public void calibrate() throws IOException {
+        File tempDir = new File(ExecutionContextFactory.getContext().getTempDirectoryPath());
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new IOException("Could not create temp dir " + tempDir);
+        }
+        File modelZip = null;
+        if (this.swatInputZip != null && this.swatInputZip.size() == 1) {
+            modelZip = this.swatInputZip.get(0).getBaseFile(false);
+        }
+        if ((modelZip == null) == (this.baseModel == null)) {
+            throw new IOException("Give either swat_model or base_model");
+        }
+
+        List<CalibrationParameter> calibrationParameters;
+        SwatCalibration.Sampling samplingMethod;
+        SwatCalibration.Objective objectiveFunction;
+        try {
+            calibrationParameters = CalibrationParameter.parseAll(this.parameters);
+            samplingMethod = SwatCalibration.Sampling.valueOf(
+                    (this.sampling != null ? this.sampling : "lhs").toUpperCase(Locale.ROOT));
+            objectiveFunction = SwatCalibration.Objective.valueOf(
+                    (this.objective != null ? this.objective : "nse").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        int sampleCount = this.samples != null ? this.samples : 50;
+        if (sampleCount < 1) {
+            throw new IOException("samples must be at least 1");
+        }
+        ObservedSeries observed = ObservedSeries.read(this.observedDischarge.get(0).getBaseFile(false));
+        logger.info("Calibrating against " + observed.size() + " " + observed.getPrintFrequency()
+                            + " observations of reach " + this.reach);
+
+        this.swatModelHash = modelZip != null ? Checksums.sha256(modelZip) : this.baseModel.trim();
+        DirectoryCache.Lease model = null;
+        SwatWorkspaces.Workspace extracted = null;
+        try {
+            File modelDir;
+            if (SwatModelCache.isEnabled()) {
+                model = modelZip != null ? SwatModelCache.getInstance().acquire(this.swatModelHash, modelZip)
+                        : SwatModelCache.getInstance().acquire(this.swatModelHash);
+                if (model == null) {
+                    throw new IOException("Base model " + this.swatModelHash + " is not available (anymore), "
+                                                  + "send it as swat_model");
+                }
+                modelDir = model.getDirectory();
+            }
+            else if (modelZip != null) {
+                extracted = SwatWorkspaces.getInstance().create("calibration-model");
+                modelDir = extracted.getDirectory();
+                SwatModelExtractor.create().extract(modelZip, modelDir);
+            }
+            else {
+                throw new IOException("base_model can't be used, the model cache is disabled");
+            }
+
+            SwatCalibration calibration = new SwatCalibration(modelDir, SwatWorkspaces.getInstance(),
+                                                              SwatExecutable.get().getFile(), calibrationParameters,
+                                                              observed, this.reach);
+            long start = System.currentTimeMillis();
+            List<SwatCalibration.Evaluation> evaluations = calibration.run(
+                    samplingMethod, sampleCount, this.iterations != null ? this.iterations : 3, objectiveFunction,
+                    this.seed != null ? this.seed : System.nanoTime(), new PercentProgressListener(0, 99) {
+                        @Override
+                        void report(int percent) {
+                            update(percent);
+                        }
+                    });
+            logger.info("Calibration of model " + this.swatModelHash + " ran " + evaluations.size()
+                                + " evaluations in " + (System.currentTimeMillis() - start) + " ms");
+
+            File csv = new File(tempDir, "swat_calibration.csv");
+            writeCsv(calibrationParameters, evaluations, csv);
+            this.calibrationResult = new GenericFileData(csv, "text/csv");
+            SwatCalibration.Evaluation best = SwatCalibration.best(evaluations, objectiveFunction, 1).get(0);
+            StringBuilder text = new StringBuilder();
+            for (int p = 0; p < calibrationParameters.size(); p++) {
+                text.append(calibrationParameters.get(p).getName()).append('=')
+                    .append(CalibrationParameter.format(best.getValues()[p])).append('\n');
+            }
+            this.bestParameters = text.toString();
+            this.update(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Calibration was interrupted.", e);
+            throw new IOException("Calibration was interrupted.", e);
+        } finally {
+            if (model != null) {
+                model.close();
+            }
+            if (extracted != null) {
+                extracted.close();
+            }
+        }
+    }
+
+    private static void writeCsv(List<CalibrationParameter> parameters, List<SwatCalibration.Evaluation> evaluations,
+                                 File csv) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv),
+                                                                    StandardCharsets.UTF_8))) {
+            StringBuilder row = new StringBuilder("iteration,evaluation");
+            for (CalibrationParameter parameter : parameters) {
+                row.append(',').append(parameter.getName());
+            }
+            row.append(",nse,kge,pbias,error\n");
+            out.append(row);
+            for (SwatCalibration.Evaluation evaluation : evaluations) {
+                row.setLength(0);
+                row.append(evaluation.getIteration()).append(',').append(evaluation.getIndex());
+                for (double value : evaluation.getValues()) {
+                    row.append(',').append(CalibrationParameter.format(value));
+                }
+                row.append(',').append(evaluation.getNse()).append(',').append(evaluation.getKge()).append(',')
+                   .append(evaluation.getPbias()).append(',');
+                if (evaluation.getError() != null) {
+                    row.append('"').append(evaluation.getError().replace("\"", "\"\"")).append('"');
+                }
+                out.append(row).append('\n');
+            }
+        }
+    }
+}
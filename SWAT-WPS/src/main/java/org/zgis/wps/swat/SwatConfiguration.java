@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Server side settings of the SWAT extension.
+ * <p/>
+ * Every setting can be overridden with a JVM system property, e.g.
+ * {@code -Dswat.executable.cache.dir=/var/cache/swat-wps/exe}.
+ */
+final class SwatConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatConfiguration.class);
+
+    static final String PREFIX = "swat.";
+
+    private SwatConfiguration() {
+    }
+
+    /**
+     * @return directory the SWAT executable is extracted to once per process
+     */
+    static File getExecutableCacheDir() {
+        return getDirectory("executable.cache.dir", "exe");
+    }
+
+    static String getString(String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '" + value + "' for " + PREFIX + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value '" + value + "' for " + PREFIX + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Returns the configured directory for {@code key}. If it is not set, a sub directory
+     * {@code defaultName} of {@code java.io.tmpdir/swat-wps} is used.
+     */
+    static File getDirectory(String key, String defaultName) {
+        String value = getString(key, null);
+        if (value != null) {
+            return new File(value);
+        }
+        return new File(new File(System.getProperty("java.io.tmpdir"), "swat-wps"), defaultName);
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Captures the console output of a SWAT run with constant memory.
+ * <p/>
+ * Every line is streamed to a log file in the workspace. Only the first and the last lines are kept
+ * in memory for the {@code swat_console_output} literal, and lines are logged at most once per
+ * interval (or all of them on TRACE level).
+ */
+final class SwatConsoleCapture implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatConsoleCapture.class);
+
+    /**
+     * SWAT only prints ASCII, so a single byte charset is lossless and cheap.
+     */
+    static final Charset CHARSET = StandardCharsets.ISO_8859_1;
+
+    static final String LOG_FILE_NAME = "swat_console.log";
+
+    private final File logFile;
+    private final Writer logWriter;
+    private final String[] head;
+    private final String[] tail;
+    private final int maxLineLength;
+    private final long logIntervalMillis;
+
+    private int headCount = 0;
+    private int tailNext = 0;
+    private long lineCount = 0;
+    private long lastLogged = 0;
+    private long suppressed = 0;
+
+    SwatConsoleCapture(File logFile, int headLines, int tailLines, int maxLineLength, long logIntervalMillis)
+            throws IOException {
+        this.logFile = logFile;
+        this.logWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile), CHARSET),
+                                            64 * 1024);
+        this.head = new String[Math.max(0, headLines)];
+        this.tail = new String[Math.max(0, tailLines)];
+        this.maxLineLength = maxLineLength;
+        this.logIntervalMillis = logIntervalMillis;
+    }
+
+    /**
+     * Creates a capture writing to {@link #LOG_FILE_NAME} in {@code directory}, configured from
+     * {@link SwatConfiguration}.
+     */
+    static SwatConsoleCapture create(File directory) throws IOException {
+        return new SwatConsoleCapture(new File(directory, LOG_FILE_NAME),
+                                      SwatConfiguration.getInt("console.head.lines", 50),
+                                      SwatConfiguration.getInt("console.tail.lines", 200),
+                                      SwatConfiguration.getInt("console.max.line.length", 512),
+                                      SwatConfiguration.getLong("console.log.interval.ms", 5000));
+    }
+
+    /**
+     * Adds a line of console output.
+     */
+    void append(String line) throws IOException {
+        this.logWriter.write(line);
+        this.logWriter.write('\n');
+        this.lineCount++;
+
+        String kept = line.length() > this.maxLineLength ? line.substring(0, this.maxLineLength) : line;
+        if (this.headCount < this.head.length) {
+            this.head[this.headCount++] = kept;
+        }
+        else if (this.tail.length > 0) {
+            this.tail[this.tailNext] = kept;
+            this.tailNext = (this.tailNext + 1) % this.tail.length;
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(line);
+        }
+        else if (logger.isInfoEnabled()) {
+            long now = System.currentTimeMillis();
+            if (now - this.lastLogged >= this.logIntervalMillis) {
+                if (this.suppressed > 0) {
+                    logger.info(line + " (" + this.suppressed + " lines not logged)");
+                }
+                else {
+                    logger.info(line);
+                }
+                this.lastLogged = now;
+                this.suppressed = 0;
+            }
+            else {
+                this.suppressed++;
+            }
+        }
+    }
+
+    /**
+     * @return number of lines appended so far
+     */
+    long getLineCount() {
+        return this.lineCount;
+    }
+
+    /**
+     * @return file the complete console output is written to
+     */
+    File getLogFile() {
+        return this.logFile;
+    }
+
+    /**
+     * Returns the first and the last lines of the output. If lines were dropped in between, a marker
+     * line with the number of omitted lines is inserted.
+     */
+    String getSummary() {
+        long tailCount = Math.min(this.tail.length, this.lineCount - this.headCount);
+        long omitted = this.lineCount - this.headCount - tailCount;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.headCount; i++) {
+            sb.append(this.head[i]).append('\n');
+        }
+        if (omitted > 0) {
+            sb.append("[... ").append(omitted).append(" lines omitted, see ")
+              .append(LOG_FILE_NAME).append(" ...]\n");
+        }
+        int start = tailCount < this.tail.length ? 0 : this.tailNext;
+        for (int i = 0; i < tailCount; i++) {
+            sb.append(this.tail[(start + i) % this.tail.length]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.logWriter.close();
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.ProtectionDomain;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The SWAT executable shared by all runs of this process.
+ * <p/>
+ * The binary is extracted from the extension jar and checksummed once, on first use, into
+ * {@link SwatConfiguration#getExecutableCacheDir()}. The cached file name contains the checksum, so
+ * several server processes (or different extension versions) can share the same cache directory.
+ */
+final class SwatExecutable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatExecutable.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Object lock = new Object();
+    private static volatile SwatExecutable instance;
+
+    private final File file;
+    private final String checksum;
+
+    private SwatExecutable(File file, String checksum) {
+        this.file = file;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Returns the shared executable, extracting it on the first call. Concurrent first calls wait for
+     * a single extraction.
+     *
+     * @return the cached SWAT executable
+     * @throws IOException if the executable could not be extracted
+     */
+    static SwatExecutable get() throws IOException {
+        SwatExecutable result = instance;
+        if (result == null) {
+            synchronized (lock) {
+                result = instance;
+                if (result == null) {
+                    result = install();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the executable file, ready to be started
+     */
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return hex encoded SHA-256 checksum of the executable
+     */
+    String getChecksum() {
+        return this.checksum;
+    }
+
+    /**
+     * Resolves {@code swat.executable} or extracts the bundled executable, bypassing the shared instance.
+     */
+    static SwatExecutable install() throws IOException {
+        String configured = SwatConfiguration.getString("executable", null);
+        SwatExecutable result;
+        if (configured != null) {
+            // e.g. another SWAT revision or a stand-in for load tests
+            File exe = new File(configured);
+            if (!exe.isFile()) {
+                throw new FileNotFoundException("cannot find file: " + exe + " (swat.executable)");
+            }
+            result = new SwatExecutable(exe, Checksums.sha256(exe));
+        }
+        else {
+            result = installFromJar();
+        }
+
+        if (!result.file.canExecute() && !result.file.setExecutable(true)) {
+            throw new IOException("Could not make " + result.file + " executable");
+        }
+        logger.info("Using SWAT executable " + result.file + " (sha256 " + result.checksum + ")");
+        return result;
+    }
+
+    private static SwatExecutable installFromJar() throws IOException {
+        String exeFilename = resolveExecutableName();
+        File cacheDir = SwatConfiguration.getExecutableCacheDir();
+        try {
+            File location = new File(getJarURI());
+            if (location.isDirectory()) {
+                // not in a JAR, just use the file on disk
+                File exe = new File(location, exeFilename);
+                if (!exe.isFile()) {
+                    throw new FileNotFoundException("cannot find file: " + exe);
+                }
+                return new SwatExecutable(exe, Checksums.sha256(exe));
+            }
+            try (ZipFile zipFile = new ZipFile(location)) {
+                return extractToTemp(zipFile, exeFilename, cacheDir);
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException("Could not determine uri of jar. ", e);
+        }
+    }
+
+    /**
+     * Determines the name of the executable for the current operating system.
+     */
+    static String resolveExecutableName() {
+        //FIXME this is bullshit, make own jar for every OS and provide executable this way.
+        String exeFilename = "swat/swat_rel64";
+        String osName = System.getProperty("os.name").toLowerCase();
+        if (osName.startsWith("windows")) {
+            exeFilename = exeFilename.concat("_win.exe");
+        }
+        else if (osName.startsWith("mac")) {
+            exeFilename = exeFilename.concat("_osx");
+        }
+        else if (osName.startsWith("linux")) {
+            exeFilename = exeFilename.concat("_linux");
+        }
+        else {
+            logger.warn("Could not determine OS, trying generic executable name");
+        }
+        return exeFilename;
+    }
+
+    /**
+     * Gets the URI of the jar file this class is in.
+     *
+     * @return URI of jar file this class is in
+     * @throws URISyntaxException
+     */
+    private static URI getJarURI()
+            throws URISyntaxException {
+        final ProtectionDomain domain;
+        final CodeSource source;
+        final URL url;
+
+        domain = SwatExecutable.class.getProtectionDomain();
+        source = domain.getCodeSource();
+        url = source.getLocation();
+
+        return url.toURI();
+    }
+
+    /**
+     * Extracts {@code filename} from {@code zipFile} into {@code cacheDir}. The entry is copied to a
+     * temporary file and checksummed in the same pass, then atomically moved to
+     * {@code <name>-<checksum>}. If that file already exists it is reused.
+     *
+     * @return the cached executable
+     */
+    static SwatExecutable extractToTemp(final ZipFile zipFile, final String filename, final File cacheDir)
+            throws IOException {
+        final ZipEntry entry;
+        final MessageDigest digest;
+        final File tempFile;
+        final String checksum;
+
+        entry = zipFile.getEntry(filename);
+        if (entry == null) {
+            throw new FileNotFoundException("cannot find file: " + filename + " in archive: " + zipFile.getName());
+        }
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new IOException("Could not create executable cache dir " + cacheDir);
+        }
+
+        digest = Checksums.newDigest();
+        tempFile = File.createTempFile(".swat", ".part", cacheDir);
+        try {
+            try (OutputStream fileStream = new FileOutputStream(tempFile);
+                 InputStream zipStream = zipFile.getInputStream(entry)) {
+                final byte[] buf = new byte[BUFFER_SIZE];
+                int i;
+                while ((i = zipStream.read(buf)) != -1) {
+                    digest.update(buf, 0, i);
+                    fileStream.write(buf, 0, i);
+                }
+            }
+            checksum = Checksums.toHex(digest.digest());
+
+            File target = new File(cacheDir, new File(filename).getName() + "-" + checksum);
+            if (target.isFile() && target.length() == entry.getSize()) {
+                logger.debug("Reusing cached executable " + target);
+            }
+            else {
+                if (!tempFile.setExecutable(true)) {
+                    throw new IOException("Could not make " + tempFile + " executable");
+                }
+                moveAtomically(tempFile, target);
+            }
+            return new SwatExecutable(target, checksum);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(source.toPath(), target.toPath());
+            } catch (FileAlreadyExistsException ignored) {
+                // another process won the race, its copy has the same checksum
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The master watershed file {@code file.cio} of a SWAT model.
+ * <p/>
+ * Values are looked up by the label SWAT puts behind the value, e.g.
+ * {@code "              10    | NBYR : Number of years simulated"}.
+ */
+final class SwatFileCio {
+
+    static final String FILE_NAME = "file.cio";
+
+    private static final int FILE_NAMES_PER_ROW = 6;
+    private static final int FILE_NAME_WIDTH = 13;
+
+    private final List<String> lines;
+
+    private SwatFileCio(List<String> lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Reads {@code file.cio} from a model directory.
+     */
+    static SwatFileCio read(File modelDir) throws IOException {
+        return new SwatFileCio(Files.readAllLines(new File(modelDir, FILE_NAME).toPath(),
+                                                  StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads {@code file.cio} from the root of a model zip.
+     *
+     * @return the file or null if the zip has none
+     */
+    static SwatFileCio read(ZipFile modelZip) throws IOException {
+        ZipEntry entry = modelZip.getEntry(FILE_NAME);
+        if (entry == null) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(modelZip.getInputStream(entry),
+                                                                          StandardCharsets.ISO_8859_1))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return new SwatFileCio(lines);
+    }
+
+    /**
+     * @return the integer value of the line labeled {@code label} or null if there is no such line
+     */
+    Integer getInt(String label) {
+        int index = indexOf(label);
+        if (index < 0) {
+            return null;
+        }
+        String value = this.lines.get(index);
+        value = value.substring(0, value.indexOf('|')).trim();
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the value of the line labeled {@code label}, keeping the layout of the line.
+     *
+     * @throws IllegalArgumentException if there is no such line
+     */
+    void setInt(String label, int value) {
+        setString(label, Integer.toString(value));
+    }
+
+    /**
+     * Replaces the value of the line labeled {@code label}, e.g. a file name, keeping the layout of the line.
+     *
+     * @throws IllegalArgumentException if there is no such line
+     */
+    void setString(String label, String value) {
+        int index = indexOf(label);
+        if (index < 0) {
+            throw new IllegalArgumentException("No " + label + " in " + FILE_NAME);
+        }
+        String line = this.lines.get(index);
+        // the value is right aligned in front of the bar
+        int end = line.indexOf('|');
+        while (end > 0 && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        StringBuilder replaced = new StringBuilder(line.length());
+        for (int i = value.length(); i < end; i++) {
+            replaced.append(' ');
+        }
+        replaced.append(value).append(line, end, line.length());
+        this.lines.set(index, replaced.toString());
+    }
+
+    /**
+     * @return the codes listed below the line starting with {@code title}, e.g.
+     * {@code "Reach output variables"}, or null if there is no such section
+     */
+    int[] getCodes(String title) {
+        int index = indexOfSection(title);
+        if (index < 0 || index + 1 >= this.lines.size()) {
+            return null;
+        }
+        String[] values = this.lines.get(index + 1).trim().split("\\s+");
+        int[] codes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            codes[i] = Integer.parseInt(values[i]);
+        }
+        return codes;
+    }
+
+    /**
+     * Replaces the codes listed below the line starting with {@code title}. Unused positions are set to 0.
+     *
+     * @throws IllegalArgumentException if there is no such section or it has less than
+     *                                  {@code codes.length} positions
+     */
+    void setCodes(String title, int[] codes) {
+        int[] current = getCodes(title);
+        if (current == null) {
+            throw new IllegalArgumentException("No section " + title + " in " + FILE_NAME);
+        }
+        if (codes.length > current.length) {
+            throw new IllegalArgumentException(title + " takes at most " + current.length + " codes");
+        }
+        StringBuilder line = new StringBuilder(current.length * 4);
+        for (int i = 0; i < current.length; i++) {
+            String code = Integer.toString(i < codes.length ? codes[i] : 0);
+            for (int j = code.length(); j < 4; j++) {
+                line.append(' ');
+            }
+            line.append(code);
+        }
+        this.lines.set(indexOfSection(title) + 1, line.toString());
+    }
+
+    /**
+     * Replaces the file names listed below the line starting with {@code title}, e.g.
+     * {@code "Precipitation Files:"}. SWAT reads them as rows of six names of 13 characters, unused positions
+     * are left blank.
+     *
+     * @throws IllegalArgumentException if there is no such section or it has less than
+     *                                  {@code names.length} positions
+     */
+    void setFileNames(String title, String... names) {
+        int index = indexOfSection(title);
+        if (index < 0) {
+            throw new IllegalArgumentException("No section " + title + " in " + FILE_NAME);
+        }
+        // the rows end at the next labeled line or section title
+        int rows = 0;
+        while (index + 1 + rows < this.lines.size()) {
+            String row = this.lines.get(index + 1 + rows);
+            if (row.indexOf('|') >= 0 || row.trim().endsWith(":")) {
+                break;
+            }
+            rows++;
+        }
+        if (names.length > rows * FILE_NAMES_PER_ROW) {
+            throw new IllegalArgumentException(title + " takes at most " + rows * FILE_NAMES_PER_ROW
+                                                       + " file names");
+        }
+        for (int row = 0; row < rows; row++) {
+            StringBuilder line = new StringBuilder(FILE_NAMES_PER_ROW * FILE_NAME_WIDTH);
+            for (int i = row * FILE_NAMES_PER_ROW; i < (row + 1) * FILE_NAMES_PER_ROW && i < names.length; i++) {
+                if (names[i].length() > FILE_NAME_WIDTH) {
+                    throw new IllegalArgumentException("File name " + names[i] + " is longer than "
+                                                               + FILE_NAME_WIDTH + " characters");
+                }
+                line.append(names[i]);
+                for (int j = names[i].length(); j < FILE_NAME_WIDTH; j++) {
+                    line.append(' ');
+                }
+            }
+            this.lines.set(index + 1 + row, line.toString());
+        }
+    }
+
+    /**
+     * Writes the file to a model directory. The file must not be shared with other workspaces, see
+     * {@link WorkspaceFiles#makePrivate(File)}.
+     */
+    void write(File modelDir) throws IOException {
+        Files.write(new File(modelDir, FILE_NAME).toPath(), this.lines, StandardCharsets.ISO_8859_1);
+    }
+
+    private int indexOfSection(String title) {
+        for (int i = 0; i < this.lines.size(); i++) {
+            if (this.lines.get(i).trim().startsWith(title)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the line labeled {@code label} or -1
+     */
+    int indexOf(String label) {
+        for (int i = 0; i < this.lines.size(); i++) {
+            String line = this.lines.get(i);
+            int bar = line.indexOf('|');
+            if (bar < 0) {
+                continue;
+            }
+            String rest = line.substring(bar + 1).trim();
+            if (rest.startsWith(label)
+                    && (rest.length() == label.length() || !Character.isLetterOrDigit(rest.charAt(label.length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Server wide timing and resource metrics of the algorithm executions, exposed through JMX.
+ * <p/>
+ * Every {@link RunMetrics} reported adds one value per phase and figure to a histogram, and counts the
+ * execution. Histograms have power of two buckets, so they take constant memory and percentiles are
+ * accurate to a factor of two.
+ */
+final class SwatMetrics implements SwatMetricsMXBean {
+
+    static final String OBJECT_NAME = "org.zgis.wps.swat:type=Metrics";
+
+    /**
+     * Figures of {@link RunMetrics} that are added up in counters, all others go to histograms.
+     */
+    private static final String[] COUNTED = {RunMetrics.OUTPUT_FILES, RunMetrics.OUTPUT_BYTES,
+            RunMetrics.OUTPUT_ZIP_BYTES, RunMetrics.OBSERVATIONS, RunMetrics.CACHED_RESULT};
+
+    private static SwatMetrics instance;
+
+    private final Map<String, Long> counters = new TreeMap<>();
+    private final Map<String, Histogram> histograms = new TreeMap<>();
+
+    /**
+     * @return the shared metrics, registered with JMX on first use
+     */
+    static synchronized SwatMetrics getInstance() {
+        if (instance == null) {
+            instance = new SwatMetrics();
+            SwatJmx.register(instance, OBJECT_NAME);
+        }
+        return instance;
+    }
+
+    /**
+     * Adds the figures of a finished execution.
+     */
+    synchronized void record(RunMetrics run) {
+        count(run.getAlgorithm() + ".executions", 1);
+        if (run.isFailed()) {
+            count(run.getAlgorithm() + ".failures", 1);
+        }
+        histogram(run.getAlgorithm() + ".total_ms").add(run.getTotalMillis());
+        for (Map.Entry<RunMetrics.Phase, Long> phase : run.getPhaseMillis().entrySet()) {
+            histogram(phase.getKey().getKey() + "_ms").add(phase.getValue());
+        }
+        for (Map.Entry<String, Long> value : run.getValues().entrySet()) {
+            if (isCounted(value.getKey())) {
+                count(value.getKey(), value.getValue());
+            }
+            else {
+                histogram(value.getKey()).add(value.getValue());
+            }
+        }
+    }
+
+    private static boolean isCounted(String name) {
+        for (String counted : COUNTED) {
+            if (counted.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void count(String name, long value) {
+        Long before = this.counters.get(name);
+        this.counters.put(name, (before == null ? 0 : before) + value);
+    }
+
+    private Histogram histogram(String name) {
+        Histogram histogram = this.histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            this.histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getCounters() {
+        return new TreeMap<>(this.counters);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getHistogramCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : this.histograms.entrySet()) {
+            result.put(histogram.getKey(), histogram.getValue().count);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getHistogramMeans() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : this.histograms.entrySet()) {
+            Histogram h = histogram.getValue();
+            result.put(histogram.getKey(), h.count == 0 ? 0 : h.sum / h.count);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getHistogramMedians() {
+        return getPercentiles(0.5);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getHistogram95thPercentiles() {
+        return getPercentiles(0.95);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getHistogramMaxima() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : this.histograms.entrySet()) {
+            result.put(histogram.getKey(), histogram.getValue().max);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.counters.clear();
+        this.histograms.clear();
+    }
+
+    private Map<String, Long> getPercentiles(double fraction) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> histogram : this.histograms.entrySet()) {
+            result.put(histogram.getKey(), histogram.getValue().percentile(fraction));
+        }
+        return result;
+    }
+
+    /**
+     * Histogram of non-negative values. Bucket {@code i} counts the values below {@code 2^i} not counted
+     * by a lower bucket.
+     */
+    private static final class Histogram {
+        private final long[] buckets = new long[64];
+        private long count = 0;
+        private long sum = 0;
+        private long max = 0;
+
+        void add(long value) {
+            long v = Math.max(0, value);
+            this.buckets[64 - Long.numberOfLeadingZeros(v)]++;
+            this.count++;
+            this.sum += v;
+            this.max = Math.max(this.max, v);
+        }
+
+        /**
+         * @return upper bound of the bucket holding the value at {@code fraction} of the recorded values,
+         * but at most the maximum recorded
+         */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * this.count);
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+}
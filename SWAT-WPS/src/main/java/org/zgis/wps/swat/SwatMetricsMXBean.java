@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link SwatMetrics}, registered as {@value SwatMetrics#OBJECT_NAME}. The maps are keyed
+ * by counter or histogram name, e.g. {@code swat_run} or {@code swat_peak_rss_kb}.
+ */
+public interface SwatMetricsMXBean {
+
+    /**
+     * @return counters like executions and failures per algorithm, cached results and output bytes
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return number of values recorded per histogram
+     */
+    Map<String, Long> getHistogramCounts();
+
+    Map<String, Long> getHistogramMeans();
+
+    /**
+     * @return median per histogram, as upper bound of its bucket
+     */
+    Map<String, Long> getHistogramMedians();
+
+    /**
+     * @return 95th percentile per histogram, as upper bound of its bucket
+     */
+    Map<String, Long> getHistogram95thPercentiles();
+
+    Map<String, Long> getHistogramMaxima();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset();
+}
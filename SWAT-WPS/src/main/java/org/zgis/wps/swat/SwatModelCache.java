@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Content addressed cache of extracted SWAT models.
+ * <p/>
+ * Models are keyed by the SHA-256 of the uploaded {@code swat_model} zip and kept extracted and
+ * read-only below {@code swat.model.cache.dir}. Run workspaces are built from hard links into this
+ * tree (see {@link WorkspaceFiles}). When the cache grows beyond {@code swat.model.cache.max.bytes},
+ * the least recently used models that are not currently being linked are removed.
+ */
+final class SwatModelCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatModelCache.class);
+
+    private static SwatModelCache instance;
+
+    private final DirectoryCache cache;
+    private final SwatModelExtractor extractor;
+    private final ConcurrentMap<String, Object> extractionLocks = new ConcurrentHashMap<>();
+
+    SwatModelCache(File root, long maxBytes, SwatModelExtractor extractor) throws IOException {
+        this.cache = new DirectoryCache("model cache", root, maxBytes, 0);
+        this.extractor = extractor;
+    }
+
+    /**
+     * @return the shared cache, configured from {@link SwatConfiguration}
+     */
+    static synchronized SwatModelCache getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SwatModelCache(SwatConfiguration.getDirectory("model.cache.dir", "models"),
+                                          SwatConfiguration.getLong("model.cache.max.bytes", 10L << 30),
+                                          SwatModelExtractor.create());
+        }
+        return instance;
+    }
+
+    /**
+     * @return true unless the cache is disabled with {@code swat.model.cache.enabled=false}
+     */
+    static boolean isEnabled() {
+        return SwatConfiguration.getBoolean("model.cache.enabled", true);
+    }
+
+    /**
+     * Returns the extracted model for {@code hash}, extracting {@code zip} if it is not cached yet.
+     * The model is not evicted before the returned lease is closed.
+     */
+    DirectoryCache.Lease acquire(String hash, File zip) throws IOException {
+        DirectoryCache.Lease lease = this.cache.acquire(hash);
+        if (lease != null) {
+            logger.info("Model " + hash + " found in cache");
+            return lease;
+        }
+
+        synchronized (lock(hash)) {
+            lease = this.cache.acquire(hash);
+            if (lease != null) {
+                return lease;
+            }
+            return extract(hash, zip);
+        }
+    }
+
+    /**
+     * Locks are kept, removing one while other threads wait on it would let two threads extract the same
+     * model.
+     */
+    private Object lock(String hash) {
+        Object lock = this.extractionLocks.get(hash);
+        if (lock == null) {
+            Object newLock = new Object();
+            lock = this.extractionLocks.putIfAbsent(hash, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * @return lease on the cached model for {@code hash} or null if it is not cached
+     */
+    DirectoryCache.Lease acquire(String hash) {
+        return this.cache.acquire(hash);
+    }
+
+    private DirectoryCache.Lease extract(String hash, File zip) throws IOException {
+        File tmp = this.cache.newTempDir();
+        try {
+            long start = System.currentTimeMillis();
+            int files = this.extractor.extract(zip, tmp);
+            WorkspaceFiles.makeReadOnly(tmp);
+            DirectoryCache.Lease lease = this.cache.put(hash, tmp);
+            logger.info("Cached model " + hash + ": " + files + " files in "
+                                + (System.currentTimeMillis() - start) + " ms");
+            return lease;
+        } finally {
+            if (tmp.exists()) {
+                FileUtils.deleteQuietly(tmp);
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zipped SWAT model (TxtInOut) into a directory.
+ * <p/>
+ * Entries are written by a shared, bounded worker pool in batches, every entry path is checked to stay
+ * inside the target directory ("zip slip"), and files SWAT never reads (GIS rasters and shapes, the
+ * ArcSWAT/QSWAT project databases, ...) are skipped.
+ */
+final class SwatModelExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatModelExtractor.class);
+
+    static final String DEFAULT_SKIPPED_EXTENSIONS =
+            "mdb,sqlite,qgs,tif,tiff,img,adf,ovr,aux,rrd,shp,shx,dbf,sbn,sbx,prj,cpg";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Uncompressed bytes handed to a worker at once, so thousands of tiny files don't become
+     * thousands of tasks.
+     */
+    private static final long BATCH_BYTES = 8L * 1024 * 1024;
+
+    /**
+     * Buffer of each worker, only used on the threads of {@link #pool}: a buffer left on a servlet
+     * container's thread would outlive the web application.
+     */
+    private static final ThreadLocal<ByteBuffer> workerBuffers = new ThreadLocal<>();
+
+    private static ExecutorService pool;
+
+    private final Set<String> skippedExtensions;
+
+    SwatModelExtractor(Set<String> skippedExtensions) {
+        this.skippedExtensions = skippedExtensions;
+    }
+
+    /**
+     * Creates an extractor that skips the extensions configured in {@code swat.extract.skip.extensions}.
+     */
+    static SwatModelExtractor create() {
+        Set<String> skipped = new HashSet<>();
+        for (String ext : SwatConfiguration.getString("extract.skip.extensions", DEFAULT_SKIPPED_EXTENSIONS)
+                                           .split(",")) {
+            if (!ext.trim().isEmpty()) {
+                skipped.add(ext.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return new SwatModelExtractor(skipped);
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int threads = SwatConfiguration.getInt("extract.threads", Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(Math.max(1, threads), new NamedThreadFactory("swat-extract"));
+        }
+        return pool;
+    }
+
+    /**
+     * Extracts {@code zip} into {@code targetDir}.
+     *
+     * @return number of extracted files
+     * @throws IOException if the archive is invalid, an entry points outside of {@code targetDir} or a
+     *                     file could not be written
+     */
+    int extract(File zip, File targetDir) throws IOException {
+        final File root = targetDir.getCanonicalFile();
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create dir " + root);
+        }
+
+        try (final ZipFile zipFile = new ZipFile(zip)) {
+            List<List<ZipEntry>> batches = new ArrayList<>();
+            List<ZipEntry> batch = new ArrayList<>();
+            long batchBytes = 0;
+            int files = 0;
+            int skipped = 0;
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File target = resolveEntry(root, entry.getName());
+                if (entry.isDirectory()) {
+                    if (!target.isDirectory() && !target.mkdirs()) {
+                        throw new IOException("Could not create dir " + target);
+                    }
+                    continue;
+                }
+                if (isSkipped(entry.getName())) {
+                    skipped++;
+                    continue;
+                }
+                batch.add(entry);
+                files++;
+                batchBytes += Math.max(entry.getSize(), 0);
+                if (batchBytes >= BATCH_BYTES) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+
+            logger.debug("Extracting " + files + " files in " + batches.size() + " batches to " + root
+                                 + ", skipping " + skipped + " files");
+            if (batches.size() == 1) {
+                // a single batch is extracted on the calling thread with a buffer of its own
+                extractBatch(zipFile, root, batches.get(0), ByteBuffer.allocate(BUFFER_SIZE));
+            }
+            else if (!batches.isEmpty()) {
+                ExecutorService executor = getPool();
+                final AtomicBoolean failed = new AtomicBoolean();
+                List<Future<Void>> futures = new ArrayList<>(batches.size());
+                for (final List<ZipEntry> b : batches) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            // the remaining batches are skipped once one has failed
+                            if (!failed.get()) {
+                                try {
+                                    extractBatch(zipFile, root, b, getWorkerBuffer());
+                                } catch (IOException | RuntimeException e) {
+                                    failed.set(true);
+                                    throw e;
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                awaitAll(futures, failed);
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Waits until every batch has finished, also if one failed or this thread is interrupted: the zip is
+     * closed and the caller may delete the target dir right after.
+     */
+    private static void awaitAll(List<Future<Void>> futures, AtomicBoolean failed) throws IOException {
+        IOException failure = null;
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    failed.set(true);
+                    if (failure == null) {
+                        failure = new IOException("Interrupted while extracting swat model", e);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException
+                                ? (IOException) e.getCause()
+                                : new IOException("Could not extract swat model", e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static ByteBuffer getWorkerBuffer() {
+        ByteBuffer buffer = workerBuffers.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            workerBuffers.set(buffer);
+        }
+        // a failed batch may have left data in it
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void extractBatch(ZipFile zipFile, File root, List<ZipEntry> entries, ByteBuffer buffer)
+            throws IOException {
+        for (ZipEntry entry : entries) {
+            File target = resolveEntry(root, entry.getName());
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                throw new IOException("Could not create dir " + parent);
+            }
+            try (InputStream in = zipFile.getInputStream(entry);
+                 FileChannel out = new FileOutputStream(target).getChannel()) {
+                int read;
+                while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) != -1) {
+                    buffer.position(buffer.position() + read);
+                    if (!buffer.hasRemaining()) {
+                        drain(buffer, out);
+                    }
+                }
+                drain(buffer, out);
+            }
+        }
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return true if the entry has one of the skipped extensions
+     */
+    boolean isSkipped(String entryName) {
+        String name = entryName.toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        return dot > slash && this.skippedExtensions.contains(name.substring(dot + 1));
+    }
+
+    /**
+     * Resolves a zip entry name against the canonical {@code root} and rejects names that would end
+     * up outside of it.
+     */
+    static File resolveEntry(File root, String entryName) throws IOException {
+        File target = new File(root, entryName).getCanonicalFile();
+        String rootPath = root.getPath();
+        String targetPath = target.getPath();
+        if (!targetPath.equals(rootPath) && !targetPath.startsWith(rootPath + File.separator)) {
+            throw new IOException("Zip entry " + entryName + " is outside of the target directory");
+        }
+        return target;
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Changes applied to a model workspace before SWAT runs: files replaced from a patch zip and single
+ * values edited in place.
+ * <p/>
+ * Parameter edits are written as {@code file:line:column=value}, with line and column counted from 1.
+ * The edited value is the blank separated token at (or, if there is a blank, right after) the column.
+ * The new value is right aligned to the end of the old one, so fixed width fields keep their position.
+ * <p/>
+ * Changed files are replaced by private copies first, so models linked from the {@link SwatModelCache}
+ * stay untouched.
+ */
+final class SwatModelPatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatModelPatch.class);
+
+    private static final Pattern EDIT_PATTERN = Pattern.compile("([^:]+):(\\d+):(\\d+)=(.*)");
+
+    private final File patchZip;
+    private final List<Edit> edits;
+
+    /**
+     * @param patchZip zip of files replacing those of the model (relative to the model root) or null
+     * @param edits    parameter edits or null
+     * @throws IOException if an edit can't be parsed
+     */
+    SwatModelPatch(File patchZip, List<String> edits) throws IOException {
+        this.patchZip = patchZip;
+        this.edits = new ArrayList<>();
+        if (edits != null) {
+            for (String edit : edits) {
+                this.edits.add(Edit.parse(edit));
+            }
+        }
+    }
+
+    /**
+     * @return true if the patch doesn't change anything
+     */
+    boolean isEmpty() {
+        return this.patchZip == null && this.edits.isEmpty();
+    }
+
+    /**
+     * @return a string identifying the changes, for result cache keys
+     */
+    String toKey() throws IOException {
+        if (isEmpty()) {
+            return "";
+        }
+        MessageDigest digest = Checksums.newDigest();
+        String zipHash = this.patchZip == null ? "-" : Checksums.sha256(this.patchZip);
+        digest.update(zipHash.getBytes(StandardCharsets.UTF_8));
+        for (Edit edit : this.edits) {
+            digest.update((byte) 0);
+            digest.update(edit.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * @return true if the patch replaces or edits the model file {@code fileName}
+     */
+    boolean touches(String fileName) throws IOException {
+        for (Edit edit : this.edits) {
+            if (edit.file.equals(fileName)) {
+                return true;
+            }
+        }
+        if (this.patchZip != null) {
+            try (ZipFile zip = new ZipFile(this.patchZip)) {
+                return zip.getEntry(fileName) != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the patch to the workspace {@code modelDir}, replacement files first.
+     *
+     * @return number of changed files
+     * @throws IOException if a file can't be written or an edit doesn't match the model
+     */
+    int apply(File modelDir) throws IOException {
+        File root = modelDir.getCanonicalFile();
+        int files = 0;
+        if (this.patchZip != null) {
+            try (ZipFile zip = new ZipFile(this.patchZip)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    File target = SwatModelExtractor.resolveEntry(root, entry.getName());
+                    File parent = target.getParentFile();
+                    if (!parent.isDirectory() && !parent.mkdirs()) {
+                        throw new IOException("Could not create directory " + parent);
+                    }
+                    // replaces a hard link to the model cache instead of writing through it
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    files++;
+                }
+            }
+        }
+
+        Map<String, List<Edit>> editsByFile = new LinkedHashMap<>();
+        for (Edit edit : this.edits) {
+            List<Edit> fileEdits = editsByFile.get(edit.file);
+            if (fileEdits == null) {
+                fileEdits = new ArrayList<>();
+                editsByFile.put(edit.file, fileEdits);
+            }
+            fileEdits.add(edit);
+        }
+        for (Map.Entry<String, List<Edit>> fileEdits : editsByFile.entrySet()) {
+            File file = SwatModelExtractor.resolveEntry(root, fileEdits.getKey());
+            if (!file.isFile()) {
+                throw new IOException("Model file " + fileEdits.getKey() + " does not exist");
+            }
+            WorkspaceFiles.makePrivate(file);
+            List<String> lines = readLines(file);
+            for (Edit edit : fileEdits.getValue()) {
+                edit.apply(lines);
+            }
+            writeLines(file, lines);
+            files++;
+        }
+        logger.info("Patched " + files + " model files");
+        return files;
+    }
+
+    /**
+     * @return the lines of {@code file}, each with its line terminator
+     */
+    private static List<String> readLines(File file) throws IOException {
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            end = end < 0 ? content.length() : end + 1;
+            lines.add(content.substring(start, end));
+            start = end;
+        }
+        return lines;
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line);
+        }
+        Files.write(file.toPath(), content.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Reads the value a parameter edit at {@code line} and {@code column} of {@code file} would replace.
+     *
+     * @throws IOException if the file can't be read or there is no value at this position
+     */
+    static String readValue(File file, int line, int column) throws IOException {
+        List<String> lines = readLines(file);
+        if (line > lines.size()) {
+            throw new IOException(file.getName() + " has only " + lines.size() + " lines");
+        }
+        String text = lines.get(line - 1);
+        int length = lineLength(text);
+        int start = tokenStart(text, length, column);
+        if (start < 0) {
+            throw new IOException("No value in " + file.getName() + " at line " + line + ", column " + column);
+        }
+        return text.substring(start, tokenEnd(text, length, start));
+    }
+
+    /**
+     * @return length of {@code text} without its line terminator
+     */
+    private static int lineLength(String text) {
+        int length = text.length();
+        while (length > 0 && (text.charAt(length - 1) == '\n' || text.charAt(length - 1) == '\r')) {
+            length--;
+        }
+        return length;
+    }
+
+    /**
+     * @return start of the token at or right after the 1-based {@code column}, -1 if there is none
+     */
+    private static int tokenStart(String text, int length, int column) {
+        int start = column - 1;
+        while (start < length && isBlank(text.charAt(start))) {
+            start++;
+        }
+        if (start >= length) {
+            return -1;
+        }
+        while (start > 0 && !isBlank(text.charAt(start - 1))) {
+            start--;
+        }
+        return start;
+    }
+
+    private static int tokenEnd(String text, int length, int start) {
+        int end = start;
+        while (end < length && !isBlank(text.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /**
+     * A single value changed in a model file.
+     */
+    static final class Edit {
+        private final String file;
+        private final int line;
+        private final int column;
+        private final String value;
+
+        Edit(String file, int line, int column, String value) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.value = value;
+        }
+
+        /**
+         * Parses {@code file:line:column=value}.
+         */
+        static Edit parse(String edit) throws IOException {
+            Matcher matcher = EDIT_PATTERN.matcher(edit.trim());
+            if (!matcher.matches()) {
+                throw new IOException("Invalid parameter edit '" + edit + "', expected file:line:column=value");
+            }
+            String value = matcher.group(4).trim();
+            int line;
+            int column;
+            try {
+                line = Integer.parseInt(matcher.group(2));
+                column = Integer.parseInt(matcher.group(3));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid parameter edit '" + edit + "', line or column out of range", e);
+            }
+            if (line < 1 || column < 1 || value.isEmpty() || value.indexOf(' ') >= 0) {
+                throw new IOException("Invalid parameter edit '" + edit + "'");
+            }
+            return new Edit(matcher.group(1).trim(), line, column, value);
+        }
+
+        private void apply(List<String> lines) throws IOException {
+            if (this.line > lines.size()) {
+                throw new IOException(this + ": " + this.file + " has only " + lines.size() + " lines");
+            }
+            String text = lines.get(this.line - 1);
+            int length = lineLength(text);
+            int start = tokenStart(text, length, this.column);
+            if (start < 0) {
+                throw new IOException(this + ": no value at this position");
+            }
+            int end = tokenEnd(text, length, start);
+            // the blanks before the old value can take a longer new value, one is kept as separator
+            int available = start;
+            while (available > 0 && isBlank(text.charAt(available - 1))) {
+                available--;
+            }
+            if (available > 0) {
+                available++;
+            }
+            int width = end - available;
+            if (this.value.length() > width) {
+                throw new IOException(this + ": value does not fit in " + width + " columns");
+            }
+            StringBuilder edited = new StringBuilder(text.length() + this.value.length());
+            edited.append(text, 0, Math.min(start, end - this.value.length()));
+            for (int i = edited.length(); i < end - this.value.length(); i++) {
+                edited.append(' ');
+            }
+            edited.append(this.value).append(text, end, text.length());
+            lines.set(this.line - 1, edited.toString());
+        }
+
+        @Override
+        public String toString() {
+            return this.file + ":" + this.line + ":" + this.column + "=" + this.value;
+        }
+    }
+}
@@ -0,0 +1,607 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Packs SWAT output files into a ZIP archive using all cores.
+ * <p/>
+ * Files are cut into chunks which are deflated independently on a shared worker pool and joined into
+ * one deflate stream per entry (the same technique pigz uses). The archive is written straight to its
+ * target file, CRCs and sizes are patched into the local headers afterwards, so neither uncompressed
+ * nor compressed copies of the outputs are staged. The chunks in flight of all archives written at the same
+ * time share one memory budget ({@code package.memory.max.bytes}); their buffers and the workers' input
+ * buffers are reused. ZIP64 records are written for large files and archives.
+ */
+final class SwatOutputPackager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatOutputPackager.class);
+
+    static final String STORE = "store";
+    static final int DEFAULT_LEVEL = 6;
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int CHUNK_BUFFER_SIZE = outputCapacity(CHUNK_SIZE);
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    /**
+     * Deflate may grow incompressible data slightly, so entries close to 4 GB get ZIP64 headers too.
+     */
+    private static final long ZIP64_ENTRY_THRESHOLD = ZIP64_LIMIT - 16L * 1024 * 1024;
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static ExecutorService pool;
+    /**
+     * Budget of the output buffers of chunks in flight in KB, shared by all packagers.
+     */
+    private static Semaphore memory;
+    private static final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+    /**
+     * Input buffer of each worker, only used on the threads of {@link #pool}.
+     */
+    private static final ThreadLocal<byte[]> inputBuffer = new ThreadLocal<>();
+
+    private final int level;
+
+    /**
+     * @param level deflate level 1-9, or 0 to store the files uncompressed
+     */
+    SwatOutputPackager(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Parses the value of the {@code output_compression} input: {@code store} or a deflate level 1-9.
+     *
+     * @return the level, 0 for {@code store}
+     * @throws IOException for other values
+     */
+    static int parseLevel(String value) throws IOException {
+        if (value == null || value.trim().isEmpty()) {
+            return DEFAULT_LEVEL;
+        }
+        if (STORE.equalsIgnoreCase(value.trim())) {
+            return 0;
+        }
+        try {
+            int level = Integer.parseInt(value.trim());
+            if (level >= 1 && level <= 9) {
+                return level;
+            }
+        } catch (NumberFormatException ignored) {
+            // reported below
+        }
+        throw new IOException("Invalid output compression '" + value + "', use 'store' or 1-9");
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int threads = SwatConfiguration.getInt("package.threads", Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(Math.max(1, threads), new NamedThreadFactory("swat-package"));
+        }
+        return pool;
+    }
+
+    private static synchronized Semaphore getMemory() {
+        if (memory == null) {
+            long bytes = SwatConfiguration.getLong("package.memory.max.bytes", 128L * 1024 * 1024);
+            // at least one chunk, otherwise nothing could be packed
+            long kb = Math.max(toKb(CHUNK_BUFFER_SIZE), bytes / 1024);
+            memory = new Semaphore((int) Math.min(Integer.MAX_VALUE, kb));
+        }
+        return memory;
+    }
+
+    private static int toKb(int bytes) {
+        return (bytes + 1023) / 1024;
+    }
+
+    private static int outputCapacity(int length) {
+        return length + length / 1000 + 64;
+    }
+
+    /**
+     * Writes {@code files} into the archive {@code zip}, using the file names as entry names.
+     */
+    void write(List<File> files, File zip) throws IOException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = getPool();
+        Semaphore memory = getMemory();
+        int window = 2 * SwatConfiguration.getInt("package.threads", Runtime.getRuntime().availableProcessors());
+        Deque<Pending> pending = new ArrayDeque<>();
+        List<EntryInfo> written = new ArrayList<>(files.size());
+
+        try (FileChannel out = new FileOutputStream(zip).getChannel()) {
+            EntryInfo[] entries = new EntryInfo[files.size()];
+            for (int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                entries[i] = new EntryInfo(file);
+                final long length = file.length();
+                long offset = 0;
+                do {
+                    final int fileIndex = i;
+                    final long chunkOffset = offset;
+                    final int chunkLength = (int) Math.min(CHUNK_SIZE, length - offset);
+                    final boolean last = offset + chunkLength >= length;
+                    int permits = toKb(outputCapacity(chunkLength));
+                    // write own chunks to free memory before waiting for other archives to do so, otherwise
+                    // archives holding memory could wait for each other
+                    while (!memory.tryAcquire(permits)) {
+                        if (pending.isEmpty()) {
+                            acquire(memory, permits);
+                            break;
+                        }
+                        writeChunk(out, entries, written, pending.poll());
+                    }
+                    Future<Chunk> future;
+                    try {
+                        future = executor.submit(new Callable<Chunk>() {
+                            @Override
+                            public Chunk call() throws IOException {
+                                return compress(fileIndex, file, chunkOffset, chunkLength, last);
+                            }
+                        });
+                    } catch (RuntimeException e) {
+                        memory.release(permits);
+                        throw e;
+                    }
+                    pending.add(new Pending(future, permits));
+                    offset += chunkLength;
+                    while (pending.size() >= window) {
+                        writeChunk(out, entries, written, pending.poll());
+                    }
+                } while (offset < length);
+            }
+            while (!pending.isEmpty()) {
+                writeChunk(out, entries, written, pending.poll());
+            }
+            writeCentralDirectory(out, written);
+        } finally {
+            for (Pending chunk : pending) {
+                chunk.future.cancel(true);
+                memory.release(chunk.permits);
+            }
+        }
+        logger.info("Packed " + files.size() + " files into " + zip + " (" + zip.length() + " bytes, level "
+                            + this.level + ") in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static void acquire(Semaphore memory, int permits) throws IOException {
+        try {
+            memory.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packing SWAT output", e);
+        }
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while packing SWAT output", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not pack SWAT output", e.getCause());
+        }
+    }
+
+    private Chunk compress(int fileIndex, File file, long offset, int length, boolean last) throws IOException {
+        if (this.level == 0) {
+            // stored chunks are read straight into their output buffer
+            byte[] output = takeBuffer(length);
+            read(file, offset, output, length);
+            CRC32 crc = new CRC32();
+            crc.update(output, 0, length);
+            return new Chunk(fileIndex, offset == 0, last, length, crc.getValue(), output, length);
+        }
+
+        byte[] input = inputBuffer.get();
+        if (input == null) {
+            input = new byte[CHUNK_SIZE];
+            inputBuffer.set(input);
+        }
+        read(file, offset, input, length);
+        CRC32 crc = new CRC32();
+        crc.update(input, 0, length);
+
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            deflater.setInput(input, 0, length);
+            byte[] output = takeBuffer(length);
+            int size = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (size == output.length) {
+                        output = grow(output);
+                    }
+                    size += deflater.deflate(output, size, output.length - size);
+                }
+            }
+            else {
+                // sync flush ends the chunk on a byte boundary without a final block, so the chunks
+                // of a file can be concatenated into a single deflate stream
+                int n;
+                do {
+                    if (size == output.length) {
+                        output = grow(output);
+                    }
+                    n = deflater.deflate(output, size, output.length - size, Deflater.SYNC_FLUSH);
+                    size += n;
+                } while (size == output.length || !deflater.needsInput());
+            }
+            return new Chunk(fileIndex, offset == 0, last, length, crc.getValue(), output, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void read(File file, long offset, byte[] buffer, int length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offset);
+            raf.readFully(buffer, 0, length);
+        }
+    }
+
+    /**
+     * @return an output buffer for a chunk of {@code length} bytes, a reused one for full chunks
+     */
+    private static byte[] takeBuffer(int length) {
+        if (length == CHUNK_SIZE) {
+            byte[] buffer = freeBuffers.poll();
+            return buffer != null ? buffer : new byte[CHUNK_BUFFER_SIZE];
+        }
+        return new byte[outputCapacity(length)];
+    }
+
+    /**
+     * Returns a chunk's output buffer for reuse. At most as many buffers as fit into the memory budget are
+     * ever in use, so the free ones need no further limit.
+     */
+    private static void returnBuffer(byte[] buffer) {
+        if (buffer.length == CHUNK_BUFFER_SIZE) {
+            freeBuffers.offer(buffer);
+        }
+    }
+
+    private static byte[] grow(byte[] buffer) {
+        byte[] bigger = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, bigger, 0, buffer.length);
+        return bigger;
+    }
+
+    private void writeChunk(FileChannel out, EntryInfo[] entries, List<EntryInfo> written, Pending pending)
+            throws IOException {
+        try {
+            Chunk chunk = await(pending.future);
+            writeChunk(out, entries, written, chunk);
+            returnBuffer(chunk.data);
+        } finally {
+            getMemory().release(pending.permits);
+        }
+    }
+
+    private void writeChunk(FileChannel out, EntryInfo[] entries, List<EntryInfo> written, Chunk chunk)
+            throws IOException {
+        EntryInfo entry = entries[chunk.fileIndex];
+        if (chunk.first) {
+            entry.zip64 = entry.file.length() >= ZIP64_ENTRY_THRESHOLD;
+            entry.method = this.level == 0 ? METHOD_STORED : METHOD_DEFLATED;
+            entry.headerOffset = out.position();
+            writeFully(out, localHeader(entry));
+        }
+        writeFully(out, ByteBuffer.wrap(chunk.data, 0, chunk.dataLength));
+        entry.crc = entry.size == 0 ? chunk.crc : crc32Combine(entry.crc, chunk.crc, chunk.length);
+        entry.size += chunk.length;
+        entry.compressedSize += chunk.dataLength;
+
+        if (chunk.last) {
+            patchLocalHeader(out, entry);
+            written.add(entry);
+        }
+    }
+
+    private static ByteBuffer localHeader(EntryInfo entry) {
+        byte[] name = entry.name;
+        ByteBuffer buf = ByteBuffer.allocate(30 + name.length + (entry.zip64 ? 20 : 0))
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(LOCAL_HEADER_SIG);
+        buf.putShort((short) (entry.zip64 ? 45 : 20));
+        buf.putShort((short) FLAG_UTF8);
+        buf.putShort((short) entry.method);
+        buf.putInt((int) entry.dosTime);
+        buf.putInt(0); // crc, patched later
+        buf.putInt(entry.zip64 ? (int) ZIP64_LIMIT : 0); // compressed size, patched later
+        buf.putInt(entry.zip64 ? (int) ZIP64_LIMIT : (int) entry.file.length());
+        buf.putShort((short) name.length);
+        buf.putShort((short) (entry.zip64 ? 20 : 0));
+        buf.put(name);
+        if (entry.zip64) {
+            buf.putShort((short) 0x0001);
+            buf.putShort((short) 16);
+            buf.putLong(entry.file.length());
+            buf.putLong(0); // compressed size, patched later
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static void patchLocalHeader(FileChannel out, EntryInfo entry) throws IOException {
+        if (entry.size != entry.file.length()) {
+            throw new IOException(entry.file + " changed while it was packed");
+        }
+        ByteBuffer crc = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        crc.putInt((int) entry.crc);
+        if (entry.zip64) {
+            crc.flip().limit(4);
+            writeFully(out, crc, entry.headerOffset + 14);
+            ByteBuffer size = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            size.putLong(entry.compressedSize).flip();
+            writeFully(out, size, entry.headerOffset + 30 + entry.name.length + 12);
+        }
+        else {
+            crc.putInt((int) entry.compressedSize).flip();
+            writeFully(out, crc, entry.headerOffset + 14);
+        }
+    }
+
+    private static void writeCentralDirectory(FileChannel out, List<EntryInfo> entries) throws IOException {
+        long cdStart = out.position();
+        for (EntryInfo entry : entries) {
+            boolean sizes64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+            boolean offset64 = entry.headerOffset >= ZIP64_LIMIT;
+            int extraLength = sizes64 || offset64 ? 4 + (sizes64 ? 16 : 0) + (offset64 ? 8 : 0) : 0;
+            byte[] name = entry.name;
+            ByteBuffer buf = ByteBuffer.allocate(46 + name.length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(CENTRAL_HEADER_SIG);
+            buf.putShort((short) (extraLength > 0 ? 45 : 20)); // version made by (MS-DOS)
+            buf.putShort((short) (extraLength > 0 || entry.zip64 ? 45 : 20));
+            buf.putShort((short) FLAG_UTF8);
+            buf.putShort((short) entry.method);
+            buf.putInt((int) entry.dosTime);
+            buf.putInt((int) entry.crc);
+            buf.putInt(sizes64 ? (int) ZIP64_LIMIT : (int) entry.compressedSize);
+            buf.putInt(sizes64 ? (int) ZIP64_LIMIT : (int) entry.size);
+            buf.putShort((short) name.length);
+            buf.putShort((short) extraLength);
+            buf.putShort((short) 0); // comment length
+            buf.putShort((short) 0); // disk number
+            buf.putShort((short) 0); // internal attributes
+            buf.putInt(0); // external attributes
+            buf.putInt(offset64 ? (int) ZIP64_LIMIT : (int) entry.headerOffset);
+            buf.put(name);
+            if (extraLength > 0) {
+                buf.putShort((short) 0x0001);
+                buf.putShort((short) (extraLength - 4));
+                if (sizes64) {
+                    buf.putLong(entry.size);
+                    buf.putLong(entry.compressedSize);
+                }
+                if (offset64) {
+                    buf.putLong(entry.headerOffset);
+                }
+            }
+            buf.flip();
+            writeFully(out, buf);
+        }
+        long cdEnd = out.position();
+        long cdSize = cdEnd - cdStart;
+        boolean zip64 = entries.size() >= 0xFFFF || cdStart >= ZIP64_LIMIT || cdSize >= ZIP64_LIMIT;
+
+        if (zip64) {
+            ByteBuffer buf = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(ZIP64_END_SIG);
+            buf.putLong(44); // size of the remaining record
+            buf.putShort((short) 45);
+            buf.putShort((short) 45);
+            buf.putInt(0);
+            buf.putInt(0);
+            buf.putLong(entries.size());
+            buf.putLong(entries.size());
+            buf.putLong(cdSize);
+            buf.putLong(cdStart);
+            buf.putInt(ZIP64_LOCATOR_SIG);
+            buf.putInt(0);
+            buf.putLong(cdEnd);
+            buf.putInt(1);
+            buf.flip();
+            writeFully(out, buf);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(END_SIG);
+        buf.putShort((short) 0);
+        buf.putShort((short) 0);
+        buf.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        buf.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+        buf.putInt(zip64 ? (int) ZIP64_LIMIT : (int) cdSize);
+        buf.putInt(zip64 ? (int) ZIP64_LIMIT : (int) cdStart);
+        buf.putShort((short) 0);
+        buf.flip();
+        writeFully(out, buf);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+    }
+
+    /**
+     * Combines the CRC-32 of two consecutive blocks, the second one {@code length2} bytes long
+     * (port of zlib's {@code crc32_combine}).
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        long len = length2;
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((len & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            len >>= 1;
+            if (len == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((len & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            len >>= 1;
+        } while (len != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] mat, long vec) {
+        long sum = 0;
+        int i = 0;
+        while (vec != 0) {
+            if ((vec & 1) != 0) {
+                sum ^= mat[i];
+            }
+            vec >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] mat) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(mat, mat[n]);
+        }
+    }
+
+    private static long toDosTime(long millis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(millis);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16) | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) >> 1);
+    }
+
+    private static final class EntryInfo {
+        private final File file;
+        private final byte[] name;
+        private final long dosTime;
+        private int method;
+        private boolean zip64;
+        private long headerOffset;
+        private long crc;
+        private long size;
+        private long compressedSize;
+
+        private EntryInfo(File file) {
+            this.file = file;
+            this.name = file.getName().getBytes(StandardCharsets.UTF_8);
+            this.dosTime = toDosTime(file.lastModified());
+        }
+    }
+
+    private static final class Pending {
+        private final Future<Chunk> future;
+        private final int permits;
+
+        private Pending(Future<Chunk> future, int permits) {
+            this.future = future;
+            this.permits = permits;
+        }
+    }
+
+    private static final class Chunk {
+        private final int fileIndex;
+        private final boolean first;
+        private final boolean last;
+        private final int length;
+        private final long crc;
+        private final byte[] data;
+        private final int dataLength;
+
+        private Chunk(int fileIndex, boolean first, boolean last, int length, long crc, byte[] data,
+                      int dataLength) {
+            this.fileIndex = fileIndex;
+            this.first = first;
+            this.last = last;
+            this.length = length;
+            this.crc = crc;
+            this.data = data;
+            this.dataLength = dataLength;
+        }
+    }
+}
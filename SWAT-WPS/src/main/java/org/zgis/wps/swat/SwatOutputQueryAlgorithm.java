@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.n52.wps.algorithm.annotation.*;
+import org.n52.wps.commons.context.ExecutionContextFactory;
+import org.n52.wps.io.data.GenericFileData;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Returns single units and variables of the output of a SWAT run.
+ */
+@Algorithm(
+        version = "0.0.1", //TODO get this value from maven pom (via properties file)
+        abstrakt = "This Algorithm returns selected units, variables and years of the output of a previous "
+                + "run of the swat-runner-algorithm as CSV.",
+        title = "SWAT Output Query Algorithm",
+        identifier = "swat-output-query-algorithm",
+        statusSupported = false,
+        storeSupported = false)
+public class SwatOutputQueryAlgorithm extends AbstractAnnotatedAlgorithm {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatOutputQueryAlgorithm.class);
+
+    private String runId;
+    private String outputFile;
+    private List<Integer> units;
+    private List<String> variables;
+    private Integer fromYear;
+    private Integer toYear;
+    private GenericFileData result;
+
+    @LiteralDataInput(
+            identifier = "run_id",
+            title = "run id",
+            abstrakt = "The run_id returned by the swat-runner-algorithm.",
+            minOccurs = 1, maxOccurs = 1)
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    @LiteralDataInput(
+            identifier = "output_file",
+            title = "output file",
+            abstrakt = "The SWAT output file to query.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "output.rch",
+            allowedValues = {"output.rch", "output.sub", "output.hru"})
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    @LiteralDataInput(
+            identifier = "unit",
+            title = "unit",
+            abstrakt = "Reach, subbasin or HRU number, all units if not given.",
+            minOccurs = 0, maxOccurs = 1000,
+            binding = LiteralIntBinding.class)
+    public void setUnits(List<Integer> units) {
+        this.units = units;
+    }
+
+    @LiteralDataInput(
+            identifier = "variable",
+            title = "variable",
+            abstrakt = "Output variable as named in the header of the output file, e.g. FLOW_OUTcms, "
+                    + "all variables if not given.",
+            minOccurs = 0, maxOccurs = 500)
+    public void setVariables(List<String> variables) {
+        this.variables = variables;
+    }
+
+    @LiteralDataInput(
+            identifier = "from_year",
+            title = "from year",
+            abstrakt = "First year returned, from the start of the run if not given.",
+            minOccurs = 0, maxOccurs = 1,
+            binding = LiteralIntBinding.class)
+    public void setFromYear(Integer fromYear) {
+        this.fromYear = fromYear;
+    }
+
+    @LiteralDataInput(
+            identifier = "to_year",
+            title = "to year",
+            abstrakt = "Last year returned, to the end of the run if not given.",
+            minOccurs = 0, maxOccurs = 1,
+            binding = LiteralIntBinding.class)
+    public void setToYear(Integer toYear) {
+        this.toYear = toYear;
+    }
+
+    @ComplexDataOutput(identifier = "swat_output_csv",
+            title = "selected SWAT output as CSV",
+            abstrakt = "CSV with the columns unit, year, period (day of year, month or 0 for yearly output) "
+                    + "and one column per variable.",
+            binding = GenericFileDataBinding.class)
+    public GenericFileData getResult() {
+        return this.result;
+    }
+
+    @Execute
+    public void query() throws IOException {
+        File tempDir = new File(ExecutionContextFactory.getContext().getTempDirectoryPath());
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new IOException("Could not create temp dir " + tempDir);
+        }
+        if (!SwatOutputStore.isEnabled()) {
+            throw new IOException("The output store is disabled on this server");
+        }
+
+        int[] unitIds = new int[this.units != null ? this.units.size() : 0];
+        for (int i = 0; i < unitIds.length; i++) {
+            unitIds[i] = this.units.get(i);
+        }
+        List<String> selected = this.variables != null ? this.variables : Collections.<String>emptyList();
+        String file = this.outputFile != null ? this.outputFile : SwatOutputTable.Kind.RCH.getFileName();
+
+        File csv = new File(tempDir, "swat_output_query.csv");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv),
+                                                                    StandardCharsets.UTF_8), 1 << 16)) {
+            int rows = SwatOutputStore.getInstance().query(this.runId, file, unitIds, selected, this.fromYear,
+                                                           this.toYear, out);
+            logger.info("Returning " + rows + " rows of " + file + " of run " + this.runId);
+        }
+        this.result = new GenericFileData(csv, "text/csv");
+    }
+}
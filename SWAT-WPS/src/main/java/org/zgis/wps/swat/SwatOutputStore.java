@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Binary, queryable copies of the outputs of SWAT runs.
+ * <p/>
+ * After a run {@code output.rch}, {@code output.sub} and {@code output.hru} are converted to
+ * {@link SwatOutputTable}s, stored under the id of the run. Clients can then fetch single units and
+ * variables with {@link SwatOutputQueryAlgorithm} instead of downloading and parsing the complete
+ * output. Runs are dropped when they have not been queried for {@code swat.output.store.max.age.hours}
+ * or, least recently used first, when the store grows beyond {@code swat.output.store.max.bytes}.
+ */
+final class SwatOutputStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatOutputStore.class);
+
+    private static SwatOutputStore instance;
+
+    private final DirectoryCache cache;
+
+    SwatOutputStore(File root, long maxBytes, long maxAgeMillis) throws IOException {
+        this.cache = new DirectoryCache("output store", root, maxBytes, maxAgeMillis);
+    }
+
+    /**
+     * @return the shared store, configured from {@link SwatConfiguration}
+     */
+    static synchronized SwatOutputStore getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SwatOutputStore(SwatConfiguration.getDirectory("output.store.dir", "outputs"),
+                                           SwatConfiguration.getLong("output.store.max.bytes", 20L << 30),
+                                           SwatConfiguration.getLong("output.store.max.age.hours", 168)
+                                                   * 60 * 60 * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true unless the store is disabled with {@code swat.output.store.enabled=false}
+     */
+    static boolean isEnabled() {
+        return SwatConfiguration.getBoolean("output.store.enabled", true);
+    }
+
+    /**
+     * @return true if the outputs of run {@code runId} are stored
+     */
+    boolean contains(String runId) {
+        try (DirectoryCache.Lease lease = this.cache.acquire(runId)) {
+            return lease != null;
+        }
+    }
+
+    /**
+     * Converts the output files SWAT wrote to {@code modelDir}, with the time steps taken from the
+     * {@code file.cio} there. Failures, including an unreadable {@code file.cio}, are logged only.
+     */
+    void store(String runId, File modelDir, SwatPrintOptions options) {
+        SwatFileCio fileCio;
+        try {
+            fileCio = SwatFileCio.read(modelDir);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not store output of run " + runId, e);
+            return;
+        }
+        store(runId, modelDir, fileCio, options);
+    }
+
+    /**
+     * Converts the output files of a run in {@code outputDir}. Failures are logged only, a run does not
+     * fail because its output could not be stored.
+     *
+     * @param fileCio the {@code file.cio} of the run, for the time steps of the output
+     * @param options the print options of the run, output files not returned to the client are not stored
+     */
+    void store(String runId, File outputDir, SwatFileCio fileCio, SwatPrintOptions options) {
+        File tmp = null;
+        try {
+            long start = System.currentTimeMillis();
+            int firstYear = SwatOutputTable.getFirstYear(fileCio);
+            int mode = SwatOutputTable.getPrintMode(fileCio);
+
+            tmp = this.cache.newTempDir();
+            StringBuilder tables = new StringBuilder();
+            for (SwatOutputTable.Kind kind : SwatOutputTable.Kind.values()) {
+                File text = new File(outputDir, kind.getFileName());
+                if (text.isFile() && options.includes(text)) {
+                    SwatOutputTable table = SwatOutputTable.convert(kind, text, tmp, firstYear, mode);
+                    tables.append(' ').append(kind.getFileName()).append(" (").append(table.getUnits().length)
+                          .append(" units, ").append(table.getStepCount()).append(" steps)");
+                }
+            }
+            this.cache.put(runId, tmp).close();
+            logger.info("Stored output of run " + runId + ":" + tables + " in "
+                                + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not store output of run " + runId, e);
+        } finally {
+            if (tmp != null && tmp.exists()) {
+                FileUtils.deleteQuietly(tmp);
+            }
+        }
+    }
+
+    /**
+     * Writes the selected values of a stored run as CSV, see
+     * {@link SwatOutputTable#query(int[], List, Integer, Integer, Writer)}.
+     *
+     * @return number of rows written
+     * @throws IOException              if the run is not stored (any more)
+     * @throws IllegalArgumentException if the run has no such output file, units or variables
+     */
+    int query(String runId, String fileName, int[] units, List<String> variables, Integer fromYear,
+              Integer toYear, Writer out) throws IOException {
+        try (DirectoryCache.Lease lease = this.cache.acquire(runId)) {
+            if (lease == null) {
+                throw new IOException("No output stored for run " + runId);
+            }
+            SwatOutputTable table = SwatOutputTable.open(lease.getDirectory(), fileName);
+            if (table == null) {
+                throw new IllegalArgumentException("Run " + runId + " has no " + fileName);
+            }
+            return table.query(units, variables, fromYear, toYear, out);
+        }
+    }
+}
@@ -0,0 +1,773 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SWAT output file ({@code output.rch}, {@code output.sub} or {@code output.hru}) converted to a
+ * binary column store.
+ * <p/>
+ * A table consists of an index file with the variable names, unit ids and the year and period of every
+ * time step, and a data file of 32 bit floats ordered by variable, unit and time step. The values of one
+ * variable of one unit are contiguous, so a query maps just the slice it needs instead of parsing the
+ * fixed width text.
+ */
+final class SwatOutputTable {
+
+    /**
+     * Print frequencies of SWAT ({@code IPRINT} in {@code file.cio}).
+     */
+    static final int MONTHLY = 0;
+    static final int DAILY = 1;
+    static final int YEARLY = 2;
+
+    static final String INDEX_SUFFIX = ".idx";
+    static final String DATA_SUFFIX = ".dat";
+
+    private static final int MAGIC = 0x53574f54;
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The output files that can be converted.
+     */
+    enum Kind {
+        RCH("output.rch", 5, false),
+        SUB("output.sub", 6, false),
+        HRU("output.hru", 4, true);
+
+        private final String fileName;
+        private final int prefixLength;
+        private final boolean prefixInHeader;
+
+        /**
+         * @param prefixLength   length of the fixed label data lines start with ({@code REACH},
+         *                       {@code BIGSUB} or the land use of a HRU)
+         * @param prefixInHeader whether the header names the label column ({@code LULC})
+         */
+        Kind(String fileName, int prefixLength, boolean prefixInHeader) {
+            this.fileName = fileName;
+            this.prefixLength = prefixLength;
+            this.prefixInHeader = prefixInHeader;
+        }
+
+        String getFileName() {
+            return this.fileName;
+        }
+
+        /**
+         * @return the kind of output file named {@code fileName} or null
+         */
+        static Kind forFileName(String fileName) {
+            for (Kind kind : values()) {
+                if (kind.fileName.equals(fileName)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final File dataFile;
+    private final String[] variables;
+    private final int[] units;
+    private final int[] years;
+    private final int[] periods;
+
+    private SwatOutputTable(File dataFile, String[] variables, int[] units, int[] years, int[] periods) {
+        this.dataFile = dataFile;
+        this.variables = variables;
+        this.units = units;
+        this.years = years;
+        this.periods = periods;
+    }
+
+    /**
+     * Converts a SWAT output file into a table in {@code dir}.
+     *
+     * @param startYear  first year printed, {@code IYR + NYSKIP} of {@code file.cio}
+     * @param printMode  {@link #MONTHLY}, {@link #DAILY} or {@link #YEARLY}
+     */
+    static SwatOutputTable convert(Kind kind, File text, File dir, int startYear, int printMode)
+            throws IOException {
+        // first pass: columns, units and time steps
+        Layout layout;
+        Steps steps = new Steps(startYear, printMode);
+        Map<Integer, Integer> unitIndex = new HashMap<>();
+        Tokens tokens = new Tokens();
+        try (BufferedReader in = open(text)) {
+            layout = Layout.read(kind, in, tokens);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!layout.parse(line, tokens)) {
+                    continue;
+                }
+                int unit = tokens.getInt(line, 0);
+                if (steps.record(unit, line, tokens, layout.monColumn, true) >= 0
+                        && !unitIndex.containsKey(unit)) {
+                    unitIndex.put(unit, unitIndex.size());
+                }
+            }
+        }
+
+        int[] units = new int[unitIndex.size()];
+        int u = 0;
+        for (Integer unit : unitIndex.keySet()) {
+            units[u++] = unit;
+        }
+        Arrays.sort(units);
+        for (int i = 0; i < units.length; i++) {
+            unitIndex.put(units[i], i);
+        }
+        int stepCount = steps.count;
+        long variableBytes = (long) units.length * stepCount * 4;
+        if (variableBytes > Integer.MAX_VALUE) {
+            throw new IOException(text.getName() + " has too many values per variable: " + variableBytes);
+        }
+
+        // second pass: values
+        String name = kind.getFileName();
+        File dataFile = new File(dir, name + DATA_SUFFIX);
+        String[] variables = layout.variables;
+        try (RandomAccessFile data = new RandomAccessFile(dataFile, "rw");
+             BufferedReader in = open(text)) {
+            data.setLength(variableBytes * variables.length);
+            MappedByteBuffer[] columns = new MappedByteBuffer[variables.length];
+            for (int v = 0; v < variables.length; v++) {
+                columns[v] = data.getChannel().map(FileChannel.MapMode.READ_WRITE, v * variableBytes,
+                                                   variableBytes);
+            }
+            Layout.read(kind, in, tokens);
+            Steps replay = new Steps(startYear, printMode);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!layout.parse(line, tokens)) {
+                    continue;
+                }
+                int unit = tokens.getInt(line, 0);
+                int step = replay.record(unit, line, tokens, layout.monColumn, false);
+                if (step < 0) {
+                    continue;
+                }
+                int offset = (unitIndex.get(unit) * stepCount + step) * 4;
+                int first = layout.monColumn + 1;
+                for (int v = 0; v < variables.length; v++) {
+                    float value = first + v < tokens.count ? tokens.getFloat(line, first + v) : Float.NaN;
+                    columns[v].putFloat(offset, value);
+                }
+            }
+            for (MappedByteBuffer column : columns) {
+                column.force();
+            }
+        }
+
+        SwatOutputTable table = new SwatOutputTable(dataFile, variables, units,
+                                                    Arrays.copyOf(steps.years, stepCount),
+                                                    Arrays.copyOf(steps.periods, stepCount));
+        table.writeIndex(new File(dir, name + INDEX_SUFFIX));
+        return table;
+    }
+
+    /**
+     * Reads the values of one variable of one unit straight from a SWAT output file, in a single pass and
+     * without converting it.
+     *
+     * @param startYear first year printed, {@code IYR + NYSKIP} of {@code file.cio}
+     * @param printMode {@link #MONTHLY}, {@link #DAILY} or {@link #YEARLY}
+     * @return number of values passed to {@code sink}
+     * @throws IOException if the file can't be read or has no such variable
+     */
+    static int stream(Kind kind, File text, int startYear, int printMode, int unit, String variable,
+                      ValueSink sink) throws IOException {
+        Tokens tokens = new Tokens();
+        Steps steps = new Steps(startYear, printMode);
+        int count = 0;
+        try (BufferedReader in = open(text)) {
+            Layout layout = Layout.read(kind, in, tokens);
+            int column = Arrays.asList(layout.variables).indexOf(variable);
+            if (column < 0) {
+                throw new IOException("No variable " + variable + " in " + text.getName() + ", found "
+                                              + Arrays.toString(layout.variables));
+            }
+            column += layout.monColumn + 1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!layout.parse(line, tokens)) {
+                    continue;
+                }
+                int lineUnit = tokens.getInt(line, 0);
+                if (steps.record(lineUnit, line, tokens, layout.monColumn, false) < 0 || lineUnit != unit) {
+                    continue;
+                }
+                sink.value(steps.year, steps.period,
+                           column < tokens.count ? tokens.getFloat(line, column) : Float.NaN);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the first year SWAT prints output for, {@code IYR + NYSKIP}
+     */
+    static int getFirstYear(SwatFileCio fileCio) {
+        Integer startYear = fileCio.getInt("IYR");
+        Integer skipped = fileCio.getInt("NYSKIP");
+        return (startYear != null ? startYear : 1) + (skipped != null ? skipped : 0);
+    }
+
+    /**
+     * @return the print frequency of the model, {@link #MONTHLY} if not set
+     */
+    static int getPrintMode(SwatFileCio fileCio) {
+        Integer printMode = fileCio.getInt("IPRINT");
+        return printMode != null ? printMode : MONTHLY;
+    }
+
+    /**
+     * Opens the table of output file {@code name} in {@code dir}.
+     *
+     * @return the table or null if the store has no such table
+     */
+    static SwatOutputTable open(File dir, String name) throws IOException {
+        File index = new File(dir, name + INDEX_SUFFIX);
+        if (!index.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown format of " + index);
+            }
+            String[] variables = new String[in.readInt()];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = in.readUTF();
+            }
+            int[] units = readInts(in);
+            int[] years = readInts(in);
+            int[] periods = readInts(in);
+            return new SwatOutputTable(new File(dir, name + DATA_SUFFIX), variables, units, years, periods);
+        }
+    }
+
+    private void writeIndex(File index) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(this.variables.length);
+            for (String variable : this.variables) {
+                out.writeUTF(variable);
+            }
+            writeInts(out, this.units);
+            writeInts(out, this.years);
+            writeInts(out, this.periods);
+        }
+    }
+
+    String[] getVariables() {
+        return this.variables.clone();
+    }
+
+    int[] getUnits() {
+        return this.units.clone();
+    }
+
+    int getStepCount() {
+        return this.years.length;
+    }
+
+    /**
+     * Writes the values of {@code variables} of {@code units} in the years {@code fromYear} to
+     * {@code toYear} as CSV with the columns {@code unit,year,period} and one column per variable.
+     *
+     * @param units     unit ids, all units if empty
+     * @param variables variable names, all variables if empty
+     * @param fromYear  first year, null for the first one of the run
+     * @param toYear    last year, null for the last one of the run
+     * @return number of rows written
+     * @throws IllegalArgumentException for unknown units or variables
+     */
+    int query(int[] units, List<String> variables, Integer fromYear, Integer toYear, Writer out)
+            throws IOException {
+        int[] unitIndexes = new int[units.length == 0 ? this.units.length : units.length];
+        for (int i = 0; i < unitIndexes.length; i++) {
+            unitIndexes[i] = units.length == 0 ? i : indexOfUnit(units[i]);
+        }
+        List<String> columns = variables.isEmpty() ? Arrays.asList(this.variables) : variables;
+        int[] variableIndexes = new int[columns.size()];
+        for (int i = 0; i < variableIndexes.length; i++) {
+            variableIndexes[i] = Arrays.asList(this.variables).indexOf(columns.get(i));
+            if (variableIndexes[i] < 0) {
+                throw new IllegalArgumentException("Unknown variable '" + columns.get(i) + "', known are "
+                                                           + Arrays.toString(this.variables));
+            }
+        }
+        int first = 0;
+        while (first < this.years.length && fromYear != null && this.years[first] < fromYear) {
+            first++;
+        }
+        int last = first;
+        while (last < this.years.length && (toYear == null || this.years[last] <= toYear)) {
+            last++;
+        }
+
+        StringBuilder row = new StringBuilder(256);
+        row.append("unit,year,period");
+        for (String column : columns) {
+            row.append(',').append(column);
+        }
+        out.append(row).append('\n');
+        if (first == last) {
+            return 0;
+        }
+
+        int steps = this.years.length;
+        long variableBytes = (long) this.units.length * steps * 4;
+        int rows = 0;
+        try (RandomAccessFile data = new RandomAccessFile(this.dataFile, "r")) {
+            FileChannel channel = data.getChannel();
+            // one mapping per variable, a mapping per unit and variable could exceed the mappings allowed
+            // per process for output.hru
+            MappedByteBuffer[] columnData = new MappedByteBuffer[variableIndexes.length];
+            for (int i = 0; i < variableIndexes.length; i++) {
+                columnData[i] = channel.map(FileChannel.MapMode.READ_ONLY, variableIndexes[i] * variableBytes,
+                                            variableBytes);
+            }
+            for (int unitIndex : unitIndexes) {
+                for (int step = first; step < last; step++) {
+                    row.setLength(0);
+                    row.append(this.units[unitIndex]).append(',').append(this.years[step]).append(',')
+                       .append(this.periods[step]);
+                    int offset = (unitIndex * steps + step) * 4;
+                    for (MappedByteBuffer column : columnData) {
+                        row.append(',').append(column.getFloat(offset));
+                    }
+                    out.append(row).append('\n');
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private int indexOfUnit(int unit) {
+        int index = Arrays.binarySearch(this.units, unit);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown unit " + unit);
+        }
+        return index;
+    }
+
+    private static BufferedReader open(File text) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(text), StandardCharsets.ISO_8859_1),
+                                  1 << 16);
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Receives the values read by {@link #stream}.
+     */
+    interface ValueSink {
+
+        /**
+         * @param period day of the year, month or 0 for yearly output
+         */
+        void value(int year, int period, float value);
+    }
+
+    /**
+     * Columns of an output file, derived from its header and first data lines.
+     * <p/>
+     * SWAT writes fixed width fields that are not necessarily separated by blanks, a value using the full
+     * width of its field touches the one before. Data lines are therefore sliced at the positions where
+     * the fields end rather than split at blanks.
+     */
+    private static final class Layout {
+        /**
+         * Number of data lines the field ends are taken from.
+         */
+        private static final int SAMPLE_LINES = 100;
+        private static final int READ_AHEAD = 1 << 20;
+
+        private final int prefixLength;
+        private final int monColumn;
+        private final String[] variables;
+        private final int[] ends;
+
+        private Layout(int prefixLength, int monColumn, String[] variables, int[] ends) {
+            this.prefixLength = prefixLength;
+            this.monColumn = monColumn;
+            this.variables = variables;
+            this.ends = ends;
+        }
+
+        /**
+         * Reads up to the header, the reader is left at the first data line.
+         */
+        static Layout read(Kind kind, BufferedReader in, Tokens tokens) throws IOException {
+            String header;
+            int mon = -1;
+            do {
+                header = in.readLine();
+                if (header == null) {
+                    throw new IOException("No header found in " + kind.getFileName());
+                }
+                tokens.split(header, 0);
+                for (int i = 0; i < tokens.count && mon < 0; i++) {
+                    if (tokens.equals(header, i, "MON")) {
+                        mon = i;
+                    }
+                }
+            } while (mon < 0);
+            int[] nameStarts = Arrays.copyOf(tokens.starts, tokens.count);
+            int[] nameEnds = Arrays.copyOf(tokens.ends, tokens.count);
+            int monColumn = kind.prefixInHeader ? mon - 1 : mon;
+
+            int[] ends = readEnds(kind, in, tokens);
+
+            // header names are right aligned to their values but may contain blanks ("TOT Nkg"), so
+            // every name ends at most one character after the end of its value
+            List<String> variables = new ArrayList<>();
+            int name = mon + 1;
+            for (int column = monColumn + 1; column < ends.length; column++) {
+                int valueEnd = ends[column] + 1;
+                StringBuilder variable = new StringBuilder();
+                while (name < nameEnds.length && nameEnds[name] <= valueEnd) {
+                    if (variable.length() > 0) {
+                        variable.append(' ');
+                    }
+                    variable.append(header, nameStarts[name], nameEnds[name]);
+                    name++;
+                }
+                variables.add(variable.length() > 0 ? variable.toString() : "COLUMN" + (column - monColumn));
+            }
+            return new Layout(kind.prefixLength, monColumn, variables.toArray(new String[variables.size()]), ends);
+        }
+
+        /**
+         * Collects the ends of the fields from the first data lines. Numbers are right aligned, so every
+         * blank separated value ends where its field ends; a full width value merged with the one before
+         * it hides only one end, which the other lines provide. The reader is reset to where it was.
+         */
+        private static int[] readEnds(Kind kind, BufferedReader in, Tokens tokens) throws IOException {
+            in.mark(READ_AHEAD);
+            BitSet ends = new BitSet();
+            int read = 0;
+            int lines = 0;
+            String line;
+            while (lines < SAMPLE_LINES && (line = in.readLine()) != null) {
+                read += line.length() + 2;
+                if (read > READ_AHEAD) {
+                    break;
+                }
+                if (line.length() <= kind.prefixLength) {
+                    continue;
+                }
+                tokens.split(line, kind.prefixLength);
+                if (tokens.count == 0 || !tokens.isInt(line, 0)) {
+                    continue;
+                }
+                for (int i = 0; i < tokens.count; i++) {
+                    ends.set(tokens.ends[i]);
+                }
+                lines++;
+            }
+            in.reset();
+            if (lines == 0) {
+                throw new IOException("No data in " + kind.getFileName());
+            }
+            int[] result = new int[ends.cardinality()];
+            for (int i = 0, end = ends.nextSetBit(0); end >= 0; i++, end = ends.nextSetBit(end + 1)) {
+                result[i] = end;
+            }
+            return result;
+        }
+
+        /**
+         * Splits a data line.
+         *
+         * @return false if {@code line} is no data line
+         */
+        boolean parse(String line, Tokens tokens) {
+            if (line.length() <= this.prefixLength) {
+                return false;
+            }
+            tokens.slice(line, this.prefixLength, this.ends);
+            return tokens.isInt(line, 0);
+        }
+    }
+
+    /**
+     * Assigns records to time steps.
+     * <p/>
+     * The {@code MON} column holds the day of the year (daily output), the month (monthly output) or the
+     * year (yearly output). Summaries, i.e. yearly records in daily and monthly output and the average
+     * over all years at the end, are skipped.
+     */
+    private static final class Steps {
+        private final int printMode;
+        private int year;
+        private int period = Integer.MAX_VALUE;
+        private int firstUnit = Integer.MIN_VALUE;
+        private int count = 0;
+        private int[] years = new int[64];
+        private int[] periods = new int[64];
+
+        Steps(int startYear, int printMode) {
+            this.year = startYear;
+            this.printMode = printMode;
+        }
+
+        /**
+         * @return time step of the record or -1 for summaries
+         */
+        int record(int unit, String line, Tokens tokens, int monColumn, boolean collect) {
+            if (!tokens.isInt(line, monColumn)) {
+                // average over all years
+                return -1;
+            }
+            int mon = tokens.getInt(line, monColumn);
+            int period;
+            if (this.printMode == YEARLY) {
+                period = 0;
+            }
+            else if (mon > (this.printMode == DAILY ? 366 : 12)) {
+                // yearly summary, the next record starts the following year
+                this.year = mon + 1;
+                this.period = 0;
+                return -1;
+            }
+            else {
+                period = mon;
+            }
+
+            if (this.firstUnit == Integer.MIN_VALUE) {
+                this.firstUnit = unit;
+            }
+            else if (unit != this.firstUnit) {
+                return this.count - 1;
+            }
+            if (this.printMode == YEARLY) {
+                this.year = mon;
+            }
+            else if (period < this.period && this.period != Integer.MAX_VALUE && this.period != 0) {
+                this.year++;
+            }
+            this.period = period;
+            if (collect && this.count == this.years.length) {
+                this.years = Arrays.copyOf(this.years, this.count * 2);
+                this.periods = Arrays.copyOf(this.periods, this.count * 2);
+            }
+            if (collect) {
+                this.years[this.count] = this.year;
+                this.periods[this.count] = period;
+            }
+            return this.count++;
+        }
+    }
+
+    /**
+     * Tokens of a line, as positions to avoid a String per value.
+     */
+    private static final class Tokens {
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private int count;
+
+        void split(String line, int from) {
+            this.count = 0;
+            int length = line.length();
+            int i = from;
+            while (i < length) {
+                while (i < length && line.charAt(i) <= ' ') {
+                    i++;
+                }
+                if (i == length) {
+                    break;
+                }
+                int start = i;
+                while (i < length && line.charAt(i) > ' ') {
+                    i++;
+                }
+                if (this.count == this.starts.length) {
+                    this.starts = Arrays.copyOf(this.starts, this.count * 2);
+                    this.ends = Arrays.copyOf(this.ends, this.count * 2);
+                }
+                this.starts[this.count] = start;
+                this.ends[this.count] = i;
+                this.count++;
+            }
+        }
+
+        /**
+         * Slices {@code line} into the fixed width fields ending at {@code ends}, without their blanks.
+         * Fields beyond the end of the line are empty.
+         */
+        void slice(String line, int from, int[] ends) {
+            if (this.starts.length < ends.length) {
+                this.starts = new int[ends.length];
+                this.ends = new int[ends.length];
+            }
+            int length = line.length();
+            int start = Math.min(from, length);
+            for (int i = 0; i < ends.length; i++) {
+                int end = Math.min(ends[i], length);
+                int s = start;
+                int e = end;
+                while (s < e && line.charAt(s) <= ' ') {
+                    s++;
+                }
+                while (e > s && line.charAt(e - 1) <= ' ') {
+                    e--;
+                }
+                this.starts[i] = s;
+                this.ends[i] = e;
+                start = end;
+            }
+            this.count = ends.length;
+        }
+
+        boolean equals(String line, int token, String value) {
+            return this.ends[token] - this.starts[token] == value.length()
+                    && line.startsWith(value, this.starts[token]);
+        }
+
+        boolean isInt(String line, int token) {
+            if (this.starts[token] == this.ends[token]) {
+                return false;
+            }
+            for (int i = this.starts[token]; i < this.ends[token]; i++) {
+                if (line.charAt(i) < '0' || line.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int getInt(String line, int token) {
+            int value = 0;
+            for (int i = this.starts[token]; i < this.ends[token]; i++) {
+                value = value * 10 + (line.charAt(i) - '0');
+            }
+            return value;
+        }
+
+        float getFloat(String line, int token) {
+            return parseFloat(line, this.starts[token], this.ends[token]);
+        }
+    }
+
+    /**
+     * Parses the numbers SWAT prints ({@code Fw.d} and {@code Ew.d}) without creating a String.
+     *
+     * @return the value or NaN if it can't be parsed, e.g. for an overflow ({@code ******})
+     */
+    static float parseFloat(String s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (mantissa < Long.MAX_VALUE / 10 - 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                }
+                else if (!fraction) {
+                    exponent++;
+                }
+                digits++;
+            }
+            else if (c == '.' && !fraction) {
+                fraction = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            return Float.NaN;
+        }
+        if (i < end) {
+            char c = s.charAt(i);
+            if (c != 'E' && c != 'e' && c != 'D' && c != 'd') {
+                return Float.NaN;
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+                negativeExponent = s.charAt(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return Float.NaN;
+            }
+            int value = 0;
+            for (; i < end; i++) {
+                c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return Float.NaN;
+                }
+                value = value * 10 + (c - '0');
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        double result = exponent >= 0 ? mantissa * Math.pow(10, exponent) : mantissa / Math.pow(10, -exponent);
+        return (float) (negative ? -result : result);
+    }
+}
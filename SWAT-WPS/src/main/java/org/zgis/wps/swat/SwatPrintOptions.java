@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * What a SWAT run prints, set by the client instead of the model's {@code file.cio}.
+ * <p/>
+ * SWAT spends much of a run writing text output. These options rewrite the print settings of the run's
+ * {@code file.cio} before SWAT starts: the print frequency, the variables of {@code output.rch},
+ * {@code output.sub} and {@code output.hru} and the HRUs printed. Output files that are not requested are
+ * reduced to a single variable (and a single HRU) and are not returned.
+ */
+final class SwatPrintOptions {
+
+    static final String REACH_VARIABLES = "Reach output variables";
+    static final String SUBBASIN_VARIABLES = "Subbasin output variables";
+    static final String HRU_VARIABLES = "HRU output variables";
+    static final String HRU_IDS = "HRU data to be printed";
+
+    static final String MODEL = "model";
+
+    private static final int[] NONE = new int[0];
+    private static final int[] MINIMAL = {1};
+
+    private final Integer printCode;
+    private final Set<String> outputFiles;
+    private final int[] reachVariables;
+    private final int[] subbasinVariables;
+    private final int[] hruVariables;
+    private final int[] hruIds;
+
+    /**
+     * @param printFrequency {@code daily}, {@code monthly}, {@code yearly} or null/{@value #MODEL} to
+     *                       keep the frequency of the model
+     * @param outputFiles    names of the output files returned, all {@code output.*} files if null or empty
+     * @param reachVariables codes of the variables printed to {@code output.rch}, as set by the model if
+     *                       null or empty; likewise for the other lists
+     * @throws IOException for invalid options
+     */
+    SwatPrintOptions(String printFrequency, List<String> outputFiles, List<Integer> reachVariables,
+                     List<Integer> subbasinVariables, List<Integer> hruVariables, List<Integer> hruIds)
+            throws IOException {
+        try {
+            this.printCode = parsePrintFrequency(printFrequency);
+            this.reachVariables = toCodes(reachVariables, "reach variable");
+            this.subbasinVariables = toCodes(subbasinVariables, "subbasin variable");
+            this.hruVariables = toCodes(hruVariables, "HRU variable");
+            this.hruIds = toCodes(hruIds, "HRU id");
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        this.outputFiles = outputFiles == null || outputFiles.isEmpty() ? null : new TreeSet<>(outputFiles);
+    }
+
+    /**
+     * @return the {@code IPRINT} code for {@code printFrequency} or null to keep the model's
+     */
+    static Integer parsePrintFrequency(String printFrequency) {
+        if (printFrequency == null || MODEL.equals(printFrequency)) {
+            return null;
+        }
+        switch (printFrequency.toLowerCase(Locale.ROOT)) {
+            case "monthly":
+                return SwatOutputTable.MONTHLY;
+            case "daily":
+                return SwatOutputTable.DAILY;
+            case "yearly":
+                return SwatOutputTable.YEARLY;
+            default:
+                throw new IllegalArgumentException("Invalid print frequency: " + printFrequency);
+        }
+    }
+
+    private static int[] toCodes(List<Integer> values, String name) {
+        if (values == null || values.isEmpty()) {
+            return NONE;
+        }
+        int[] codes = new int[values.size()];
+        for (int i = 0; i < codes.length; i++) {
+            if (values.get(i) == null || values.get(i) < 1) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + values.get(i));
+            }
+            codes[i] = values.get(i);
+        }
+        return codes;
+    }
+
+    /**
+     * @return true if the model's {@code file.cio} is used as is
+     */
+    boolean isDefault() {
+        return this.printCode == null && this.outputFiles == null && this.reachVariables.length == 0
+                && this.subbasinVariables.length == 0 && this.hruVariables.length == 0 && this.hruIds.length == 0;
+    }
+
+    /**
+     * @return the options as part of a result cache key
+     */
+    String toKey() {
+        if (isDefault()) {
+            return MODEL;
+        }
+        return "print=" + this.printCode + ";files=" + this.outputFiles
+                + ";rch=" + Arrays.toString(this.reachVariables) + ";sub=" + Arrays.toString(this.subbasinVariables)
+                + ";hru=" + Arrays.toString(this.hruVariables) + ";hruIds=" + Arrays.toString(this.hruIds);
+    }
+
+    /**
+     * @return true if the output file {@code name} is returned to the client
+     */
+    boolean includes(String name) {
+        return this.outputFiles == null || this.outputFiles.contains(name);
+    }
+
+    /**
+     * @return true if {@code file} is returned to the client
+     */
+    boolean includes(File file) {
+        return includes(file.getName());
+    }
+
+    /**
+     * Applies the options to {@code fileCio}.
+     *
+     * @throws IOException if the file has no such settings or takes fewer codes
+     */
+    void apply(SwatFileCio fileCio) throws IOException {
+        try {
+            if (this.printCode != null) {
+                fileCio.setInt("IPRINT", this.printCode);
+            }
+            setCodes(fileCio, REACH_VARIABLES, this.reachVariables, "output.rch");
+            setCodes(fileCio, SUBBASIN_VARIABLES, this.subbasinVariables, "output.sub");
+            setCodes(fileCio, HRU_VARIABLES, this.hruVariables, "output.hru");
+            setCodes(fileCio, HRU_IDS, this.hruIds, "output.hru");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Can't set the print options: " + e.getMessage(), e);
+        }
+    }
+
+    private void setCodes(SwatFileCio fileCio, String section, int[] codes, String outputFile) {
+        if (!includes(outputFile)) {
+            fileCio.setCodes(section, MINIMAL);
+        }
+        else if (codes.length > 0) {
+            fileCio.setCodes(section, codes);
+        }
+    }
+}
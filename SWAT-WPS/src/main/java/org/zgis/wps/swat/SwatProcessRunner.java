@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the SWAT executable in a prepared model directory.
+ * <p/>
+ * The process is started once the {@link SwatProcessScheduler} grants a slot. Its console output is
+ * captured by a {@link SwatConsoleCapture} and parsed for progress on a reader thread, while the calling
+ * thread waits. A process still running when the calling thread is interrupted is killed.
+ */
+final class SwatProcessRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatProcessRunner.class);
+
+    /**
+     * Receives the progress of a run.
+     */
+    interface ProgressListener {
+
+        /**
+         * @param completed fraction of the simulation period completed, in [0, 1)
+         */
+        void progress(double completed);
+    }
+
+    /**
+     * How often CPU time and memory of the process are sampled.
+     */
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Reads the console output of the running processes, at most one thread per scheduler slot.
+     */
+    private static final ExecutorService readers = Executors.newCachedThreadPool(
+            new NamedThreadFactory("swat-console"));
+
+    private final File executable;
+
+    SwatProcessRunner(File executable) {
+        this.executable = executable;
+    }
+
+    /**
+     * Runs SWAT in {@code modelDir} and waits for it to finish.
+     *
+     * @param logDir   directory the complete console output is written to
+     * @param listener receives the progress or null
+     * @return the exit value and console output of SWAT
+     */
+    Result run(final File modelDir, final File logDir, final ProgressListener listener)
+            throws IOException, InterruptedException {
+        final long queued = System.nanoTime();
+        // waits here while the server runs as many SWAT processes as it may
+        try (SwatProcessScheduler.Slot slot = SwatProcessScheduler.getInstance().acquire()) {
+            final long started = System.nanoTime();
+            ProcessBuilder pb = new ProcessBuilder(slot.command(this.executable.getAbsolutePath()));
+            pb.redirectErrorStream(true);
+            pb.directory(modelDir);
+            final Process process = pb.start();
+            logger.info(String.format("Output of running %s in %s is:\n",
+                                      Arrays.toString(pb.command().toArray()), modelDir));
+            try {
+                // reading the output blocks uninterruptibly, so it is read by another thread and this
+                // thread waits for it, ready to be interrupted
+                Future<Result> output = readers.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws IOException, InterruptedException {
+                        return readOutput(process, modelDir, logDir, listener, queued, started);
+                    }
+                });
+                try {
+                    return output.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException("Could not read the output of SWAT", cause);
+                }
+            } finally {
+                // only if reading the output failed or the thread was interrupted; the reader then sees the
+                // end of the output and finishes
+                process.destroy();
+            }
+        }
+    }
+
+    private Result readOutput(Process process, File modelDir, File logDir, ProgressListener listener, long queued,
+                              long started) throws IOException, InterruptedException {
+        ProcessStats stats = ProcessStats.of(process);
+        long nextSample = System.nanoTime() + STATS_INTERVAL_NANOS;
+        SwatProgressParser progress = SwatProgressParser.forModel(modelDir);
+        try (SwatConsoleCapture console = SwatConsoleCapture.create(logDir);
+             BufferedReader br = new BufferedReader(
+                     new InputStreamReader(process.getInputStream(), SwatConsoleCapture.CHARSET))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                console.append(line);
+                double completed = progress.parse(line);
+                if (completed >= 0 && listener != null) {
+                    listener.progress(completed);
+                }
+                if (stats != null && System.nanoTime() - nextSample >= 0) {
+                    stats.sample();
+                    nextSample = System.nanoTime() + STATS_INTERVAL_NANOS;
+                }
+            }
+            // the output is closed, the process is exiting but not reaped yet
+            if (stats != null) {
+                stats.sample();
+            }
+            int exitValue = process.waitFor();
+            long finished = System.nanoTime();
+            logger.info("SWAT printed " + console.getLineCount() + " lines to " + console.getLogFile());
+            return new Result(exitValue, console.getSummary(), TimeUnit.NANOSECONDS.toMillis(started - queued),
+                              TimeUnit.NANOSECONDS.toMillis(finished - started),
+                              stats != null ? stats.getCpuMillis() : -1,
+                              stats != null ? stats.getPeakRssKb() : -1);
+        }
+    }
+
+    /**
+     * Outcome of a SWAT run.
+     */
+    static final class Result {
+        private final int exitValue;
+        private final String consoleOutput;
+        private final long queueMillis;
+        private final long wallMillis;
+        private final long cpuMillis;
+        private final long peakRssKb;
+
+        private Result(int exitValue, String consoleOutput, long queueMillis, long wallMillis, long cpuMillis,
+                       long peakRssKb) {
+            this.exitValue = exitValue;
+            this.consoleOutput = consoleOutput;
+            this.queueMillis = queueMillis;
+            this.wallMillis = wallMillis;
+            this.cpuMillis = cpuMillis;
+            this.peakRssKb = peakRssKb;
+        }
+
+        int getExitValue() {
+            return this.exitValue;
+        }
+
+        /**
+         * @return head and tail of the console output, see {@link SwatConsoleCapture#getSummary()}
+         */
+        String getConsoleOutput() {
+            return this.consoleOutput;
+        }
+
+        /**
+         * @return milliseconds waited for the {@link SwatProcessScheduler}
+         */
+        long getQueueMillis() {
+            return this.queueMillis;
+        }
+
+        /**
+         * @return milliseconds from the start of the process to its end
+         */
+        long getWallMillis() {
+            return this.wallMillis;
+        }
+
+        /**
+         * @return CPU time of the process in milliseconds, -1 if unknown, see {@link ProcessStats}
+         */
+        long getCpuMillis() {
+            return this.cpuMillis;
+        }
+
+        /**
+         * @return peak resident set size of the process in KiB, -1 if unknown
+         */
+        long getPeakRssKb() {
+            return this.peakRssKb;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of concurrently running SWAT processes of this server.
+ * <p/>
+ * SWAT is single threaded and disk heavy; more processes than cores only make every run slower. A run
+ * takes a slot before it starts SWAT and waits in a fair (first come, first served) queue while all
+ * {@code swat.scheduler.max.processes} slots are taken. A request is rejected right away if
+ * {@code swat.scheduler.queue.size} requests are waiting already, and fails if it waited longer than
+ * {@code swat.scheduler.max.wait.seconds}. With {@code swat.scheduler.cpu.pinning} every process is bound
+ * to its own core with {@code taskset} (Linux only), out of the CPUs the server process may use; pinning
+ * is turned off if there are fewer of those than {@code swat.scheduler.max.processes}.
+ * <p/>
+ * Queue depth and wait times are published via JMX as {@value #OBJECT_NAME}.
+ */
+final class SwatProcessScheduler implements SwatProcessSchedulerMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatProcessScheduler.class);
+
+    static final String OBJECT_NAME = "org.zgis.wps.swat:type=ProcessScheduler";
+
+    private static SwatProcessScheduler instance;
+
+    private final int maxProcesses;
+    private final int queueCapacity;
+    private final long maxWaitMillis;
+    private final String taskset;
+    private final int[] cpus;
+    private final Semaphore slots;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong longestWaitMillis = new AtomicLong();
+
+    /**
+     * Indexes into {@link #cpus} taken by running processes, guarded by {@code this}.
+     */
+    private final BitSet usedCpus = new BitSet();
+
+    /**
+     * @param maxWaitMillis longest time a request waits for a slot, 0 to wait as long as it takes
+     * @param taskset       path of the {@code taskset} command to pin processes with or null
+     */
+    SwatProcessScheduler(int maxProcesses, int queueCapacity, long maxWaitMillis, String taskset) {
+        this(maxProcesses, queueCapacity, maxWaitMillis, taskset, taskset != null ? allowedCpus() : null);
+    }
+
+    /**
+     * @param cpus numbers of the CPUs processes are pinned to, at least {@code maxProcesses} if
+     *             {@code taskset} is given
+     */
+    SwatProcessScheduler(int maxProcesses, int queueCapacity, long maxWaitMillis, String taskset, int[] cpus) {
+        if (taskset != null && cpus.length < maxProcesses) {
+            throw new IllegalArgumentException("Cannot pin " + maxProcesses + " processes to " + cpus.length
+                                                       + " CPUs");
+        }
+        this.maxProcesses = maxProcesses;
+        this.queueCapacity = queueCapacity;
+        this.maxWaitMillis = maxWaitMillis;
+        this.taskset = taskset;
+        this.cpus = cpus;
+        this.slots = new Semaphore(maxProcesses, true);
+    }
+
+    /**
+     * @return the shared scheduler, configured from {@link SwatConfiguration}
+     */
+    static synchronized SwatProcessScheduler getInstance() {
+        if (instance == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            int maxProcesses = Math.max(1, SwatConfiguration.getInt("scheduler.max.processes", cores));
+            String taskset = null;
+            int[] cpus = null;
+            if (SwatConfiguration.getBoolean("scheduler.cpu.pinning", false)) {
+                taskset = findTaskset();
+                cpus = allowedCpus();
+                if (taskset == null) {
+                    logger.warn("CPU pinning requested, but taskset was not found, processes are not pinned");
+                }
+                else if (cpus.length < maxProcesses) {
+                    logger.warn("CPU pinning requested, but " + maxProcesses + " processes may run on "
+                                        + cpus.length + " CPUs, processes are not pinned");
+                    taskset = null;
+                }
+            }
+            instance = new SwatProcessScheduler(
+                    maxProcesses,
+                    Math.max(0, SwatConfiguration.getInt("scheduler.queue.size", 4 * cores)),
+                    SwatConfiguration.getLong("scheduler.max.wait.seconds", 0) * 1000,
+                    taskset, cpus);
+            SwatJmx.register(instance, OBJECT_NAME);
+        }
+        return instance;
+    }
+
+    private static String findTaskset() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String dir : path.split(File.pathSeparator)) {
+            File file = new File(dir, "taskset");
+            if (file.isFile() && file.canExecute()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the CPUs this process may run on, from {@code Cpus_allowed_list} in {@code /proc/self/status}
+     * (e.g. restricted by a cpuset or container), all CPUs if that can't be read
+     */
+    static int[] allowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring(line.indexOf(':') + 1));
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            logger.debug("Could not read the allowed CPUs", e);
+        }
+        int[] all = new int[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * @param list CPU list as used by Linux, e.g. {@code 0-3,8,10-11}
+     */
+    static int[] parseCpuList(String list) {
+        BitSet cpus = new BitSet();
+        for (String range : list.trim().split(",")) {
+            int dash = range.indexOf('-');
+            try {
+                if (dash < 0) {
+                    cpus.set(Integer.parseInt(range.trim()));
+                }
+                else {
+                    cpus.set(Integer.parseInt(range.substring(0, dash).trim()),
+                             Integer.parseInt(range.substring(dash + 1).trim()) + 1);
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid CPU list: " + list, e);
+            }
+        }
+        int[] result = new int[cpus.cardinality()];
+        for (int i = 0, cpu = cpus.nextSetBit(0); cpu >= 0; i++, cpu = cpus.nextSetBit(cpu + 1)) {
+            result[i] = cpu;
+        }
+        return result;
+    }
+
+    /**
+     * Waits for a free slot. The slot must be closed when the process has finished.
+     *
+     * @throws IOException if the queue is full or the request waited too long
+     */
+    Slot acquire() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        // unlike tryAcquire(), a timed tryAcquire does not barge ahead of the runs waiting already
+        if (!this.slots.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+            int waiting = this.queued.incrementAndGet();
+            try {
+                if (waiting > this.queueCapacity) {
+                    this.rejected.incrementAndGet();
+                    throw new IOException("Too many SWAT runs waiting (" + (waiting - 1) + "), try again later");
+                }
+                logger.info("Waiting for a SWAT slot, " + waiting + " runs waiting, "
+                                    + this.maxProcesses + " running");
+                if (this.maxWaitMillis > 0) {
+                    if (!this.slots.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                        this.timedOut.incrementAndGet();
+                        throw new IOException("No SWAT slot became free within " + this.maxWaitMillis + " ms");
+                    }
+                }
+                else {
+                    this.slots.acquire();
+                }
+            } finally {
+                this.queued.decrementAndGet();
+            }
+        }
+        long waited = System.currentTimeMillis() - start;
+        this.started.incrementAndGet();
+        this.totalWaitMillis.addAndGet(waited);
+        long longest;
+        do {
+            longest = this.longestWaitMillis.get();
+        } while (waited > longest && !this.longestWaitMillis.compareAndSet(longest, waited));
+        if (waited > 0) {
+            logger.info("Got a SWAT slot after " + waited + " ms");
+        }
+        return new Slot(this.taskset != null ? takeCpu() : -1);
+    }
+
+    /**
+     * @return index of a CPU no other process is pinned to; there is one as long as the slots are limited
+     * to the number of CPUs
+     */
+    private synchronized int takeCpu() {
+        int index = this.usedCpus.nextClearBit(0);
+        this.usedCpus.set(index);
+        return index;
+    }
+
+    private synchronized void releaseCpu(int index) {
+        this.usedCpus.clear(index);
+    }
+
+    @Override
+    public int getMaxProcesses() {
+        return this.maxProcesses;
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    @Override
+    public int getRunningProcesses() {
+        return this.maxProcesses - this.slots.availablePermits();
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        return this.queued.get();
+    }
+
+    @Override
+    public long getStartedProcesses() {
+        return this.started.get();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return this.rejected.get();
+    }
+
+    @Override
+    public long getTimedOutRequests() {
+        return this.timedOut.get();
+    }
+
+    @Override
+    public double getAverageWaitMillis() {
+        long count = this.started.get();
+        return count == 0 ? 0 : (double) this.totalWaitMillis.get() / count;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return this.longestWaitMillis.get();
+    }
+
+    @Override
+    public boolean isCpuPinning() {
+        return this.taskset != null;
+    }
+
+    /**
+     * The right to run one SWAT process.
+     */
+    final class Slot implements Closeable {
+        private final int cpuIndex;
+        private boolean closed = false;
+
+        private Slot(int cpuIndex) {
+            this.cpuIndex = cpuIndex;
+        }
+
+        /**
+         * @return the command line to start {@code executable} with, pinned to the CPU of this slot if
+         * pinning is enabled
+         */
+        List<String> command(String executable) {
+            List<String> command = new ArrayList<>();
+            if (this.cpuIndex >= 0) {
+                command.add(SwatProcessScheduler.this.taskset);
+                command.add("-c");
+                command.add(Integer.toString(SwatProcessScheduler.this.cpus[this.cpuIndex]));
+            }
+            command.add(executable);
+            return command;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                if (this.cpuIndex >= 0) {
+                    releaseCpu(this.cpuIndex);
+                }
+                SwatProcessScheduler.this.slots.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Derives the progress of a SWAT run from the {@code Executing year} lines SWAT prints for every
+ * simulated year. Depending on the SWAT revision the line holds the year counter (1..NBYR) or the
+ * calendar year (IYR..IYR+NBYR-1), both are understood.
+ */
+final class SwatProgressParser {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatProgressParser.class);
+
+    // at most 9 digits, so the year always fits an int
+    private static final Pattern YEAR_LINE = Pattern.compile("^\\s*Executing year\\s+(\\d{1,9})\\b",
+                                                             Pattern.CASE_INSENSITIVE);
+
+    private final int firstYear;
+    private final int years;
+
+    SwatProgressParser(int firstYear, int years) {
+        this.firstYear = firstYear;
+        this.years = years;
+    }
+
+    /**
+     * Creates a parser for the simulation period in the model's {@code file.cio}. If the period can't
+     * be read, the parser never reports progress.
+     */
+    static SwatProgressParser forModel(File modelDir) {
+        try {
+            SwatFileCio cio = SwatFileCio.read(modelDir);
+            Integer years = cio.getInt("NBYR");
+            Integer firstYear = cio.getInt("IYR");
+            if (years != null && years > 0) {
+                return new SwatProgressParser(firstYear == null ? 0 : firstYear, years);
+            }
+            logger.warn("No NBYR in " + SwatFileCio.FILE_NAME + ", progress will not be reported");
+        } catch (IOException e) {
+            logger.warn("Could not read " + SwatFileCio.FILE_NAME + ", progress will not be reported", e);
+        }
+        return new SwatProgressParser(0, 0);
+    }
+
+    /**
+     * @return the fraction of the simulation period completed when this line is printed, in [0, 1), or
+     * -1 if the line is no progress line
+     */
+    double parse(String line) {
+        if (this.years <= 0) {
+            return -1;
+        }
+        Matcher matcher = YEAR_LINE.matcher(line);
+        if (!matcher.find()) {
+            return -1;
+        }
+        int year = Integer.parseInt(matcher.group(1));
+        if (year > this.years && this.firstYear > 0) {
+            year = year - this.firstYear + 1;
+        }
+        if (year < 1) {
+            return -1;
+        }
+        return Math.min(year - 1, this.years) / (double) this.years;
+    }
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * On-disk cache of SWAT run results.
+ * <p/>
+ * A result is keyed by everything that determines it, i.e. the hash of the model, the checksum of the
+ * SWAT executable and the options of the run (see {@link #key(String...)}). Results are dropped when
+ * they have not been used for {@code swat.result.cache.max.age.hours} or, least recently used first,
+ * when the cache grows beyond {@code swat.result.cache.max.bytes}.
+ */
+final class SwatResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatResultCache.class);
+
+    /**
+     * Bump this whenever the content of cached results changes.
+     */
+    private static final String KEY_VERSION = "swat-result-1";
+
+    private static final String OUTPUT_FILE = "swat_output.zip";
+    private static final String CONSOLE_FILE = "console.txt";
+
+    private static SwatResultCache instance;
+
+    private final DirectoryCache cache;
+
+    SwatResultCache(File root, long maxBytes, long maxAgeMillis) throws IOException {
+        this.cache = new DirectoryCache("result cache", root, maxBytes, maxAgeMillis);
+    }
+
+    /**
+     * @return the shared cache, configured from {@link SwatConfiguration}
+     */
+    static synchronized SwatResultCache getInstance() throws IOException {
+        if (instance == null) {
+            instance = new SwatResultCache(SwatConfiguration.getDirectory("result.cache.dir", "results"),
+                                           SwatConfiguration.getLong("result.cache.max.bytes", 5L << 30),
+                                           SwatConfiguration.getLong("result.cache.max.age.hours", 168)
+                                                   * 60 * 60 * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true unless the cache is disabled with {@code swat.result.cache.enabled=false}
+     */
+    static boolean isEnabled() {
+        return SwatConfiguration.getBoolean("result.cache.enabled", true);
+    }
+
+    /**
+     * @return cache key for a run defined by {@code parts}, in the given order
+     */
+    static String key(String... parts) {
+        MessageDigest digest = Checksums.newDigest();
+        digest.update(KEY_VERSION.getBytes(StandardCharsets.UTF_8));
+        for (String part : parts) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * Looks up a cached result and links its output archive to {@code outputZip}.
+     *
+     * @return the cached result or null if there is none
+     */
+    Result lookup(String key, File outputZip) throws IOException {
+        try (DirectoryCache.Lease lease = this.cache.acquire(key)) {
+            if (lease == null) {
+                return null;
+            }
+            WorkspaceFiles.linkOrCopy(new File(lease.getDirectory(), OUTPUT_FILE), outputZip);
+            String console = FileUtils.readFileToString(new File(lease.getDirectory(), CONSOLE_FILE),
+                                                        StandardCharsets.UTF_8.name());
+            return new Result(outputZip, console);
+        }
+    }
+
+    /**
+     * Stores the result of a run. Failures are logged only, a run does not fail because its result
+     * could not be cached.
+     */
+    void store(String key, File outputZip, String consoleOutput) {
+        File tmp = null;
+        try {
+            tmp = this.cache.newTempDir();
+            WorkspaceFiles.linkOrCopy(outputZip, new File(tmp, OUTPUT_FILE));
+            FileUtils.writeStringToFile(new File(tmp, CONSOLE_FILE), consoleOutput, StandardCharsets.UTF_8.name());
+            this.cache.put(key, tmp).close();
+            logger.info("Cached result " + key);
+        } catch (IOException e) {
+            logger.warn("Could not cache result " + key, e);
+        } finally {
+            if (tmp != null && tmp.exists()) {
+                FileUtils.deleteQuietly(tmp);
+            }
+        }
+    }
+
+    /**
+     * A cached run result.
+     */
+    static final class Result {
+        private final File outputZip;
+        private final String consoleOutput;
+
+        private Result(File outputZip, String consoleOutput) {
+            this.outputZip = outputZip;
+            this.consoleOutput = consoleOutput;
+        }
+
+        /**
+         * @return the output archive, linked into the current workspace
+         */
+        File getOutputZip() {
+            return this.outputZip;
+        }
+
+        /**
+         * @return the {@code swat_console_output} of the cached run
+         */
+        String getConsoleOutput() {
+            return this.consoleOutput;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.ZipFile;
+
+/**
+ * A single SWAT run in a workspace: sets up the model, looks up and stores cached results, runs SWAT and
+ * packs its output.
+ * <p/>
+ * The model is either uploaded ({@code swat_model}) or taken from the model cache ({@code base_model}),
+ * optionally changed by a {@link SwatModelPatch} and by fetched {@link SwatWeather}.
+ */
+final class SwatRun {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatRun.class);
+
+    /**
+     * Fraction completed reported when the workspace is ready and the SWAT run starts.
+     */
+    private static final double PROGRESS_RUN_START = 0.1;
+    /**
+     * Fraction completed reported when SWAT is done and the output is packed.
+     */
+    private static final double PROGRESS_RUN_END = 0.9;
+
+    private final File modelZip;
+    private final String baseModel;
+    private final SwatModelPatch patch;
+    private final SwatWeather weather;
+    private final SwatPrintOptions printOptions;
+    private final int compressionLevel;
+    private final boolean forceRun;
+
+    private String runId;
+    private String modelHash;
+    private String consoleOutput = "";
+    private File outputZip;
+
+    /**
+     * @param modelZip         uploaded model or null
+     * @param baseModel        hash of a cached model or null, not together with {@code modelZip}
+     * @param patch            changes to the model
+     * @param weather          climate input replacing that of the model or null
+     * @param compressionLevel compression of the output archive, see {@link SwatOutputPackager#parseLevel}
+     * @param forceRun         run SWAT even if the result is cached
+     * @throws IOException if both or, with weather, none of {@code modelZip} and {@code baseModel} are given
+     */
+    SwatRun(File modelZip, String baseModel, SwatModelPatch patch, SwatWeather weather, SwatPrintOptions printOptions,
+            int compressionLevel, boolean forceRun) throws IOException {
+        if (modelZip != null && baseModel != null) {
+            throw new IOException("Give either swat_model or base_model, not both");
+        }
+        if (weather != null && modelZip == null && baseModel == null) {
+            throw new IOException("Give swat_model or base_model to run with fetched weather");
+        }
+        this.modelZip = modelZip;
+        this.baseModel = baseModel;
+        this.patch = patch;
+        this.weather = weather;
+        this.printOptions = printOptions;
+        this.compressionLevel = compressionLevel;
+        this.forceRun = forceRun;
+    }
+
+    /**
+     * Runs SWAT in {@code workspace}, or returns the cached result of an identical run.
+     *
+     * @param tempDir  directory the output archive and console log are written to
+     * @param listener receives the fraction of the whole run completed, or null
+     * @param metrics  receives the time of every phase and the resources used
+     * @throws IOException if the model can't be set up or SWAT fails
+     */
+    void execute(SwatWorkspaces.Workspace workspace, File tempDir, SwatProcessRunner.ProgressListener listener,
+                 RunMetrics metrics) throws IOException, InterruptedException {
+        File swatModelDir = new File(workspace.getDirectory(), "swatmodel");
+        logger.info("Workspace is: " + workspace.getDirectory() + (workspace.isInMemory() ? " (in memory)" : ""));
+        if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
+            throw new IOException("Could not create temp dir " + tempDir);
+        }
+        if (!swatModelDir.isDirectory() && !swatModelDir.mkdirs()) {
+            throw new IOException("Could not create swatmodel dir " + swatModelDir);
+        }
+
+        long start = RunMetrics.start();
+        SwatExecutable executable = SwatExecutable.get();
+        metrics.finish(RunMetrics.Phase.EXECUTABLE, start);
+        this.outputZip = new File(tempDir, "swat_output.zip");
+        String resultKey = null;
+        // runs without a model are not repeatable, they get a random id
+        this.runId = SwatResultCache.key(UUID.randomUUID().toString());
+
+        // hashing the model is part of its setup
+        start = RunMetrics.start();
+        //unpack swat model
+        if (this.modelZip == null && this.baseModel == null) {
+            logger.info("Neither swat_model nor base_model given");
+        }
+        else {
+            this.modelHash = this.modelZip != null ? Checksums.sha256(this.modelZip) : this.baseModel.trim();
+            resultKey = SwatResultCache.key(this.modelHash, executable.getChecksum(),
+                                            String.valueOf(this.compressionLevel), this.printOptions.toKey(),
+                                            this.patch.toKey());
+            if (this.weather != null) {
+                resultKey = SwatResultCache.key(resultKey, this.weather.toKey());
+            }
+            this.runId = resultKey;
+            if (loadCachedResult(resultKey)) {
+                metrics.finish(RunMetrics.Phase.MODEL, start);
+                metrics.set(RunMetrics.CACHED_RESULT, 1);
+                metrics.set(RunMetrics.OUTPUT_ZIP_BYTES, this.outputZip.length());
+                start = RunMetrics.start();
+                restoreOutputStore(new File(workspace.getDirectory(), "output"));
+                metrics.finish(RunMetrics.Phase.OUTPUT_STORE, start);
+                progress(listener, 1);
+                return;
+            }
+
+            metrics.set(RunMetrics.CACHED_RESULT, 0);
+            if (this.modelZip == null) {
+                linkBaseModel(swatModelDir);
+            }
+            else if (SwatModelCache.isEnabled()) {
+                try (DirectoryCache.Lease model = SwatModelCache.getInstance().acquire(this.modelHash,
+                                                                                       this.modelZip)) {
+                    int files = WorkspaceFiles.linkTree(model.getDirectory(), swatModelDir);
+                    logger.info("Linked " + files + " files of model " + this.modelHash + " to "
+                                        + swatModelDir.getAbsolutePath());
+                }
+            }
+            else {
+                logger.info("Unpacking swatInputZip " + this.modelZip.getAbsolutePath()
+                                    + " to " + swatModelDir.getAbsolutePath());
+                int files = SwatModelExtractor.create().extract(this.modelZip, swatModelDir);
+                logger.info("Extracted " + files + " model files");
+            }
+            if (!this.patch.isEmpty()) {
+                this.patch.apply(swatModelDir);
+            }
+            if (this.weather != null) {
+                this.weather.apply(swatModelDir);
+            }
+        }
+
+        if (!this.printOptions.isDefault()) {
+            WorkspaceFiles.makePrivate(new File(swatModelDir, SwatFileCio.FILE_NAME));
+            SwatFileCio fileCio = SwatFileCio.read(swatModelDir);
+            this.printOptions.apply(fileCio);
+            fileCio.write(swatModelDir);
+        }
+        metrics.finish(RunMetrics.Phase.MODEL, start);
+
+        progress(listener, PROGRESS_RUN_START);
+        final SwatProcessRunner.ProgressListener runListener = listener;
+        SwatProcessRunner.Result result = new SwatProcessRunner(executable.getFile()).run(
+                swatModelDir, tempDir, new SwatProcessRunner.ProgressListener() {
+                    @Override
+                    public void progress(double completed) {
+                        SwatRun.progress(runListener, PROGRESS_RUN_START
+                                + completed * (PROGRESS_RUN_END - PROGRESS_RUN_START));
+                    }
+                });
+        this.consoleOutput = result.getConsoleOutput();
+        metrics.addMillis(RunMetrics.Phase.QUEUE, result.getQueueMillis());
+        metrics.addMillis(RunMetrics.Phase.SWAT, result.getWallMillis());
+        metrics.set(RunMetrics.SWAT_CPU_MILLIS, result.getCpuMillis());
+        metrics.set(RunMetrics.SWAT_PEAK_RSS_KB, result.getPeakRssKb());
+        if (result.getExitValue() != 0) {
+            throw new IOException("SWAT didn't complete successfully");
+        }
+
+        List<File> outFiles = new ArrayList<>();
+        long outputBytes = 0;
+        for (File outFile : FileUtils.listFiles(swatModelDir, new WildcardFileFilter("output.*"),
+                                                TrueFileFilter.TRUE)) {
+            if (this.printOptions.includes(outFile)) {
+                outFiles.add(outFile);
+                outputBytes += outFile.length();
+            }
+        }
+        metrics.set(RunMetrics.OUTPUT_FILES, outFiles.size());
+        metrics.set(RunMetrics.OUTPUT_BYTES, outputBytes);
+        progress(listener, PROGRESS_RUN_END);
+        start = RunMetrics.start();
+        new SwatOutputPackager(this.compressionLevel).write(outFiles, this.outputZip);
+        metrics.finish(RunMetrics.Phase.OUTPUT_ZIP, start);
+        metrics.set(RunMetrics.OUTPUT_ZIP_BYTES, this.outputZip.length());
+        if (resultKey != null && SwatResultCache.isEnabled()) {
+            SwatResultCache.getInstance().store(resultKey, this.outputZip, this.consoleOutput);
+        }
+        if (SwatOutputStore.isEnabled()) {
+            start = RunMetrics.start();
+            SwatOutputStore.getInstance().store(this.runId, swatModelDir, this.printOptions);
+            metrics.finish(RunMetrics.Phase.OUTPUT_STORE, start);
+        }
+        progress(listener, 1);
+    }
+
+    /**
+     * @return id of the run, the result key unless the run had no model
+     */
+    String getRunId() {
+        return this.runId;
+    }
+
+    /**
+     * @return hash of the (unpatched) model, null if the run had no model
+     */
+    String getModelHash() {
+        return this.modelHash;
+    }
+
+    String getConsoleOutput() {
+        return this.consoleOutput;
+    }
+
+    /**
+     * @return the archive of the SWAT output files
+     */
+    File getOutputZip() {
+        return this.outputZip;
+    }
+
+    private static void progress(SwatProcessRunner.ProgressListener listener, double completed) {
+        if (listener != null) {
+            listener.progress(completed);
+        }
+    }
+
+    /**
+     * Takes the outputs from the result cache, unless a fresh run was requested.
+     *
+     * @return true if a cached result was found
+     */
+    private boolean loadCachedResult(String resultKey) throws IOException {
+        if (this.forceRun || !SwatResultCache.isEnabled()) {
+            return false;
+        }
+        SwatResultCache.Result result = SwatResultCache.getInstance().lookup(resultKey, this.outputZip);
+        if (result == null) {
+            return false;
+        }
+        logger.info("Returning cached result " + resultKey);
+        this.consoleOutput = result.getConsoleOutput();
+        this.outputZip = result.getOutputZip();
+        return true;
+    }
+
+    /**
+     * Links the workspace to a model uploaded by an earlier run.
+     *
+     * @throws IOException if the model is not (or no longer) in the model cache
+     */
+    private void linkBaseModel(File swatModelDir) throws IOException {
+        if (!SwatModelCache.isEnabled()) {
+            throw new IOException("base_model can't be used, the model cache is disabled");
+        }
+        try (DirectoryCache.Lease model = SwatModelCache.getInstance().acquire(this.modelHash)) {
+            if (model == null) {
+                throw new IOException("Base model " + this.modelHash + " is not available (anymore), "
+                                              + "send it as swat_model");
+            }
+            int files = WorkspaceFiles.linkTree(model.getDirectory(), swatModelDir);
+            logger.info("Linked " + files + " files of base model " + this.modelHash + " to "
+                                + swatModelDir.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Stores the output of a cached result again if it has been dropped from the output store.
+     */
+    private void restoreOutputStore(File outputDir) throws IOException {
+        if (!SwatOutputStore.isEnabled() || SwatOutputStore.getInstance().contains(this.runId)) {
+            return;
+        }
+        if (this.patch.touches(SwatFileCio.FILE_NAME)) {
+            logger.info(SwatFileCio.FILE_NAME + " is patched, not storing output of run " + this.runId);
+            return;
+        }
+        SwatFileCio fileCio = null;
+        if (this.modelZip != null) {
+            try (ZipFile zip = new ZipFile(this.modelZip)) {
+                fileCio = SwatFileCio.read(zip);
+            }
+        }
+        else if (SwatModelCache.isEnabled()) {
+            try (DirectoryCache.Lease model = SwatModelCache.getInstance().acquire(this.modelHash)) {
+                File file = model == null ? null : new File(model.getDirectory(), SwatFileCio.FILE_NAME);
+                if (file != null && file.isFile()) {
+                    fileCio = SwatFileCio.read(model.getDirectory());
+                }
+            }
+        }
+        if (fileCio == null) {
+            logger.warn("No " + SwatFileCio.FILE_NAME + " in model, not storing output of run " + this.runId);
+            return;
+        }
+        if (this.weather != null) {
+            this.weather.apply(fileCio);
+        }
+        this.printOptions.apply(fileCio);
+        SwatModelExtractor.create().extract(this.outputZip, outputDir);
+        SwatOutputStore.getInstance().store(this.runId, outputDir, fileCio, this.printOptions);
+    }
+}
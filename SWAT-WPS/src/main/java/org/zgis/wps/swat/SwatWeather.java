@@ -0,0 +1,327 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Days;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Weather fetched from a SOS and written as SWAT climate input files.
+ * <p/>
+ * The files get the names ArcSWAT gives them ({@code pcp1.pcp}, {@code tmp1.tmp}, {@code hmd.hmd},
+ * {@code wnd.wnd} and {@code slr.slr}) with one gage per station, in the order the stations are given.
+ * {@link #apply(File)} moves them into a model and makes {@code file.cio} use them for the fetched period,
+ * replacing the model's own pcp and tmp files by the single written one, so a model only needs its gages in
+ * the same order.
+ */
+final class SwatWeather {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatWeather.class);
+
+    static final String PRECIPITATION_FILE = "pcp1.pcp";
+    static final String TEMPERATURE_FILE = "tmp1.tmp";
+    static final String HUMIDITY_FILE = "hmd.hmd";
+    static final String WIND_FILE = "wnd.wnd";
+    static final String SOLAR_RADIATION_FILE = "slr.slr";
+
+    private static final String PRECIPITATION_FILES = "Precipitation Files:";
+    private static final String TEMPERATURE_FILES = "Temperature Files:";
+
+    private final DateTime firstDay;
+    private final DateTime lastDay;
+    private final int stations;
+    private final Map<String, File> files;
+
+    private SwatWeather(DateTime firstDay, DateTime lastDay, int stations, Map<String, File> files) {
+        this.firstDay = firstDay;
+        this.lastDay = lastDay;
+        this.stations = stations;
+        this.files = files;
+    }
+
+    /**
+     * Fetches the weather of {@code [begin, end]} from the observation store if it is enabled, from the
+     * SOS otherwise, and writes it to {@code dir}.
+     *
+     * @param stations   features of interest in the order of the gages, all stations (as a single gage)
+     *                   if null or empty
+     * @param properties observed properties, all {@link WeatherVariable}s if null or empty
+     * @param metrics    receives the time of fetching (including parsing) and writing
+     */
+    static SwatWeather fetch(String sosUrl, String procedure, List<String> stations, List<String> properties,
+                             DateTime begin, DateTime end, File dir, RunMetrics metrics) throws IOException {
+        List<SosClient.Query> queries = buildQueries(procedure, stations, properties);
+        long start = RunMetrics.start();
+        Map<SosClient.Query, TimeValueSeries> observations;
+        if (ObservationStore.isEnabled()) {
+            observations = ObservationStore.getInstance().getObservations(SosClient.getInstance(), sosUrl,
+                                                                          queries, begin, end);
+        }
+        else {
+            observations = SosClient.getInstance().getObservations(sosUrl, queries, begin, end);
+        }
+        metrics.finish(RunMetrics.Phase.SOS_FETCH, start);
+        long count = 0;
+        for (TimeValueSeries series : observations.values()) {
+            count += series != null ? series.size() : 0;
+        }
+        metrics.set(RunMetrics.OBSERVATIONS, count);
+        logger.info("Fetched " + observations.size() + " series with " + count + " observations");
+
+        start = RunMetrics.start();
+        SwatWeather weather = write(observations, begin, end, dir);
+        metrics.finish(RunMetrics.Phase.WEATHER_WRITE, start);
+        return weather;
+    }
+
+    /**
+     * Parses the {@code end_date} input of the weather algorithms.
+     *
+     * @return the end date in UTC, now if {@code endDate} is null
+     * @throws IOException if it is no ISO 8601 date
+     */
+    static DateTime parseEndDate(String endDate) throws IOException {
+        if (endDate == null) {
+            return DateTime.now(DateTimeZone.UTC);
+        }
+        try {
+            return ISODateTimeFormat.dateTimeParser().withZoneUTC().parseDateTime(endDate);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid end_date '" + endDate + "', use an ISO 8601 date", e);
+        }
+    }
+
+    /**
+     * @return one query per station and observed property
+     */
+    static List<SosClient.Query> buildQueries(String procedure, List<String> stations, List<String> properties) {
+        List<String> queriedProperties = new ArrayList<>();
+        if (properties == null || properties.isEmpty()) {
+            for (WeatherVariable variable : WeatherVariable.values()) {
+                queriedProperties.add(variable.getObservedProperty());
+            }
+        }
+        else {
+            queriedProperties.addAll(properties);
+        }
+        List<String> queriedStations = new ArrayList<>();
+        if (stations == null || stations.isEmpty()) {
+            // all stations
+            queriedStations.add(null);
+        }
+        else {
+            queriedStations.addAll(stations);
+        }
+
+        List<SosClient.Query> queries = new ArrayList<>(queriedStations.size() * queriedProperties.size());
+        for (String station : queriedStations) {
+            for (String property : queriedProperties) {
+                queries.add(new SosClient.Query(procedure, property, station));
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Writes fetched series as SWAT climate files, one gage per station in the order of the queries.
+     * Station coordinates are not known from the observations and written as 0. A file is only written if
+     * any station has observations of its variables.
+     */
+    static SwatWeather write(Map<SosClient.Query, TimeValueSeries> observations, DateTime begin, DateTime end,
+                             File dir) throws IOException {
+        Map<String, Map<WeatherVariable, TimeValueSeries>> byStation = new LinkedHashMap<>();
+        for (Map.Entry<SosClient.Query, TimeValueSeries> entry : observations.entrySet()) {
+            String station = entry.getKey().getFeatureOfInterest();
+            if (!byStation.containsKey(station)) {
+                byStation.put(station, new EnumMap<WeatherVariable, TimeValueSeries>(WeatherVariable.class));
+            }
+            WeatherVariable variable = WeatherVariable.forObservedProperty(entry.getKey().getObservedProperty());
+            if (variable == null) {
+                logger.warn("Not writing observed property " + entry.getKey().getObservedProperty()
+                                    + ", it is no SWAT weather variable");
+                continue;
+            }
+            if (entry.getValue() != null && entry.getValue().size() > 0) {
+                byStation.get(station).put(variable, entry.getValue());
+            }
+        }
+
+        List<SwatWeatherWriter.Station> stations = new ArrayList<>();
+        Map<WeatherVariable, List<TimeValueSeries>> columns = new EnumMap<>(WeatherVariable.class);
+        for (WeatherVariable variable : WeatherVariable.values()) {
+            columns.put(variable, new ArrayList<TimeValueSeries>());
+        }
+        for (Map.Entry<String, Map<WeatherVariable, TimeValueSeries>> station : byStation.entrySet()) {
+            stations.add(new SwatWeatherWriter.Station(station.getKey(), 0, 0, 0));
+            for (WeatherVariable variable : WeatherVariable.values()) {
+                columns.get(variable).add(station.getValue().get(variable));
+            }
+        }
+
+        DateTime firstDay = begin.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        DateTime lastDay = end.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        int days = Days.daysBetween(firstDay, lastDay).getDays() + 1;
+        SwatWeatherWriter writer = new SwatWeatherWriter(firstDay, days);
+        Map<String, File> files = new LinkedHashMap<>();
+        if (hasObservations(columns.get(WeatherVariable.PRECIPITATION))) {
+            File pcp = new File(dir, PRECIPITATION_FILE);
+            writer.writePrecipitation(pcp, stations, columns.get(WeatherVariable.PRECIPITATION));
+            files.put("PCPSIM", pcp);
+        }
+        if (hasObservations(columns.get(WeatherVariable.TEMPERATURE_MAX))
+                || hasObservations(columns.get(WeatherVariable.TEMPERATURE_MIN))) {
+            File tmp = new File(dir, TEMPERATURE_FILE);
+            writer.writeTemperature(tmp, stations, columns.get(WeatherVariable.TEMPERATURE_MAX),
+                                    columns.get(WeatherVariable.TEMPERATURE_MIN));
+            files.put("TMPSIM", tmp);
+        }
+        if (hasObservations(columns.get(WeatherVariable.HUMIDITY))) {
+            File hmd = new File(dir, HUMIDITY_FILE);
+            writer.writeHumidity(hmd, columns.get(WeatherVariable.HUMIDITY));
+            files.put("RHSIM", hmd);
+        }
+        if (hasObservations(columns.get(WeatherVariable.WIND_SPEED))) {
+            File wnd = new File(dir, WIND_FILE);
+            writer.writeWind(wnd, columns.get(WeatherVariable.WIND_SPEED));
+            files.put("WNDSIM", wnd);
+        }
+        if (hasObservations(columns.get(WeatherVariable.SOLAR_RADIATION))) {
+            File slr = new File(dir, SOLAR_RADIATION_FILE);
+            writer.writeSolarRadiation(slr, columns.get(WeatherVariable.SOLAR_RADIATION));
+            files.put("SLRSIM", slr);
+        }
+        logger.info("Wrote " + files.size() + " files with " + days + " days of " + stations.size() + " stations");
+        return new SwatWeather(firstDay, lastDay, stations.size(), files);
+    }
+
+    private static boolean hasObservations(List<TimeValueSeries> columns) {
+        for (TimeValueSeries column : columns) {
+            if (column != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the written files
+     */
+    List<File> getFiles() {
+        return new ArrayList<>(this.files.values());
+    }
+
+    /**
+     * @return part of a result key identifying the weather, see {@link SwatResultCache#key(String...)}
+     */
+    String toKey() throws IOException {
+        List<String> parts = new ArrayList<>();
+        parts.add(this.firstDay.toString());
+        parts.add(this.lastDay.toString());
+        for (File file : this.files.values()) {
+            parts.add(file.getName());
+            parts.add(Checksums.sha256(file));
+        }
+        return SwatResultCache.key(parts.toArray(new String[parts.size()]));
+    }
+
+    /**
+     * Moves the written files into a model directory, replacing (not changing) files linked from a cache,
+     * and sets up {@code file.cio} for them.
+     */
+    void apply(File modelDir) throws IOException {
+        for (File file : this.files.values()) {
+            Files.move(file.toPath(), new File(modelDir, file.getName()).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING);
+        }
+        WorkspaceFiles.makePrivate(new File(modelDir, SwatFileCio.FILE_NAME));
+        SwatFileCio fileCio = SwatFileCio.read(modelDir);
+        apply(fileCio);
+        fileCio.write(modelDir);
+        logger.info("Moved " + this.files.size() + " weather files to " + modelDir.getAbsolutePath());
+    }
+
+    /**
+     * Sets the simulation period to the fetched period and makes SWAT read the written files instead of
+     * generating the weather.
+     *
+     * @throws IOException if {@code file.cio} has no simulation period or can't list the precipitation or
+     *                     temperature file
+     */
+    void apply(SwatFileCio fileCio) throws IOException {
+        try {
+            fileCio.setInt("NBYR", this.lastDay.getYear() - this.firstDay.getYear() + 1);
+            fileCio.setInt("IYR", this.firstDay.getYear());
+            fileCio.setInt("IDAF", this.firstDay.getDayOfYear());
+            fileCio.setInt("IDAL", this.lastDay.getDayOfYear());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Can't set the simulation period: " + e.getMessage(), e);
+        }
+        // 1 = measured, read from the file
+        for (String label : this.files.keySet()) {
+            setIfPresent(fileCio, label, "1");
+        }
+        String gages = Integer.toString(this.stations);
+        // all gages are in one pcp and one tmp file
+        try {
+            if (this.files.containsKey("PCPSIM")) {
+                fileCio.setInt("NRGAGE", 1);
+                fileCio.setString("NRTOT", gages);
+                fileCio.setString("NRGFIL", gages);
+                fileCio.setFileNames(PRECIPITATION_FILES, PRECIPITATION_FILE);
+            }
+            if (this.files.containsKey("TMPSIM")) {
+                fileCio.setInt("NTGAGE", 1);
+                fileCio.setString("NTTOT", gages);
+                fileCio.setString("NTGFIL", gages);
+                fileCio.setFileNames(TEMPERATURE_FILES, TEMPERATURE_FILE);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Can't set the weather files: " + e.getMessage(), e);
+        }
+        if (this.files.containsKey("RHSIM")) {
+            setIfPresent(fileCio, "NHTOT", gages);
+            setIfPresent(fileCio, "RHFILE", HUMIDITY_FILE);
+        }
+        if (this.files.containsKey("WNDSIM")) {
+            setIfPresent(fileCio, "NWTOT", gages);
+            setIfPresent(fileCio, "WNDFILE", WIND_FILE);
+        }
+        if (this.files.containsKey("SLRSIM")) {
+            setIfPresent(fileCio, "NSTOT", gages);
+            setIfPresent(fileCio, "SLRFILE", SOLAR_RADIATION_FILE);
+        }
+    }
+
+    private static void setIfPresent(SwatFileCio fileCio, String label, String value) {
+        if (fileCio.indexOf(label) >= 0) {
+            fileCio.setString(label, value);
+        }
+    }
+}
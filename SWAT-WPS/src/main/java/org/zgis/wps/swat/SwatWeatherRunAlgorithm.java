@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.DateTime;
+import org.n52.wps.algorithm.annotation.*;
+import org.n52.wps.commons.context.ExecutionContextFactory;
+import org.n52.wps.io.data.GenericFileData;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralBooleanBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
+import org.n52.wps.server.AbstractAnnotatedAlgorithm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fetches weather from SOS and runs SWAT with it in one process.
+ * <p/>
+ * The climate files are written straight into the run workspace, there is no weather archive to download
+ * and upload again as with the swat-weather-fetch-algorithm and the swat-runner-algorithm.
+ */
+@Algorithm(
+        version = "0.0.1", //TODO get this value from maven pom (via properties file)
+        abstrakt = "This Algorithm fetches weather from SOS, writes it as climate input of a SWAT model and runs "
+                + "SWAT for the fetched period.",
+        title = "SWAT weather run",
+        identifier = "swat-weather-run-algorithm",
+        statusSupported = true,
+        storeSupported = true)
+public class SwatWeatherRunAlgorithm extends AbstractAnnotatedAlgorithm {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatWeatherRunAlgorithm.class);
+
+    /**
+     * Percent completed reported when the weather is written and the model run starts.
+     */
+    private static final int PROGRESS_FETCHED = 10;
+
+    private List<GenericFileData> swatInputZip;
+    private String baseModel;
+    private String sosUrl;
+    private String sosProcedure;
+    private List<String> stations;
+    private List<String> observedProperties;
+    private String endDate;
+    private int years = 3;
+    private String outputCompression;
+    private boolean forceRun = false;
+    private String printFrequency;
+    private List<String> outputFiles;
+    private String swatConsoleOutput = "";
+    private GenericFileData swatOutputZipped;
+    private String runId;
+    private String swatModelHash;
+    private String runMetrics;
+
+    @ComplexDataInput(
+            identifier = "swat_model",
+            title = "swat model input files",
+            abstrakt = "ZIP file containing the SWAT input files. May be left out if base_model is given.",
+            binding = GenericFileDataBinding.class,
+            minOccurs = 0, maxOccurs = 1)
+    public void setSwatInputZip(List<GenericFileData> gfd) {
+        this.swatInputZip = gfd;
+    }
+
+    @LiteralDataInput(
+            identifier = "base_model",
+            title = "base model",
+            abstrakt = "swat_model_hash of an earlier run, to run that model again without uploading it.",
+            minOccurs = 0, maxOccurs = 1)
+    public void setBaseModel(String baseModel) {
+        this.baseModel = baseModel;
+    }
+
+    @LiteralDataInput(
+            identifier = "sos_url",
+            title = "SOS url",
+            abstrakt = "SOS url containing weather data",
+            minOccurs = 1,
+            maxOccurs = 1
+    )
+    public void setSosUrl(String sosUrl) {
+        this.sosUrl = sosUrl;
+    }
+
+    @LiteralDataInput(
+            identifier = "sos_procedure",
+            title = "SOS procedure",
+            abstrakt = "SOS procedure containing weather data",
+            maxOccurs = 1,
+            defaultValue = "http://vocab.example.com/sensorweb/procedure/gsod"
+    )
+    public void setSosProcedure(String sosProcedure) {
+        this.sosProcedure = sosProcedure;
+    }
+
+    @LiteralDataInput(
+            identifier = "station",
+            title = "Stations",
+            abstrakt = "Features of interest (weather stations) to fetch, in the order of the gages of the model",
+            minOccurs = 1,
+            maxOccurs = 1000
+    )
+    public void setStations(List<String> stations) {
+        this.stations = stations;
+    }
+
+    @LiteralDataInput(
+            identifier = "observed_property",
+            title = "Observed properties",
+            abstrakt = "Observed properties to fetch, defaults to all properties SWAT needs (precipitation, "
+                    + "min/max temperature, humidity, wind speed and solar radiation). SWAT generates the others.",
+            minOccurs = 0,
+            maxOccurs = 20
+    )
+    public void setObservedProperties(List<String> observedProperties) {
+        this.observedProperties = observedProperties;
+    }
+
+    @LiteralDataInput(
+            identifier = "end_date",
+            title = "End date",
+            abstrakt = "End of the simulated period as ISO 8601 date or date time (UTC unless given), "
+                    + "defaults to now",
+            minOccurs = 0,
+            maxOccurs = 1
+    )
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+
+    @LiteralDataInput(
+            identifier = "years",
+            title = "Years",
+            abstrakt = "Number of years before the end date to fetch and simulate",
+            minOccurs = 0,
+            maxOccurs = 1,
+            defaultValue = "3",
+            binding = LiteralIntBinding.class)
+    public void setYears(Integer years) {
+        if (years != null) {
+            if (years < 1) {
+                throw new IllegalArgumentException("years must be at least 1: " + years);
+            }
+            this.years = years;
+        }
+    }
+
+    @LiteralDataInput(
+            identifier = "output_compression",
+            title = "output compression",
+            abstrakt = "Compression of swat_output_zipped: 'store' for no compression or a deflate level 1 (fastest) "
+                    + "to 9 (smallest).",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "6",
+            allowedValues = {"store", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+    public void setOutputCompression(String outputCompression) {
+        this.outputCompression = outputCompression;
+    }
+
+    @LiteralDataInput(
+            identifier = "force_run",
+            title = "force run",
+            abstrakt = "Run SWAT even if a result for the same model, weather and options is cached.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = "false",
+            binding = LiteralBooleanBinding.class)
+    public void setForceRun(Boolean forceRun) {
+        this.forceRun = forceRun != null && forceRun;
+    }
+
+    @LiteralDataInput(
+            identifier = "print_frequency",
+            title = "print frequency",
+            abstrakt = "Time step of the SWAT output, 'model' to keep the setting of the model's file.cio.",
+            minOccurs = 0, maxOccurs = 1,
+            defaultValue = SwatPrintOptions.MODEL,
+            allowedValues = {SwatPrintOptions.MODEL, "daily", "monthly", "yearly"})
+    public void setPrintFrequency(String printFrequency) {
+        this.printFrequency = printFrequency;
+    }
+
+    @LiteralDataInput(
+            identifier = "output_file",
+            title = "output file",
+            abstrakt = "Output file to return, e.g. output.rch. All output files are returned if not given.",
+            minOccurs = 0, maxOccurs = 50)
+    public void setOutputFiles(List<String> outputFiles) {
+        this.outputFiles = outputFiles;
+    }
+
+    @ComplexDataOutput(identifier = "swat_output_zipped",
+            title = "swat model output files as ZIP",
+            abstrakt = "ZIP file containing the SWAT output files.",
+            binding = GenericFileDataBinding.class)
+    public GenericFileData getSwatOutputZipped() {
+        return this.swatOutputZipped;
+    }
+
+    @LiteralDataOutput(identifier = "swat_console_output",
+            title = "SWAT model console output",
+            abstrakt = "The stdout of the SWAT model run.")
+    public String getSwatConsoleOutput() {
+        return this.swatConsoleOutput;
+    }
+
+    @LiteralDataOutput(identifier = "run_id",
+            title = "run id",
+            abstrakt = "Id of the run, to query single units and variables of its output with the "
+                    + "swat-output-query-algorithm.")
+    public String getRunId() {
+        return this.runId;
+    }
+
+    @LiteralDataOutput(identifier = "swat_model_hash",
+            title = "SWAT model hash",
+            abstrakt = "Hash of the model of the run, to pass as base_model to later runs.")
+    public String getSwatModelHash() {
+        return this.swatModelHash;
+    }
+
+    @LiteralDataOutput(identifier = "run_metrics",
+            title = "run metrics",
+            abstrakt = "JSON object with the milliseconds spent in every phase of the execution (e.g. sos_fetch, "
+                    + "swat_run), CPU time and peak memory of SWAT and the size of the output.")
+    public String getRunMetrics() {
+        return this.runMetrics;
+    }
+
+    @Execute
+    public void run() throws IOException {
+        File tempDir = new File(ExecutionContextFactory.getContext().getTempDirectoryPath());
+        File modelZip = null;
+        if (this.swatInputZip != null && this.swatInputZip.size() == 1) {
+            modelZip = this.swatInputZip.get(0).getBaseFile(false);
+        }
+        DateTime end = SwatWeather.parseEndDate(this.endDate);
+        DateTime begin = end.minusYears(this.years);
+        SwatPrintOptions printOptions = new SwatPrintOptions(this.printFrequency, this.outputFiles,
+                                                             null, null, null, null);
+
+        SwatRun run = null;
+        RunMetrics metrics = new RunMetrics("swat-weather-run-algorithm");
+        boolean failed = true;
+        long workspaceStart = RunMetrics.start();
+        try (SwatWorkspaces.Workspace workspace = SwatWorkspaces.getInstance().create("weather-run")) {
+            File weatherDir = new File(workspace.getDirectory(), "weather");
+            if (!weatherDir.isDirectory() && !weatherDir.mkdirs()) {
+                throw new IOException("Could not create weather dir " + weatherDir);
+            }
+            metrics.finish(RunMetrics.Phase.WORKSPACE, workspaceStart);
+            SwatWeather weather = SwatWeather.fetch(this.sosUrl, this.sosProcedure, this.stations,
+                                                    this.observedProperties, begin, end, weatherDir, metrics);
+            logger.info("Fetched weather of " + this.stations.size() + " stations in "
+                                + metrics.getMillis(RunMetrics.Phase.SOS_FETCH) + " ms");
+            this.update(PROGRESS_FETCHED);
+
+            run = new SwatRun(modelZip, this.baseModel, new SwatModelPatch(null, null), weather, printOptions,
+                              SwatOutputPackager.parseLevel(this.outputCompression), this.forceRun);
+            run.execute(workspace, tempDir, new PercentProgressListener(PROGRESS_FETCHED, 100) {
+                @Override
+                void report(int percent) {
+                    update(percent);
+                }
+            }, metrics);
+            this.swatOutputZipped = new GenericFileData(run.getOutputZip(), "application/zip");
+            failed = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Exception on running SWAT process.", e);
+            throw new IOException("Exception on running SWAT process.", e);
+        } finally {
+            metrics.report(failed);
+            this.runMetrics = metrics.toJson();
+            if (run != null) {
+                this.runId = run.getRunId();
+                this.swatModelHash = run.getModelHash();
+                this.swatConsoleOutput = run.getConsoleOutput();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes daily SWAT climate input files (SWAT 2012 format) from observation series.
+ * <p/>
+ * The series are aggregated to UTC days in blocks of a year, so the memory needed is independent of
+ * the length of the record. Days without observations are written as {@link #MISSING}, which makes
+ * SWAT generate the value.
+ */
+final class SwatWeatherWriter {
+
+    static final double MISSING = -99.0;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int BLOCK_DAYS = 366;
+
+    private final DateTime firstDay;
+    private final int days;
+
+    /**
+     * @param firstDay first day written, time of day is ignored
+     * @param days     number of days written
+     */
+    SwatWeatherWriter(DateTime firstDay, int days) {
+        this.firstDay = firstDay.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        this.days = days;
+    }
+
+    /**
+     * Writes a precipitation file ({@code pcp1.pcp}) with one column per station.
+     *
+     * @param precipitation series per station, in the order of {@code stations}, null if a station has none
+     */
+    void writePrecipitation(File file, List<Station> stations, List<TimeValueSeries> precipitation)
+            throws IOException {
+        List<TimeValueSeries.Aggregation> aggregations = new ArrayList<>();
+        for (int i = 0; i < stations.size(); i++) {
+            aggregations.add(WeatherVariable.PRECIPITATION.getDailyAggregation());
+        }
+        write(file, "Precipitation Input File " + file.getName(), stations, 5, 5, 1, precipitation, aggregations);
+    }
+
+    /**
+     * Writes a temperature file ({@code tmp1.tmp}) with a max and a min column per station.
+     */
+    void writeTemperature(File file, List<Station> stations, List<TimeValueSeries> max,
+                          List<TimeValueSeries> min) throws IOException {
+        List<TimeValueSeries> columns = new ArrayList<>();
+        List<TimeValueSeries.Aggregation> aggregations = new ArrayList<>();
+        for (int i = 0; i < stations.size(); i++) {
+            columns.add(max.get(i));
+            aggregations.add(WeatherVariable.TEMPERATURE_MAX.getDailyAggregation());
+            columns.add(min.get(i));
+            aggregations.add(WeatherVariable.TEMPERATURE_MIN.getDailyAggregation());
+        }
+        write(file, "Temperature Input File " + file.getName(), stations, 10, 5, 1, columns, aggregations);
+    }
+
+    /**
+     * Writes a relative humidity file ({@code hmd.hmd}) with one column per station. SWAT expects the
+     * humidity as a fraction (0 to 1).
+     */
+    void writeHumidity(File file, List<TimeValueSeries> humidity) throws IOException {
+        writeDaily(file, "Relative Humidity Input File " + file.getName(), WeatherVariable.HUMIDITY, humidity);
+    }
+
+    /**
+     * Writes a wind speed file ({@code wnd.wnd}) with one column per station. SWAT expects m/s.
+     */
+    void writeWind(File file, List<TimeValueSeries> windSpeed) throws IOException {
+        writeDaily(file, "Wind Speed Input File " + file.getName(), WeatherVariable.WIND_SPEED, windSpeed);
+    }
+
+    /**
+     * Writes a solar radiation file ({@code slr.slr}) with one column per station. SWAT expects the daily
+     * total in MJ/m^2.
+     */
+    void writeSolarRadiation(File file, List<TimeValueSeries> solarRadiation) throws IOException {
+        writeDaily(file, "Solar Radiation Input File " + file.getName(), WeatherVariable.SOLAR_RADIATION,
+                   solarRadiation);
+    }
+
+    /**
+     * Writes a file without station locations and with {@code f8.3} values, as SWAT reads humidity, wind
+     * speed and solar radiation. Values are written as observed, they are not converted.
+     */
+    private void writeDaily(File file, String title, WeatherVariable variable, List<TimeValueSeries> columns)
+            throws IOException {
+        List<TimeValueSeries.Aggregation> aggregations = new ArrayList<>();
+        for (int i = 0; i < columns.size(); i++) {
+            aggregations.add(variable.getDailyAggregation());
+        }
+        write(file, title, null, 0, 8, 3, columns, aggregations);
+    }
+
+    /**
+     * @param stations    stations listed in the location header, null to write none
+     * @param headerWidth width of a station in the location header
+     * @param width       width of a value
+     * @param decimals    fraction digits of a value
+     */
+    private void write(File file, String title, List<Station> stations, int headerWidth, int width, int decimals,
+                       List<TimeValueSeries> columns, List<TimeValueSeries.Aggregation> aggregations)
+            throws IOException {
+        double[][] block = new double[columns.size()][BLOCK_DAYS];
+        StringBuilder line = new StringBuilder(7 + columns.size() * width);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                                                                    StandardCharsets.ISO_8859_1), 1 << 16)) {
+            out.write(title);
+            out.write('\n');
+            if (stations != null) {
+                writeHeader(out, line, "Lati", stations, headerWidth, 0);
+                writeHeader(out, line, "Long", stations, headerWidth, 1);
+                writeHeader(out, line, "Elev", stations, headerWidth, 2);
+            }
+
+            for (int start = 0; start < this.days; start += BLOCK_DAYS) {
+                int blockDays = Math.min(BLOCK_DAYS, this.days - start);
+                long blockStart = this.firstDay.getMillis() + start * DAY_MILLIS;
+                for (int c = 0; c < columns.size(); c++) {
+                    if (columns.get(c) != null) {
+                        columns.get(c).aggregateDaily(blockStart, block[c], aggregations.get(c));
+                    }
+                    else {
+                        Arrays.fill(block[c], Double.NaN);
+                    }
+                }
+                DateTime day = new DateTime(blockStart, DateTimeZone.UTC);
+                for (int d = 0; d < blockDays; d++, day = day.plusDays(1)) {
+                    line.setLength(0);
+                    appendInt(line, day.getYear(), 4);
+                    appendInt(line, day.getDayOfYear(), 3);
+                    for (int c = 0; c < columns.size(); c++) {
+                        double value = block[c][d];
+                        appendFixed(line, Double.isNaN(value) ? MISSING : value, width, decimals);
+                    }
+                    line.append('\n');
+                    out.append(line);
+                }
+            }
+        }
+    }
+
+    private static void writeHeader(Writer out, StringBuilder line, String label, List<Station> stations,
+                                    int width, int field) throws IOException {
+        line.setLength(0);
+        line.append(label);
+        while (line.length() < 7) {
+            line.append(' ');
+        }
+        for (Station station : stations) {
+            if (field == 2) {
+                appendInt(line, Math.round(station.getElevation()), width);
+            }
+            else {
+                appendFixed(line, field == 0 ? station.getLatitude() : station.getLongitude(), width, 1);
+            }
+        }
+        line.append('\n');
+        out.append(line);
+    }
+
+    /**
+     * Appends {@code value} right aligned in {@code width} characters, like Fortran {@code Iw}.
+     */
+    static void appendInt(StringBuilder line, long value, int width) {
+        int start = line.length();
+        line.append(value);
+        padLeft(line, start, width);
+    }
+
+    /**
+     * Appends {@code value} right aligned in {@code width} characters with {@code decimals} fraction
+     * digits, like Fortran {@code Fw.d}, without the cost of {@link String#format}.
+     */
+    static void appendFixed(StringBuilder line, double value, int width, int decimals) {
+        int start = line.length();
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            line.append('-');
+        }
+        line.append(scaled / scale);
+        if (decimals > 0) {
+            line.append('.');
+            String fraction = Long.toString(scaled % scale);
+            for (int i = fraction.length(); i < decimals; i++) {
+                line.append('0');
+            }
+            line.append(fraction);
+        }
+        padLeft(line, start, width);
+    }
+
+    private static void padLeft(StringBuilder line, int start, int width) {
+        int length = line.length() - start;
+        for (int i = length; i < width; i++) {
+            line.insert(start, ' ');
+        }
+    }
+
+    /**
+     * A weather station (gage) as listed in the header of a climate file.
+     */
+    static final class Station {
+        private final String name;
+        private final double latitude;
+        private final double longitude;
+        private final double elevation;
+
+        Station(String name, double latitude, double longitude, double elevation) {
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.elevation = elevation;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        double getLatitude() {
+            return this.latitude;
+        }
+
+        double getLongitude() {
+            return this.longitude;
+        }
+
+        double getElevation() {
+            return this.elevation;
+        }
+    }
+}
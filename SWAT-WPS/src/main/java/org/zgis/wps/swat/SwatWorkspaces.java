@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run directories of SWAT, optionally on a RAM backed file system.
+ * <p/>
+ * If {@code swat.workspace.memory.dir} points to a tmpfs (e.g. {@code /dev/shm/swat-wps}), workspaces
+ * are created there as long as the workspaces in memory stay within {@code swat.workspace.memory.max.bytes}
+ * - every workspace is counted with at least {@code swat.workspace.memory.reserve.bytes} until its real
+ * size is known. Otherwise they spill to {@code swat.workspace.dir} on disk. Put the model cache on the
+ * same file system as the workspaces, files are copied instead of linked across file systems.
+ * <p/>
+ * A background reaper measures the workspaces every {@code swat.workspace.reaper.interval.seconds} and
+ * removes finished ones {@code swat.workspace.retain.minutes} after they were closed, or earlier, oldest
+ * first, while the memory budget or {@code swat.workspace.max.bytes} on disk is exceeded. Workspaces in use
+ * are never removed. Space used is published via JMX as {@value #OBJECT_NAME}.
+ */
+final class SwatWorkspaces implements SwatWorkspacesMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatWorkspaces.class);
+
+    static final String OBJECT_NAME = "org.zgis.wps.swat:type=Workspaces";
+
+    /**
+     * Prefix of workspace directories, other files in the roots are never touched.
+     */
+    private static final String PREFIX = "ws-";
+
+    private static SwatWorkspaces instance;
+
+    private final File memoryRoot;
+    private final long memoryBudget;
+    private final long memoryReserve;
+    private final File diskRoot;
+    private final long diskMaxBytes;
+    private final long retainMillis;
+
+    /**
+     * Workspaces by directory, in creation order; guarded by {@code this}.
+     */
+    private final Map<File, Workspace> workspaces = new LinkedHashMap<>();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * @param memoryRoot root on a RAM backed file system or null to create all workspaces on disk
+     */
+    SwatWorkspaces(File memoryRoot, long memoryBudget, long memoryReserve, File diskRoot, long diskMaxBytes,
+                   long retainMillis) throws IOException {
+        this.memoryRoot = memoryRoot;
+        this.memoryBudget = memoryBudget;
+        this.memoryReserve = memoryReserve;
+        this.diskRoot = diskRoot;
+        this.diskMaxBytes = diskMaxBytes;
+        this.retainMillis = retainMillis;
+        if (memoryRoot != null) {
+            removeLeftovers(memoryRoot);
+        }
+        removeLeftovers(diskRoot);
+    }
+
+    /**
+     * @return the shared workspaces, configured from {@link SwatConfiguration}, with a running reaper
+     */
+    static synchronized SwatWorkspaces getInstance() throws IOException {
+        if (instance == null) {
+            String memoryDir = SwatConfiguration.getString("workspace.memory.dir", null);
+            instance = new SwatWorkspaces(memoryDir != null ? new File(memoryDir) : null,
+                                          SwatConfiguration.getLong("workspace.memory.max.bytes", 2L << 30),
+                                          SwatConfiguration.getLong("workspace.memory.reserve.bytes", 256L << 20),
+                                          SwatConfiguration.getDirectory("workspace.dir", "workspaces"),
+                                          SwatConfiguration.getLong("workspace.max.bytes", 20L << 30),
+                                          SwatConfiguration.getLong("workspace.retain.minutes", 0) * 60 * 1000);
+            long interval = Math.max(1, SwatConfiguration.getLong("workspace.reaper.interval.seconds", 60));
+            ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("swat-workspace-reaper"));
+            final SwatWorkspaces workspaces = instance;
+            reaper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        workspaces.reap();
+                    } catch (RuntimeException e) {
+                        logger.warn("Reaping workspaces failed", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            SwatJmx.register(instance, OBJECT_NAME);
+        }
+        return instance;
+    }
+
+    /**
+     * Removes the workspaces of a previous process.
+     */
+    private static void removeLeftovers(File root) throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Could not create workspace root " + root);
+        }
+        File[] dirs = root.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.getName().startsWith(PREFIX)) {
+                    FileUtils.deleteQuietly(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a workspace, in memory if the budget allows.
+     *
+     * @param name part of the directory name, for logging and debugging
+     */
+    Workspace create(String name) throws IOException {
+        String dirName = PREFIX + name + "-" + UUID.randomUUID();
+        Workspace workspace = null;
+        if (this.memoryRoot != null) {
+            workspace = reserveInMemory(dirName);
+            if (workspace == null && removeFinished(true, this.memoryBudget - this.memoryReserve) > 0) {
+                workspace = reserveInMemory(dirName);
+            }
+            if (workspace == null) {
+                this.spilled.incrementAndGet();
+                logger.info("Memory budget for workspaces exhausted, creating " + name + " workspace on disk");
+            }
+        }
+        if (workspace == null) {
+            workspace = new Workspace(new File(this.diskRoot, dirName), false);
+            synchronized (this) {
+                this.workspaces.put(workspace.getDirectory(), workspace);
+            }
+        }
+        if (!workspace.getDirectory().mkdirs()) {
+            workspace.discard();
+            throw new IOException("Could not create workspace " + workspace.getDirectory());
+        }
+        return workspace;
+    }
+
+    /**
+     * Registers a workspace in memory if it fits into the budget; checked and registered at once, so
+     * concurrent requests can't overbook the budget.
+     *
+     * @return the workspace or null if it does not fit
+     */
+    private synchronized Workspace reserveInMemory(String dirName) {
+        if (getMemoryBytes() + this.memoryReserve > this.memoryBudget) {
+            return null;
+        }
+        Workspace workspace = new Workspace(new File(this.memoryRoot, dirName), true);
+        this.workspaces.put(workspace.getDirectory(), workspace);
+        return workspace;
+    }
+
+    /**
+     * Measures all workspaces and removes finished ones that were retained long enough or exceed the
+     * memory budget or the disk limit.
+     */
+    void reap() {
+        List<Workspace> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(this.workspaces.values());
+        }
+        long now = System.currentTimeMillis();
+        List<Workspace> expired = new ArrayList<>();
+        for (Workspace workspace : snapshot) {
+            workspace.measure();
+            if (workspace.isExpired(now)) {
+                expired.add(workspace);
+            }
+        }
+        int count = expired.size();
+        for (Workspace workspace : expired) {
+            workspace.remove();
+        }
+        count += removeFinished(true, this.memoryBudget);
+        count += removeFinished(false, this.diskMaxBytes);
+        String usage = getActiveWorkspaces() + " active, " + getFinishedWorkspaces() + " finished workspaces, "
+                + (getMemoryBytes() >> 20) + " MB in memory, " + (getDiskBytes() >> 20) + " MB on disk";
+        if (count > 0) {
+            logger.info("Removed " + count + " workspaces; " + usage);
+        }
+        else {
+            logger.debug(usage);
+        }
+    }
+
+    /**
+     * Removes finished workspaces, the longest finished first, until the workspaces of a root use at most
+     * {@code maxBytes}.
+     *
+     * @return number of removed workspaces
+     */
+    private int removeFinished(boolean inMemory, long maxBytes) {
+        long used = inMemory ? getMemoryBytes() : getDiskBytes();
+        if (used <= maxBytes) {
+            return 0;
+        }
+        List<Workspace> finished = new ArrayList<>();
+        synchronized (this) {
+            for (Workspace workspace : this.workspaces.values()) {
+                if (workspace.inMemory == inMemory && workspace.finishedAt > 0) {
+                    finished.add(workspace);
+                }
+            }
+        }
+        Collections.sort(finished, new Comparator<Workspace>() {
+            @Override
+            public int compare(Workspace o1, Workspace o2) {
+                return Long.compare(o1.finishedAt, o2.finishedAt);
+            }
+        });
+        int count = 0;
+        for (Workspace workspace : finished) {
+            if (used <= maxBytes) {
+                break;
+            }
+            used -= workspace.getAccountedBytes();
+            workspace.remove();
+            count++;
+        }
+        return count;
+    }
+
+    private synchronized long sum(boolean inMemory) {
+        long bytes = 0;
+        for (Workspace workspace : this.workspaces.values()) {
+            if (workspace.inMemory == inMemory) {
+                bytes += workspace.getAccountedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized int getActiveWorkspaces() {
+        int count = 0;
+        for (Workspace workspace : this.workspaces.values()) {
+            if (workspace.finishedAt == 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int getFinishedWorkspaces() {
+        return this.workspaces.size() - getActiveWorkspaces();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return sum(true);
+    }
+
+    @Override
+    public long getMemoryBudgetBytes() {
+        return this.memoryRoot != null ? this.memoryBudget : 0;
+    }
+
+    @Override
+    public long getDiskBytes() {
+        return sum(false);
+    }
+
+    @Override
+    public long getSpilledWorkspaces() {
+        return this.spilled.get();
+    }
+
+    @Override
+    public long getRemovedWorkspaces() {
+        return this.removed.get();
+    }
+
+    /**
+     * @return size of the files below {@code dir}; files removed while walking the tree are skipped
+     */
+    static long sizeOf(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = 0;
+        for (File file : files) {
+            size += file.isDirectory() ? sizeOf(file) : file.length();
+        }
+        return size;
+    }
+
+    /**
+     * A run directory. Closing it marks it finished, the reaper removes it later.
+     */
+    final class Workspace implements Closeable {
+        private final File directory;
+        private final boolean inMemory;
+        private volatile long bytes = -1;
+        private volatile long finishedAt = 0;
+
+        private Workspace(File directory, boolean inMemory) {
+            this.directory = directory;
+            this.inMemory = inMemory;
+        }
+
+        File getDirectory() {
+            return this.directory;
+        }
+
+        boolean isInMemory() {
+            return this.inMemory;
+        }
+
+        private void measure() {
+            this.bytes = sizeOf(this.directory);
+        }
+
+        /**
+         * @return the measured size, in memory at least the reserve
+         */
+        private long getAccountedBytes() {
+            long measured = Math.max(0, this.bytes);
+            return this.inMemory ? Math.max(measured, SwatWorkspaces.this.memoryReserve) : measured;
+        }
+
+        private boolean isExpired(long now) {
+            return this.finishedAt > 0 && now - this.finishedAt >= SwatWorkspaces.this.retainMillis;
+        }
+
+        private void remove() {
+            synchronized (SwatWorkspaces.this) {
+                if (SwatWorkspaces.this.workspaces.remove(this.directory) == null) {
+                    return;
+                }
+            }
+            FileUtils.deleteQuietly(this.directory);
+            SwatWorkspaces.this.removed.incrementAndGet();
+        }
+
+        /**
+         * Removes the workspace right away.
+         */
+        void discard() {
+            this.finishedAt = System.currentTimeMillis();
+            remove();
+        }
+
+        @Override
+        public void close() {
+            if (this.finishedAt == 0) {
+                measure();
+                this.finishedAt = System.currentTimeMillis();
+            }
+        }
+    }
+}
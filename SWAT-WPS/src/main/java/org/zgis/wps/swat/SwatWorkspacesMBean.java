@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+/**
+ * JMX view of the {@link SwatWorkspaces}, registered as {@value SwatWorkspaces#OBJECT_NAME}.
+ */
+public interface SwatWorkspacesMBean {
+
+    int getActiveWorkspaces();
+
+    int getFinishedWorkspaces();
+
+    long getMemoryBytes();
+
+    long getMemoryBudgetBytes();
+
+    long getDiskBytes();
+
+    long getSpilledWorkspaces();
+
+    long getRemovedWorkspaces();
+}
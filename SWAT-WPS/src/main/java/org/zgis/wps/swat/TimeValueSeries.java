@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.util.Arrays;
+
+/**
+ * Observations as primitive epoch milliseconds and values, instead of one object per observation.
+ * <p/>
+ * Times and values are kept in parallel {@code long[]} and {@code double[]} chunks of fixed size, so
+ * appending to a long record never copies the observations already held and no single huge array has to
+ * be allocated. Merging and daily aggregation work on sorted series in one linear pass without
+ * allocating.
+ */
+final class TimeValueSeries implements ObservationSink {
+
+    private static final int CHUNK_SHIFT = 13;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * How the observations of a day are combined into one daily value.
+     */
+    enum Aggregation {
+        SUM, MIN, MAX, MEAN
+    }
+
+    private long[][] times;
+    private double[][] values;
+    private int size = 0;
+    private boolean sorted = true;
+
+    TimeValueSeries() {
+        this(256);
+    }
+
+    TimeValueSeries(int capacity) {
+        int firstChunk = Math.min(Math.max(capacity, 16), CHUNK_SIZE);
+        this.times = new long[][]{new long[firstChunk]};
+        this.values = new double[][]{new double[firstChunk]};
+    }
+
+    @Override
+    public void observation(long time, double value) {
+        int chunk = this.size >>> CHUNK_SHIFT;
+        int offset = this.size & CHUNK_MASK;
+        if (chunk == this.times.length) {
+            this.times = Arrays.copyOf(this.times, chunk + 1);
+            this.values = Arrays.copyOf(this.values, chunk + 1);
+            this.times[chunk] = new long[CHUNK_SIZE];
+            this.values[chunk] = new double[CHUNK_SIZE];
+        }
+        else if (offset == this.times[chunk].length) {
+            // only the first chunk starts smaller than CHUNK_SIZE
+            int capacity = Math.min(offset * 2, CHUNK_SIZE);
+            this.times[chunk] = Arrays.copyOf(this.times[chunk], capacity);
+            this.values[chunk] = Arrays.copyOf(this.values[chunk], capacity);
+        }
+        if (this.size > 0 && time < getTime(this.size - 1)) {
+            this.sorted = false;
+        }
+        this.times[chunk][offset] = time;
+        this.values[chunk][offset] = value;
+        this.size++;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    long getTime(int index) {
+        return this.times[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    double getValue(int index) {
+        return this.values[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * @return index of the first observation at or after {@code time} in a sorted series, {@link #size()}
+     * if there is none
+     */
+    int indexOf(long time) {
+        int lo = 0;
+        int hi = this.size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getTime(mid) < time) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sorts the observations by time. Series arriving in order (the usual case) are not touched.
+     */
+    void sortByTime() {
+        if (!this.sorted) {
+            quickSort(0, this.size - 1);
+            this.sorted = true;
+        }
+    }
+
+    /**
+     * Merges two sorted series into {@code sink} in time order. The observations of {@code base} within
+     * {@code [from, to]} are replaced by those of {@code update}; observations of {@code update} outside
+     * of it are dropped.
+     */
+    static void merge(TimeValueSeries base, TimeValueSeries update, long from, long to, ObservationSink sink) {
+        int baseFrom = base.indexOf(from);
+        int baseTo = base.indexOf(to == Long.MAX_VALUE ? to : to + 1);
+        int updateFrom = update.indexOf(from);
+        int updateTo = update.indexOf(to == Long.MAX_VALUE ? to : to + 1);
+        for (int i = 0; i < baseFrom; i++) {
+            sink.observation(base.getTime(i), base.getValue(i));
+        }
+        for (int i = updateFrom; i < updateTo; i++) {
+            sink.observation(update.getTime(i), update.getValue(i));
+        }
+        for (int i = baseTo; i < base.size; i++) {
+            sink.observation(base.getTime(i), base.getValue(i));
+        }
+    }
+
+    /**
+     * Aggregates a sorted series to daily values (UTC days).
+     *
+     * @param firstDay    start of the first day, in milliseconds since the epoch
+     * @param daily       receives one value per day from {@code firstDay} on, NaN for days without
+     *                    observations
+     * @param aggregation how the observations of a day are combined
+     * @return number of days with observations
+     */
+    int aggregateDaily(long firstDay, double[] daily, Aggregation aggregation) {
+        Arrays.fill(daily, Double.NaN);
+        int days = 0;
+        int count = 0;
+        int day = -1;
+        long dayEnd = firstDay + (long) daily.length * DAY_MILLIS;
+        for (int i = indexOf(firstDay); i < this.size; i++) {
+            long time = getTime(i);
+            if (time >= dayEnd) {
+                break;
+            }
+            double value = getValue(i);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            int index = (int) ((time - firstDay) / DAY_MILLIS);
+            if (index != day) {
+                finishDay(daily, day, count, aggregation);
+                day = index;
+                count = 0;
+                daily[day] = value;
+                days++;
+            }
+            else {
+                switch (aggregation) {
+                    case SUM:
+                    case MEAN:
+                        daily[day] += value;
+                        break;
+                    case MIN:
+                        daily[day] = Math.min(daily[day], value);
+                        break;
+                    case MAX:
+                        daily[day] = Math.max(daily[day], value);
+                        break;
+                }
+            }
+            count++;
+        }
+        finishDay(daily, day, count, aggregation);
+        return days;
+    }
+
+    private static void finishDay(double[] daily, int day, int count, Aggregation aggregation) {
+        if (day >= 0 && aggregation == Aggregation.MEAN) {
+            daily[day] /= count;
+        }
+    }
+
+    private void quickSort(int lo, int hi) {
+        while (lo < hi) {
+            long pivot = getTime((lo + hi) >>> 1);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (getTime(i) < pivot) {
+                    i++;
+                }
+                while (getTime(j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // recurse into the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                quickSort(lo, j);
+                lo = i;
+            }
+            else {
+                quickSort(i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        long[] timesI = this.times[i >>> CHUNK_SHIFT];
+        long[] timesJ = this.times[j >>> CHUNK_SHIFT];
+        double[] valuesI = this.values[i >>> CHUNK_SHIFT];
+        double[] valuesJ = this.values[j >>> CHUNK_SHIFT];
+        int oi = i & CHUNK_MASK;
+        int oj = j & CHUNK_MASK;
+        long t = timesI[oi];
+        timesI[oi] = timesJ[oj];
+        timesJ[oj] = t;
+        double v = valuesI[oi];
+        valuesI[oi] = valuesJ[oj];
+        valuesJ[oj] = v;
+    }
+}
@@ -15,40 +15,24 @@
  */
 package org.zgis.wps.swat;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.TrueFileFilter;
-import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 import org.n52.wps.algorithm.annotation.*;
-import org.n52.wps.commons.context.ExecutionContextFactory;
 import org.n52.wps.io.data.GenericFileData;
 import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
 import org.n52.wps.server.AbstractAnnotatedAlgorithm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.security.CodeSource;
-import java.security.ProtectionDomain;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
+import java.util.List;
 
 /**
- * Runs SWAT model.
+ * Fetches weather from a SOS and returns it as zipped SWAT climate input files.
  */
 @Algorithm(
         version = "0.0.1", //TODO get this value from maven pom (via properties file)
-        abstrakt = "This Algorithm fethers GSOD weather from SOS and puts it in .",
+        abstrakt = "This Algorithm fetches GSOD weather from SOS and writes it as SWAT climate input files.",
         title = "GSOD weather fetcher",
         identifier = "swat-weather-fetch-algorithm",
         statusSupported = false,
@@ -58,8 +42,13 @@ public class WeatherFetchAlgorithm extends AbstractAnnotatedAlgorithm {
     private static final Logger logger = LoggerFactory.getLogger(WeatherFetchAlgorithm.class);
 
     private GenericFileData weatherZipped;
+    private String runMetrics;
     private String sosUrl;
     private String sosProcedure;
+    private List<String> stations;
+    private List<String> observedProperties;
+    private String endDate;
+    private int years = 3;
 
     @LiteralDataInput(
             identifier = "sos_url",
@@ -83,131 +72,100 @@ public class WeatherFetchAlgorithm extends AbstractAnnotatedAlgorithm {
         this.sosProcedure = sosProcedure;
     }
 
+    @LiteralDataInput(
+            identifier = "station",
+            title = "Stations",
+            abstrakt = "Features of interest (weather stations) to fetch, all stations if not given",
+            minOccurs = 0,
+            maxOccurs = 1000
+    )
+    public void setStations(List<String> stations) {
+        this.stations = stations;
+    }
+
+    @LiteralDataInput(
+            identifier = "observed_property",
+            title = "Observed properties",
+            abstrakt = "Observed properties to fetch, defaults to all properties SWAT needs (precipitation, "
+                    + "min/max temperature, humidity, wind speed and solar radiation)",
+            minOccurs = 0,
+            maxOccurs = 20
+    )
+    public void setObservedProperties(List<String> observedProperties) {
+        this.observedProperties = observedProperties;
+    }
+
+    @LiteralDataInput(
+            identifier = "end_date",
+            title = "End date",
+            abstrakt = "End of the fetched period as ISO 8601 date or date time (UTC unless given), "
+                    + "defaults to now",
+            minOccurs = 0,
+            maxOccurs = 1
+    )
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+
+    @LiteralDataInput(
+            identifier = "years",
+            title = "Years",
+            abstrakt = "Number of years before the end date to fetch",
+            minOccurs = 0,
+            maxOccurs = 1,
+            defaultValue = "3",
+            binding = LiteralIntBinding.class)
+    public void setYears(Integer years) {
+        if (years != null) {
+            if (years < 1) {
+                throw new IllegalArgumentException("years must be at least 1: " + years);
+            }
+            this.years = years;
+        }
+    }
+
     @ComplexDataOutput(identifier = "weather_zip",
             title = "Fetches weather as ZIP",
-            abstrakt = "ZIP file containing the SWAT output files.",
+            abstrakt = "ZIP file containing the SWAT precipitation (pcp1.pcp), temperature (tmp1.tmp), "
+                    + "humidity (hmd.hmd), wind speed (wnd.wnd) and solar radiation (slr.slr) files.",
             binding = GenericFileDataBinding.class)
     public GenericFileData getWeatherZipped() {
         return this.weatherZipped;
     }
 
+    @LiteralDataOutput(identifier = "run_metrics",
+            title = "run metrics",
+            abstrakt = "JSON object with the milliseconds spent in every phase of the execution (e.g. sos_fetch) "
+                    + "and the number of observations fetched.")
+    public String getRunMetrics() {
+        return this.runMetrics;
+    }
+
     @Execute
     public void run() throws IOException {
+        RunMetrics metrics = new RunMetrics("swat-weather-fetch-algorithm");
+        boolean failed = true;
         logger.info("Fetching Weather");
 
-        //TODO make a list of needed directories and create in loop
-        String tempDirStr = ExecutionContextFactory.getContext().getTempDirectoryPath();
-        File tempDir = new File(tempDirStr + System.getProperty("file.separator"));
-
-        logger.info("Temp dir is: " + tempDirStr);
-        logger.info("Temp file is: " + tempDir.getAbsolutePath());
-
-        try {
-            if (!tempDir.isDirectory() && !tempDir.mkdirs()) {
-                throw new IOException("Could not create temp dir " + tempDir);
-            }
-
-            //TODO fetch SOS
-            String response = getObservations(this.sosUrl, sosProcedure, 3);
-
-            //FIXME set file filter!
-            Collection<File> outFiles = FileUtils.listFiles(tempDir,
-                                                            new WildcardFileFilter("output.*"), TrueFileFilter.TRUE
-                                                           );
+        long workspaceStart = RunMetrics.start();
+        // the climate files are only needed until they are zipped, the workspace is removed afterwards
+        try (SwatWorkspaces.Workspace workspace = SwatWorkspaces.getInstance().create("weather")) {
+            metrics.finish(RunMetrics.Phase.WORKSPACE, workspaceStart);
+            DateTime end = SwatWeather.parseEndDate(this.endDate);
+            DateTime begin = end.minusYears(this.years);
+            SwatWeather weather = SwatWeather.fetch(this.sosUrl, this.sosProcedure, this.stations,
+                                                    this.observedProperties, begin, end, workspace.getDirectory(),
+                                                    metrics);
+            List<File> outFiles = weather.getFiles();
+            long start = RunMetrics.start();
             File outFilesZippend = org.n52.wps.io.IOUtils.zip(outFiles.toArray(new File[outFiles.size()]));
+            metrics.finish(RunMetrics.Phase.OUTPUT_ZIP, start);
+            metrics.set(RunMetrics.OUTPUT_ZIP_BYTES, outFilesZippend.length());
             this.weatherZipped = new GenericFileData(outFilesZippend, "application/zip");
+            failed = false;
         } finally {
-            //TODO FIXME is that really necessary? The Execution context should delete this?
-/*
-            if (tempDir.isDirectory()) {
-                FileUtils.deleteDirectory(tempDir);
-            }
-*/
-        }
-    }
-
-    private static String getObservations(String sosUrl, String sensor, String observedProperty,
-                                          int years) throws IOException {
-        String result = null;
-        String offering = null; // "SOE_GWL_MASL";
-        String procedure = sensor;
-        // String observedProperty =
-        // "http://vocab.smart-project.info/sensorweb/phenomenon/Humidity";
-        String responseFormat = "http://www.opengis.net/om/2.0"; // "http://www.opengis.net/waterml/2.0";
-        // String temporalFilter =
-        // "om:phenomenonTime,2014-02-17T12:00:00/2014-02-18T20:00:00";
-
-        DateTimeFormatter fmt = DateTimeFormat
-                .forPattern(" yyyy-MM-dd'T'HH:mm:ss");
-        DateTimeFormatter fmtTz = DateTimeFormat
-                .forPattern(" yyyy-MM-dd'T'HH:mm:ssZZ");
-        DateTimeFormatter fmtIso = ISODateTimeFormat.dateTime();
-
-        DateTime now = DateTime.parse("2016-01-01 00:00:00");
-        DateTime minusYears = now.minusYears(years);
-
-        String temporalFilter = "om:phenomenonTime,"
-                + minusYears.toString(fmtIso) + "/" + now.toString(fmtIso);
-
-        StringBuilder resultList = new StringBuilder();
-        StringBuilder kvpRequestParams = new StringBuilder();
-        kvpRequestParams.append("?service=" + "SOS");
-        kvpRequestParams.append("&version=" + "2.0.0");
-        kvpRequestParams.append("&request=" + "GetObservation");
-
-        if (procedure != null && !procedure.isEmpty()) {
-            kvpRequestParams.append("&procedure="
-                                            + URLEncoder.encode(procedure, "UTF-8"));
-        }
-
-        if (observedProperty != null && !observedProperty.isEmpty()) {
-         kvpRequestParams.append("&observedProperty="
-         + URLEncoder.encode(observedProperty, "UTF-8"));
-         }
-
-        if (responseFormat != null && !responseFormat.isEmpty()) {
-            kvpRequestParams.append("&responseFormat="
-                                            + URLEncoder.encode(responseFormat, "UTF-8"));
-        }
-        // om:phenomenonTime,2010-01-01T12:00:00/2011-07-01T14:00:00
-        if (temporalFilter != null && !temporalFilter.isEmpty()) {
-            kvpRequestParams.append("&temporalFilter="
-                                            + URLEncoder.encode(temporalFilter, "UTF-8"));
-        }
-
-        // set the connection timeout value to xx milliseconds
-        final HttpParams httpParams = new BasicHttpParams();
-        HttpClient httpclient = new DefaultHttpClient(httpParams);
-        HttpGet httpget = new HttpGet(sosUrl + kvpRequestParams.toString());
-
-        HttpResponse response;
-        HttpEntity entity;
-
-        response = httpclient.execute(httpget);
-        HttpEntity resEntity = response.getEntity();
-        BufferedReader rd = new BufferedReader(new InputStreamReader(
-                resEntity.getContent()));
-        String line;
-        while ((line = rd.readLine()) != null) {
-            resultList.append(line);
-        }
-        final String responseBody = resultList.toString();
-        OM2MeasParse read = new OM2MeasParse();
-        List<ObservationModel> tvps = read.readData(responseBody);
-
-        httpclient.getConnectionManager().shutdown();
-
-        Collections.sort(tvps, new Comparator<ObservationModel>() {
-            public int compare(ObservationModel m1, ObservationModel m2) {
-                return m1.getDatetime().compareTo(m2.getDatetime());
-            }
-        });
-
-        if (tvps.size() > 0) {
-            return "OK - [" + sensor + "] last: "
-                    + tvps.get(tvps.size() - 1).getDate();
-        } else {
-            return "MISSING";
+            metrics.report(failed);
+            this.runMetrics = metrics.toJson();
         }
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import java.util.Locale;
+
+/**
+ * Weather variables SWAT reads from its climate input files, with the observed properties they are
+ * fetched as from the SOS.
+ */
+enum WeatherVariable {
+
+    PRECIPITATION("http://vocab.example.com/sensorweb/phenomenon/Precipitation",
+                  TimeValueSeries.Aggregation.SUM),
+    TEMPERATURE_MAX("http://vocab.example.com/sensorweb/phenomenon/MaxTemperature",
+                    TimeValueSeries.Aggregation.MAX),
+    TEMPERATURE_MIN("http://vocab.example.com/sensorweb/phenomenon/MinTemperature",
+                    TimeValueSeries.Aggregation.MIN),
+    HUMIDITY("http://vocab.example.com/sensorweb/phenomenon/Humidity",
+             TimeValueSeries.Aggregation.MEAN),
+    WIND_SPEED("http://vocab.example.com/sensorweb/phenomenon/WindSpeed",
+               TimeValueSeries.Aggregation.MEAN),
+    SOLAR_RADIATION("http://vocab.example.com/sensorweb/phenomenon/SolarRadiation",
+                    TimeValueSeries.Aggregation.MEAN);
+
+    private final String defaultProperty;
+    private final TimeValueSeries.Aggregation dailyAggregation;
+
+    WeatherVariable(String defaultProperty, TimeValueSeries.Aggregation dailyAggregation) {
+        this.defaultProperty = defaultProperty;
+        this.dailyAggregation = dailyAggregation;
+    }
+
+    /**
+     * @return the variable fetched as {@code observedProperty} or null if it is none of them
+     */
+    static WeatherVariable forObservedProperty(String observedProperty) {
+        for (WeatherVariable variable : values()) {
+            if (variable.getObservedProperty().equals(observedProperty)) {
+                return variable;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return how observations are combined into the daily values SWAT reads
+     */
+    TimeValueSeries.Aggregation getDailyAggregation() {
+        return this.dailyAggregation;
+    }
+
+    /**
+     * @return the observed property of this variable, can be changed with
+     * {@code swat.sos.property.<variable>}, e.g. {@code swat.sos.property.humidity}
+     */
+    String getObservedProperty() {
+        return SwatConfiguration.getString("sos.property." + name().toLowerCase(Locale.ROOT),
+                                           this.defaultProperty);
+    }
+}
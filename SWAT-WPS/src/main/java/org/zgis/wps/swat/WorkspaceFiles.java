@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * File helpers to build run workspaces out of shared, read-only model trees.
+ * <p/>
+ * SWAT input files (see {@code swat.workspace.link.extensions}) are hard linked into the workspace, so a
+ * workspace costs a few metadata operations instead of a copy. Everything else, in particular the files
+ * SWAT writes to (see {@code swat.workspace.copy.patterns}), is copied, and anything the server changes
+ * before the run has to be broken out with {@link #makePrivate(File)}.
+ */
+final class WorkspaceFiles {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkspaceFiles.class);
+
+    static final String DEFAULT_COPY_PATTERNS = "output*,*.out,input.std,fin.fin,watout.dat,chan.deg";
+
+    /**
+     * Extensions of the files SWAT only reads.
+     */
+    static final String DEFAULT_LINK_EXTENSIONS = "cio,fig,bsn,wwq,sub,hru,mgt,sol,chm,gw,rte,swq,wgn,pnd,wus,"
+            + "sep,sdr,ops,res,lwq,pcp,tmp,slr,hmd,wnd,pet,atm,dat,lup,wpd,wet,cst,qst";
+
+    private static volatile boolean linkWarningLogged = false;
+
+    private WorkspaceFiles() {
+    }
+
+    /**
+     * Mirrors the tree {@code source} into {@code target} using hard links for the input files of SWAT
+     * and copies for all other files (or if the file system does not support links).
+     *
+     * @return number of files linked or copied
+     */
+    static int linkTree(File source, File target) throws IOException {
+        FileFilter copied = getCopyFilter();
+        return linkTree(source, target, copied);
+    }
+
+    private static int linkTree(File source, File target, FileFilter copied) throws IOException {
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Could not create dir " + target);
+        }
+        File[] children = source.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + source);
+        }
+        int count = 0;
+        for (File child : children) {
+            File dest = new File(target, child.getName());
+            if (child.isDirectory()) {
+                count += linkTree(child, dest, copied);
+            }
+            else if (copied.accept(child)) {
+                copy(child, dest);
+                count++;
+            }
+            else {
+                linkOrCopy(child, dest);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Hard links {@code source} to {@code dest}, or copies it if the file system does not support links.
+     */
+    static void linkOrCopy(File source, File dest) throws IOException {
+        try {
+            Files.createLink(dest.toPath(), source.toPath());
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (!linkWarningLogged) {
+                linkWarningLogged = true;
+                logger.warn("Could not hard link " + source + " to " + dest + ", falling back to copies: " + e);
+            }
+            copy(source, dest);
+        }
+    }
+
+    private static void copy(File source, File dest) throws IOException {
+        Files.copy(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if (!dest.setWritable(true)) {
+            throw new IOException("Could not make " + dest + " writable");
+        }
+    }
+
+    /**
+     * Replaces a (possibly hard linked) workspace file with a private, writable copy, so it can be
+     * changed without touching the shared model tree.
+     */
+    static void makePrivate(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), "." + file.getName() + ".private");
+        copy(file, tmp);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Marks all files below {@code dir} read-only, so a process that accidentally opens a shared file
+     * for writing fails instead of corrupting every workspace linked to it.
+     */
+    static void makeReadOnly(File dir) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                makeReadOnly(child);
+            }
+            else if (!child.setWritable(false, false)) {
+                logger.debug("Could not make " + child + " read-only");
+            }
+        }
+    }
+
+    private static FileFilter getCopyFilter() {
+        final FileFilter copied = new WildcardFileFilter(getList("workspace.copy.patterns", DEFAULT_COPY_PATTERNS));
+        final Set<String> linked = new HashSet<>();
+        for (String extension : getList("workspace.link.extensions", DEFAULT_LINK_EXTENSIONS)) {
+            linked.add(extension.toLowerCase(Locale.ROOT));
+        }
+        return new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                int dot = name.lastIndexOf('.');
+                return copied.accept(file) || dot < 0
+                        || !linked.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            }
+        };
+    }
+
+    private static List<String> getList(String key, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : SwatConfiguration.getString(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class DirectoryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void evictsLeastRecentlyUsedEntries() throws IOException {
+        DirectoryCache cache = new DirectoryCache("test", this.folder.newFolder("cache"), 250, 0);
+        put(cache, key('a'), 100).close();
+        put(cache, key('b'), 100).close();
+        cache.acquire(key('a')).close();
+
+        put(cache, key('c'), 100).close();
+
+        Assert.assertNull(cache.acquire(key('b')));
+        Assert.assertFalse(new File(this.folder.getRoot(), "cache/" + key('b')).exists());
+        Assert.assertNotNull(cache.acquire(key('a')));
+        Assert.assertNotNull(cache.acquire(key('c')));
+        Assert.assertEquals(200, cache.getTotalBytes());
+    }
+
+    @Test
+    public void keepsPinnedEntries() throws IOException {
+        DirectoryCache cache = new DirectoryCache("test", this.folder.newFolder("cache"), 150, 0);
+        DirectoryCache.Lease first = put(cache, key('a'), 100);
+        DirectoryCache.Lease second = put(cache, key('b'), 100);
+        // both are in use, the cache stays over budget
+        Assert.assertEquals(2, cache.size());
+
+        second.close();
+        Assert.assertEquals(1, cache.size());
+        Assert.assertTrue(first.getDirectory().isDirectory());
+        Assert.assertNull(cache.acquire(key('b')));
+
+        first.close();
+        first.close();
+        Assert.assertNotNull(cache.acquire(key('a')));
+    }
+
+    @Test
+    public void replacesEntries() throws IOException {
+        File root = this.folder.newFolder("cache");
+        DirectoryCache cache = new DirectoryCache("test", root, Long.MAX_VALUE, 0);
+        put(cache, key('a'), 100).close();
+        put(cache, key('a'), 30).close();
+
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(30, cache.getTotalBytes());
+        try (DirectoryCache.Lease lease = cache.acquire(key('a'))) {
+            Assert.assertEquals(30, new File(lease.getDirectory(), "data").length());
+            File prepared = cache.newTempDir();
+            try {
+                cache.put(key('a'), prepared);
+                Assert.fail("the entry is in use");
+            } catch (IOException expected) {
+                Assert.assertEquals(30, new File(lease.getDirectory(), "data").length());
+            }
+            // the caller still owns the prepared directory
+            Assert.assertTrue(prepared.isDirectory());
+            FileUtils.deleteDirectory(prepared);
+        }
+        // no prepared or replaced directories are left next to the entry
+        Assert.assertEquals(Arrays.asList(key('a')), Arrays.asList(root.list()));
+    }
+
+    @Test
+    public void dropsExpiredEntriesAndReloadsTheRest() throws IOException {
+        File root = this.folder.newFolder("cache");
+        DirectoryCache cache = new DirectoryCache("test", root, Long.MAX_VALUE, 60 * 60 * 1000);
+        put(cache, key('a'), 10).close();
+        put(cache, key('b'), 10).close();
+        Assert.assertTrue(new File(root, key('a')).setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000));
+
+        DirectoryCache reloaded = new DirectoryCache("test", root, Long.MAX_VALUE, 60 * 60 * 1000);
+        Assert.assertEquals(1, reloaded.size());
+        Assert.assertNull(reloaded.acquire(key('a')));
+        Assert.assertNotNull(reloaded.acquire(key('b')));
+        Assert.assertFalse(new File(root, key('a')).exists());
+    }
+
+    static String key(char c) {
+        char[] key = new char[64];
+        Arrays.fill(key, c);
+        return new String(key);
+    }
+
+    private static DirectoryCache.Lease put(DirectoryCache cache, String key, int bytes) throws IOException {
+        File prepared = cache.newTempDir();
+        FileUtils.writeByteArrayToFile(new File(prepared, "data"), new byte[bytes]);
+        return cache.put(key, prepared);
+    }
+}
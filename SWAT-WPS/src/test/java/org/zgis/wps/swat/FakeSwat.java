@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Generates a shell script that stands in for the SWAT executable in load tests.
+ * <p/>
+ * The script prints a progress line per simulated year followed by filler lines, sleeps for the configured
+ * time per year and writes {@code output.rch}, {@code output.sub}, {@code output.hru} and {@code output.std}
+ * of the configured size with random numbers in SWAT's fixed width layout, so console capture, packing and
+ * scheduling see realistic volumes without the real model.
+ */
+final class FakeSwat {
+
+    private static final String[] OUTPUT_FILES = {"output.rch", "output.sub", "output.hru", "output.std"};
+    private static final String[] ROW_PREFIXES = {"REACH", "BIGSUB", "AGRL", " "};
+
+    private final int years;
+    private final int linesPerYear;
+    private final long millisPerYear;
+    private final long outputBytes;
+
+    /**
+     * @param years         number of "Executing year" lines
+     * @param linesPerYear  console filler lines printed per year
+     * @param millisPerYear time slept per year
+     * @param outputBytes   approximate size of every output file
+     */
+    FakeSwat(int years, int linesPerYear, long millisPerYear, long outputBytes) {
+        this.years = years;
+        this.linesPerYear = linesPerYear;
+        this.millisPerYear = millisPerYear;
+        this.outputBytes = outputBytes;
+    }
+
+    int getYears() {
+        return this.years;
+    }
+
+    /**
+     * Writes the script to {@code file} and makes it executable.
+     */
+    File write(File file) throws IOException {
+        FileUtils.writeStringToFile(file, script(), "ISO-8859-1");
+        if (!file.setExecutable(true)) {
+            throw new IOException("Could not make " + file + " executable");
+        }
+        return file;
+    }
+
+    String script() {
+        StringBuilder script = new StringBuilder("#!/bin/sh\n");
+        script.append("year=1\n")
+              .append("while [ $year -le ").append(this.years).append(" ]; do\n")
+              .append("  echo \"  Executing year $year\"\n");
+        if (this.linesPerYear > 0) {
+            script.append("  yes '  Fake SWAT simulating a day of the year' | head -n ")
+                  .append(this.linesPerYear).append('\n');
+        }
+        if (this.millisPerYear > 0) {
+            script.append("  sleep ").append(String.format(Locale.ROOT, "%.3f", this.millisPerYear / 1000.0))
+                  .append('\n');
+        }
+        script.append("  year=$((year + 1))\n")
+              .append("done\n");
+        for (int i = 0; i < OUTPUT_FILES.length; i++) {
+            script.append("awk -v n=").append(this.outputBytes).append(" -v p='").append(ROW_PREFIXES[i])
+                  .append("' -v seed=").append(i).append(" 'BEGIN { srand(seed);")
+                  .append(" print \" SWAT fake output\";")
+                  .append(" print \"      RCH      GIS   MON     AREAkm2 FLOW_INcms FLOW_OUTcms   EVAPcms\";")
+                  .append(" s = 0; r = 0;")
+                  .append(" while (s < n) { r++;")
+                  .append(" line = sprintf(\"%-6s%4d %8d %5d%12.4E%12.4E%12.4E%12.4E\",")
+                  .append(" p, r % 100 + 1, 0, r % 12 + 1, 101.0, rand() * 100, rand() * 100, rand());")
+                  .append(" print line; s += length(line) + 1 } }' > ").append(OUTPUT_FILES[i]).append('\n');
+        }
+        script.append("echo '  Execution successfully completed'\n");
+        return script.toString();
+    }
+}
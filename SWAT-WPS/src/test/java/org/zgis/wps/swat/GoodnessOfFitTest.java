@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GoodnessOfFitTest {
+
+    @Test
+    public void perfectFit() {
+        GoodnessOfFit fit = new GoodnessOfFit();
+        for (int i = 1; i <= 10; i++) {
+            fit.add(i, i);
+        }
+        fit.add(Double.NaN, 3);
+        Assert.assertEquals(10, fit.getCount());
+        Assert.assertEquals(1, fit.getNse(), 1e-12);
+        Assert.assertEquals(1, fit.getKge(), 1e-12);
+        Assert.assertEquals(0, fit.getPbias(), 1e-12);
+    }
+
+    @Test
+    public void biasedFit() {
+        GoodnessOfFit fit = new GoodnessOfFit();
+        double[] observed = {1, 2, 3, 4};
+        for (double value : observed) {
+            fit.add(value, value * 0.5);
+        }
+        // sum of squared errors 7.5, variance sum 5
+        Assert.assertEquals(-0.5, fit.getNse(), 1e-12);
+        // r = 1, alpha = 0.5, beta = 0.5
+        Assert.assertEquals(1 - Math.sqrt(0.5), fit.getKge(), 1e-12);
+        Assert.assertEquals(50, fit.getPbias(), 1e-12);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests the pieces of the load test harness, see {@link SwatLoadDriver}.
+ */
+public class LoadHarnessTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fakeSwatPrintsProgressAndWritesOutputs() throws Exception {
+        Assume.assumeTrue(File.separatorChar == '/' && new File("/bin/sh").canExecute());
+        File swat = new FakeSwat(3, 10, 0, 20000).write(this.folder.newFile("swat"));
+        File dir = this.folder.newFolder("run");
+
+        Process process = new ProcessBuilder(swat.getAbsolutePath()).directory(dir).redirectErrorStream(true).start();
+        String console = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8.name());
+        Assert.assertEquals(0, process.waitFor());
+
+        Assert.assertEquals(3 + 30 + 1, console.split("\n").length);
+        Assert.assertTrue(console.contains("  Executing year 3\n"));
+        Assert.assertTrue(console.endsWith("  Execution successfully completed\n"));
+        for (String name : new String[]{"output.rch", "output.sub", "output.hru", "output.std"}) {
+            File output = new File(dir, name);
+            Assert.assertTrue(name, output.length() >= 20000 && output.length() < 20200);
+        }
+        String reach = FileUtils.readLines(new File(dir, "output.rch"), "ISO-8859-1").get(2);
+        Assert.assertTrue(reach, reach.startsWith("REACH    2"));
+    }
+
+    @Test
+    public void sosStubServesTheRequestedPeriod() throws IOException {
+        DateTime end = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        try (SosStub sos = new SosStub(60 * 60 * 1000, 0)) {
+            TimeValueSeries series = new SosClient(1, 5000, 5000).getObservations(
+                    sos.getUrl(), new SosClient.Query("gsod", "http://x/p?a&b", "station-1"), end.minusDays(2), end);
+
+            Assert.assertEquals(49, series.size());
+            Assert.assertEquals(end.minusDays(2).getMillis(), series.getTime(0));
+            Assert.assertEquals(end.getMillis(), series.getTime(48));
+            Assert.assertEquals(1, sos.getRequests());
+            Assert.assertEquals(49, sos.getObservations());
+        }
+    }
+
+    @Test
+    public void writesModelsAndPercentiles() throws IOException {
+        File zip = SwatLoadDriver.writeModel(this.folder.newFile("model.zip"), 7, 5, 1000);
+        try (ZipFile model = new ZipFile(zip)) {
+            Assert.assertEquals(6, model.size());
+            Assert.assertEquals(7, (int) SwatFileCio.read(model).getInt("NBYR"));
+        }
+        long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        Assert.assertEquals(5, SwatLoadDriver.percentile(sorted, 50));
+        Assert.assertEquals(10, SwatLoadDriver.percentile(sorted, 99));
+        Assert.assertEquals(1, SwatLoadDriver.percentile(sorted, 0));
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class OM2StreamingParserTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<sos:GetObservationResponse xmlns:sos=\"http://www.opengis.net/sos/2.0\""
+            + " xmlns:om=\"http://www.opengis.net/om/2.0\" xmlns:gml=\"http://www.opengis.net/gml/3.2\""
+            + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">";
+
+    @Test
+    public void parsesMeasurementsAndTimeReferences() throws IOException {
+        String xml = HEADER
+                + observation("<om:phenomenonTime><gml:TimeInstant gml:id=\"t1\">"
+                                      + "<gml:timePosition>2015-01-02T00:00:00.000Z</gml:timePosition>"
+                                      + "</gml:TimeInstant></om:phenomenonTime>", "1.5")
+                + observation("<om:phenomenonTime xlink:href=\"#t1\"/>", "2.5")
+                + observation("<om:phenomenonTime><gml:TimePeriod gml:id=\"t2\">"
+                                      + "<gml:beginPosition>2015-01-01T00:00:00+01:00</gml:beginPosition>"
+                                      + "<gml:endPosition>2015-01-02T00:00:00+01:00</gml:endPosition>"
+                                      + "</gml:TimePeriod></om:phenomenonTime>", "-3")
+                + observation("<om:phenomenonTime xlink:href=\"#t1\"/>", "n/a")
+                + "</sos:GetObservationResponse>";
+
+        TimeValueSeries series = new TimeValueSeries();
+        int count = new OM2StreamingParser().parse(stream(xml), series);
+
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(1420156800000L, series.getTime(0));
+        Assert.assertEquals(1.5, series.getValue(0), 0);
+        Assert.assertEquals(1420156800000L, series.getTime(1));
+        Assert.assertEquals(1420066800000L, series.getTime(2));
+        Assert.assertEquals(-3, series.getValue(2), 0);
+
+        series.sortByTime();
+        Assert.assertEquals(1420066800000L, series.getTime(0));
+    }
+
+    @Test
+    public void remembersBoundedNumberOfTimeIds() throws IOException {
+        int observations = 100000;
+        StringBuilder xml = new StringBuilder(HEADER);
+        for (int i = 0; i < observations; i++) {
+            if (i % 2 == 0) {
+                xml.append(observation("<om:phenomenonTime><gml:TimeInstant gml:id=\"t" + i + "\">"
+                                               + "<gml:timePosition>" + new DateTime(i * 3600000L, DateTimeZone.UTC)
+                                               + "</gml:timePosition></gml:TimeInstant></om:phenomenonTime>",
+                                       Integer.toString(i)));
+            }
+            else {
+                xml.append(observation("<om:phenomenonTime xlink:href=\"#t" + (i - 1) + "\"/>",
+                                       Integer.toString(i)));
+            }
+        }
+        xml.append("</sos:GetObservationResponse>");
+
+        TimeValueSeries series = new TimeValueSeries();
+        OM2StreamingParser parser = new OM2StreamingParser();
+        int count = parser.parse(stream(xml.toString()), series);
+
+        Assert.assertEquals(observations, count);
+        Assert.assertEquals(OM2StreamingParser.REFERENCED_TIMES, parser.getReferencedTimes());
+        Assert.assertEquals((observations - 2) * 3600000L, series.getTime(observations - 1));
+    }
+
+    @Test(expected = IOException.class)
+    public void reportsExceptions() throws IOException {
+        String xml = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">"
+                + "<ows:Exception exceptionCode=\"InvalidParameterValue\">"
+                + "<ows:ExceptionText>unknown procedure</ows:ExceptionText>"
+                + "</ows:Exception></ows:ExceptionReport>";
+        new OM2StreamingParser().parse(stream(xml), new TimeValueSeries());
+    }
+
+    private static String observation(String phenomenonTime, String result) {
+        return "<sos:observationData><om:OM_Observation gml:id=\"o\">" + phenomenonTime
+                + "<om:result xsi:type=\"gml:MeasureType\" uom=\"mm\">" + result + "</om:result>"
+                + "</om:OM_Observation></sos:observationData>";
+    }
+
+    private static ByteArrayInputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ObservationStoreTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private String url;
+    private final List<String> temporalFilters = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/sos", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String filter = null;
+                for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+                    if (parameter.startsWith("temporalFilter=")) {
+                        filter = URLDecoder.decode(parameter.substring(15), "UTF-8");
+                    }
+                }
+                temporalFilters.add(filter);
+                // one observation per day in the requested period, the value is the day of the month
+                String[] period = filter.substring(filter.indexOf(',') + 1).split("/");
+                long begin = DateTime.parse(period[0]).getMillis();
+                long end = DateTime.parse(period[1]).getMillis();
+                StringBuilder xml = new StringBuilder("<sos:GetObservationResponse"
+                        + " xmlns:sos=\"http://www.opengis.net/sos/2.0\" xmlns:om=\"http://www.opengis.net/om/2.0\""
+                        + " xmlns:gml=\"http://www.opengis.net/gml/3.2\">");
+                for (long time = (begin + DAY - 1) / DAY * DAY; time <= end; time += DAY) {
+                    DateTime day = new DateTime(time, DateTimeZone.UTC);
+                    xml.append("<om:OM_Observation><om:phenomenonTime><gml:TimeInstant><gml:timePosition>")
+                       .append(day).append("</gml:timePosition></gml:TimeInstant></om:phenomenonTime><om:result>")
+                       .append(day.getDayOfMonth()).append("</om:result></om:OM_Observation>");
+                }
+                byte[] body = xml.append("</sos:GetObservationResponse>").toString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        this.server.start();
+        this.url = "http://localhost:" + this.server.getAddress().getPort() + "/sos";
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void fetchesOnlyMissingIntervals() throws IOException {
+        SosClient client = new SosClient(2, 5000, 5000);
+        List<SosClient.Query> queries = Collections.singletonList(new SosClient.Query("gsod", "pcp", "s1"));
+        DateTime begin = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC);
+        DateTime end = new DateTime(2015, 3, 1, 0, 0, DateTimeZone.UTC);
+
+        ObservationStore store = new ObservationStore(this.folder.getRoot(), 0);
+        TimeValueSeries first = store.getObservations(client, this.url, queries, begin, end.minusMonths(1))
+                                     .get(queries.get(0));
+        Assert.assertEquals(32, first.size());
+        Assert.assertEquals(1, this.temporalFilters.size());
+
+        // a new instance reads the stored series from disk
+        store = new ObservationStore(this.folder.getRoot(), 0);
+        Map<SosClient.Query, TimeValueSeries> second = store.getObservations(client, this.url, queries, begin, end);
+        Assert.assertEquals(2, this.temporalFilters.size());
+        Assert.assertEquals("om:phenomenonTime,2015-02-01T00:00:00.000Z/2015-03-01T00:00:00.000Z",
+                            this.temporalFilters.get(1));
+        TimeValueSeries series = second.get(queries.get(0));
+        Assert.assertEquals(60, series.size());
+        for (int i = 0; i < series.size(); i++) {
+            Assert.assertEquals(begin.plusDays(i).getMillis(), series.getTime(i));
+        }
+
+        store.getObservations(client, this.url, queries, begin.plusDays(3), end.minusDays(3));
+        Assert.assertEquals(2, this.temporalFilters.size());
+    }
+
+    @Test
+    public void refetchesUnsettledPeriod() throws IOException {
+        SosClient client = new SosClient(2, 5000, 5000);
+        List<SosClient.Query> queries = Collections.singletonList(new SosClient.Query("gsod", "pcp", "s1"));
+        DateTime end = DateTime.now(DateTimeZone.UTC);
+
+        ObservationStore store = new ObservationStore(this.folder.getRoot(), 10 * DAY);
+        store.getObservations(client, this.url, queries, end.minusDays(30), end);
+        store.getObservations(client, this.url, queries, end.minusDays(30), end);
+        Assert.assertEquals(2, this.temporalFilters.size());
+        String period = this.temporalFilters.get(1).substring("om:phenomenonTime,".length());
+        long refetched = DateTime.parse(period.split("/")[0]).getMillis();
+        Assert.assertTrue(refetched >= end.minusDays(11).getMillis());
+        Assert.assertTrue(refetched <= end.minusDays(9).getMillis());
+    }
+
+    @Test
+    public void joinsCoveredIntervals() {
+        ObservationStore.Entry entry = new ObservationStore.Entry(new long[0], new TimeValueSeries());
+        entry.cover(10, 20);
+        entry.cover(30, 40);
+        Assert.assertArrayEquals(new long[]{10, 20, 30, 40}, entry.getCovered());
+        Assert.assertArrayEquals(new long[]{0, 10, 20, 30, 40, 50}, entry.missing(0, 50));
+        Assert.assertArrayEquals(new long[]{20, 30}, entry.missing(15, 35));
+        Assert.assertArrayEquals(new long[0], entry.missing(12, 18));
+
+        entry.cover(0, 5);
+        entry.cover(18, 30);
+        Assert.assertArrayEquals(new long[]{0, 5, 10, 40}, entry.getCovered());
+        entry.cover(1, 45);
+        Assert.assertArrayEquals(new long[]{0, 45}, entry.getCovered());
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PercentProgressListenerTest {
+
+    @Test
+    public void reportsEachPercentOnce() {
+        Assert.assertEquals(Arrays.asList(1, 50, 100), report(0, 100, 0, 0.005, 0.01, 0.015, 0.5, 0.5, 0.3, 1));
+    }
+
+    @Test
+    public void mapsTheRunToTheRemainingRange() {
+        Assert.assertEquals(Arrays.asList(54, 90, 99), report(10, 99, 0, 0.01, 0.5, 0.9, 1, 1.5));
+    }
+
+    private static List<Integer> report(int first, int last, double... fractions) {
+        final List<Integer> reported = new ArrayList<>();
+        PercentProgressListener listener = new PercentProgressListener(first, last) {
+            @Override
+            void report(int percent) {
+                reported.add(percent);
+            }
+        };
+        for (double fraction : fractions) {
+            listener.progress(fraction);
+        }
+        return reported;
+    }
+}
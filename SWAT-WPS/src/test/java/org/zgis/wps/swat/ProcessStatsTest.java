@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ProcessStatsTest {
+
+    @Test
+    public void readsCpuTimeAndPeakMemory() throws IOException, InterruptedException {
+        Assume.assumeTrue(new File("/proc/self/stat").isFile() && new File("/bin/sh").canExecute());
+        Process process = new ProcessBuilder("/bin/sh", "-c", "i=0; while [ $i -lt 20000 ]; do i=$((i+1)); done; "
+                + "read line").start();
+        try {
+            ProcessStats stats = ProcessStats.of(process);
+            Assert.assertNotNull(stats);
+            Thread.sleep(200);
+            stats.sample();
+            Assert.assertTrue(stats.getCpuMillis() >= 0);
+            Assert.assertTrue(stats.getPeakRssKb() > 0);
+        } finally {
+            process.destroy();
+        }
+        process.waitFor();
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RunMetricsTest {
+
+    @Test
+    public void summarizesPhasesAndFigures() {
+        RunMetrics metrics = new RunMetrics("swat-runner-algorithm");
+        metrics.addMillis(RunMetrics.Phase.SWAT, 1500);
+        metrics.addMillis(RunMetrics.Phase.WORKSPACE, 3);
+        metrics.addMillis(RunMetrics.Phase.SWAT, 500);
+        metrics.set(RunMetrics.OUTPUT_BYTES, 2048);
+        metrics.set(RunMetrics.SWAT_CPU_MILLIS, -1);
+
+        Assert.assertEquals(2000, metrics.getMillis(RunMetrics.Phase.SWAT));
+        Assert.assertEquals(-1, metrics.getMillis(RunMetrics.Phase.OUTPUT_ZIP));
+        Assert.assertEquals(-1, metrics.get(RunMetrics.SWAT_CPU_MILLIS));
+        String json = metrics.toJson();
+        Assert.assertTrue(json, json.startsWith("{\"algorithm\":\"swat-runner-algorithm\",\"failed\":false,"
+                                                        + "\"total_ms\":"));
+        Assert.assertTrue(json, json.endsWith(",\"phases_ms\":{\"workspace_setup\":3,\"swat_run\":2000},"
+                                                      + "\"output_bytes\":2048}"));
+    }
+
+    @Test
+    public void aggregatesReportedRuns() {
+        SwatMetrics swatMetrics = new SwatMetrics();
+        for (int i = 1; i <= 20; i++) {
+            RunMetrics metrics = new RunMetrics("swat-runner-algorithm");
+            metrics.addMillis(RunMetrics.Phase.SWAT, i * 100);
+            metrics.set(RunMetrics.OUTPUT_BYTES, 10);
+            metrics.set(RunMetrics.SWAT_PEAK_RSS_KB, 1000);
+            swatMetrics.record(metrics);
+        }
+        RunMetrics failed = new RunMetrics("swat-weather-fetch-algorithm");
+        failed.addMillis(RunMetrics.Phase.SOS_FETCH, 7);
+        swatMetrics.record(failed);
+
+        Assert.assertEquals(Long.valueOf(20), swatMetrics.getCounters().get("swat-runner-algorithm.executions"));
+        Assert.assertEquals(Long.valueOf(200), swatMetrics.getCounters().get(RunMetrics.OUTPUT_BYTES));
+        Assert.assertEquals(Long.valueOf(20), swatMetrics.getHistogramCounts().get("swat_run_ms"));
+        Assert.assertEquals(Long.valueOf(1050), swatMetrics.getHistogramMeans().get("swat_run_ms"));
+        Assert.assertEquals(Long.valueOf(2000), swatMetrics.getHistogramMaxima().get("swat_run_ms"));
+        // 1000 ms falls in the bucket up to 1023 ms, 1900 ms in the one up to 2047 ms (capped at the maximum)
+        Assert.assertEquals(Long.valueOf(1023), swatMetrics.getHistogramMedians().get("swat_run_ms"));
+        Assert.assertEquals(Long.valueOf(2000), swatMetrics.getHistogram95thPercentiles().get("swat_run_ms"));
+        Assert.assertEquals(Long.valueOf(1000), swatMetrics.getHistogramMedians().get(RunMetrics.SWAT_PEAK_RSS_KB));
+        Assert.assertEquals(Long.valueOf(7), swatMetrics.getHistogramMaxima().get("sos_fetch_ms"));
+
+        swatMetrics.reset();
+        Assert.assertTrue(swatMetrics.getCounters().isEmpty());
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SosClientTest {
+
+    private HttpServer server;
+    private String url;
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/sos", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int running = concurrent.incrementAndGet();
+                synchronized (maxConcurrent) {
+                    maxConcurrent.set(Math.max(maxConcurrent.get(), running));
+                }
+                try {
+                    Thread.sleep(50);
+                    String query = exchange.getRequestURI().getRawQuery();
+                    // one observation with the length of the query as value, to tell the responses apart
+                    byte[] body = ("<om:OM_Observation xmlns:om=\"http://www.opengis.net/om/2.0\""
+                            + " xmlns:gml=\"http://www.opengis.net/gml/3.2\"><om:phenomenonTime>"
+                            + "<gml:TimeInstant><gml:timePosition>2015-01-01T00:00:00Z</gml:timePosition>"
+                            + "</gml:TimeInstant></om:phenomenonTime><om:result>" + query.length()
+                            + "</om:result></om:OM_Observation>").getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+        this.url = "http://localhost:" + this.server.getAddress().getPort() + "/sos";
+    }
+
+    @After
+    public void stopServer() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void fetchesConcurrentlyWithinLimit() throws IOException {
+        SosClient client = new SosClient(3, 5000, 5000);
+        List<SosClient.Query> queries = new ArrayList<>();
+        for (int station = 0; station < 4; station++) {
+            for (WeatherVariable variable : WeatherVariable.values()) {
+                queries.add(new SosClient.Query("gsod", variable.getObservedProperty(), "station-" + station));
+            }
+        }
+        DateTime end = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        Map<SosClient.Query, TimeValueSeries> result = client.getObservations(this.url, queries,
+                                                                             end.minusYears(1), end);
+
+        Assert.assertEquals(queries.size(), result.size());
+        Assert.assertEquals(queries, new ArrayList<>(result.keySet()));
+        for (SosClient.Query query : queries) {
+            TimeValueSeries series = result.get(query);
+            Assert.assertEquals(1, series.size());
+            Assert.assertEquals(SosClient.buildRequest(query, end.minusYears(1), end).length() - 1,
+                                series.getValue(0), 0);
+        }
+        Assert.assertTrue(this.maxConcurrent.get() > 1);
+        Assert.assertTrue(this.maxConcurrent.get() <= 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnHttpError() throws IOException {
+        new SosClient(1, 5000, 5000).getObservations(this.url.replace("/sos", "/missing"),
+                                                      new SosClient.Query("gsod", null, null), null, null);
+    }
+
+    @Test
+    public void encodesParameters() throws IOException {
+        DateTime end = new DateTime(2016, 1, 1, 0, 0, DateTimeZone.UTC);
+        String request = SosClient.buildRequest(new SosClient.Query("a b", "http://x/p?q", null),
+                                                end.minusDays(1), end);
+        Assert.assertEquals("?service=SOS&version=2.0.0&request=GetObservation&procedure=a+b"
+                                    + "&observedProperty=http%3A%2F%2Fx%2Fp%3Fq"
+                                    + "&responseFormat=http%3A%2F%2Fwww.opengis.net%2Fom%2F2.0"
+                                    + "&temporalFilter=om%3AphenomenonTime%2C2015-12-31T00%3A00%3A00.000Z"
+                                    + "%2F2016-01-01T00%3A00%3A00.000Z", request);
+    }
+}
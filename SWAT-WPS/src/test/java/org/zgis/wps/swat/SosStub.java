@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for a SOS 2.0 that answers every KVP GetObservation request with synthetic O&amp;M 2.0
+ * measurements.
+ * <p/>
+ * There is one observation per interval within the requested {@code temporalFilter}, encoded the way the 52N
+ * SOS writes them (result times referencing the phenomenon time by {@code xlink:href}). Values are derived
+ * from the observed property, the station and the time, so repeated requests get the same answer.
+ */
+final class SosStub implements Closeable {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<sos:GetObservationResponse xmlns:sos=\"http://www.opengis.net/sos/2.0\""
+            + " xmlns:om=\"http://www.opengis.net/om/2.0\" xmlns:gml=\"http://www.opengis.net/gml/3.2\""
+            + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long intervalMillis;
+    private final long latencyMillis;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong observations = new AtomicLong();
+
+    /**
+     * Starts the stub on a free port of the loopback interface.
+     *
+     * @param intervalMillis time between two observations
+     * @param latencyMillis  time waited before answering a request
+     */
+    SosStub(long intervalMillis, long latencyMillis) throws IOException {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+        this.latencyMillis = latencyMillis;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/sos", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    /**
+     * @return the KVP endpoint, as passed to {@code sos_url}
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/sos";
+    }
+
+    long getRequests() {
+        return this.requests.get();
+    }
+
+    long getObservations() {
+        return this.observations.get();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        String filter = parameters.get("temporalFilter");
+        if (!"GetObservation".equals(parameters.get("request")) || filter == null || !filter.contains("/")) {
+            byte[] body = ("<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">"
+                    + "<ows:Exception exceptionCode=\"MissingParameterValue\"><ows:ExceptionText>"
+                    + "only GetObservation with a temporalFilter is supported</ows:ExceptionText>"
+                    + "</ows:Exception></ows:ExceptionReport>").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(400, body.length);
+            exchange.getResponseBody().write(body);
+            return;
+        }
+        if (this.latencyMillis > 0) {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+        String period = filter.substring(filter.indexOf(',') + 1);
+        long begin = parser.parseMillis(period.substring(0, period.indexOf('/')));
+        long end = parser.parseMillis(period.substring(period.indexOf('/') + 1));
+        String station = parameters.get("featureOfInterest");
+        String property = parameters.get("observedProperty");
+        double seed = (String.valueOf(property) + station).hashCode() % 1000;
+
+        DateTimeFormatter printer = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                                                                    StandardCharsets.UTF_8), 1 << 16)) {
+            out.write(HEADER);
+            long first = (begin + this.intervalMillis - 1) / this.intervalMillis * this.intervalMillis;
+            int count = 0;
+            for (long time = first; time <= end; time += this.intervalMillis) {
+                count++;
+                String id = "phenomenonTime_" + count;
+                double value = 10 + 10 * Math.sin(time / 3.6e6 / 24 * 2 * Math.PI / 365 + seed);
+                out.write("<sos:observationData><om:OM_Observation gml:id=\"o_" + count + "\">"
+                                  + "<om:type xlink:href=\"http://www.opengis.net/def/observationType/"
+                                  + "OGC-OM/2.0/OM_Measurement\"/><om:phenomenonTime>"
+                                  + "<gml:TimeInstant gml:id=\"" + id + "\"><gml:timePosition>"
+                                  + printer.print(time) + "</gml:timePosition></gml:TimeInstant>"
+                                  + "</om:phenomenonTime><om:resultTime xlink:href=\"#" + id + "\"/>"
+                                  + "<om:procedure xlink:href=\"" + xml(parameters.get("procedure")) + "\"/>"
+                                  + "<om:observedProperty xlink:href=\"" + xml(property) + "\"/>"
+                                  + "<om:featureOfInterest xlink:href=\"" + xml(station) + "\"/>"
+                                  + "<om:result xsi:type=\"gml:MeasureType\" uom=\"mm\">"
+                                  + String.format(Locale.ROOT, "%.2f", value)
+                                  + "</om:result></om:OM_Observation></sos:observationData>\n");
+            }
+            out.write("</sos:GetObservationResponse>\n");
+            this.observations.addAndGet(count);
+        }
+    }
+
+    private static String xml(String text) {
+        return String.valueOf(text).replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    parameters.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                                   URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class SwatCalibrationTest {
+
+    private static final String FILE_CIO = "Master Watershed File: file.cio\n"
+            + "               1    | NBYR : Number of years simulated\n"
+            + "            2005    | IYR : Beginning year of simulation\n"
+            + "Output Information:\n"
+            + "               1    | IPRINT: print code (month, day, year)\n"
+            + "               0    | NYSKIP: number of years to skip output printing/summarization\n"
+            + "Reach output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "Subbasin output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "HRU output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "HRU data to be printed:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n";
+
+    /**
+     * Prints FLOW_OUTcms = GW_DELAY * month for reach 1 of the year 2005.
+     */
+    private static final String FAKE_SWAT = "#!/bin/sh\n"
+            + "grep -q '^ *0 *| IPRINT' file.cio || exit 3\n"
+            + "v=$(sed -n 3p 000010001.gw | awk '{print $1}')\n"
+            + "echo ' SWAT fake' > output.rch\n"
+            + "echo '      RCH      GIS   MON     AREAkm2 FLOW_OUTcms' >> output.rch\n"
+            + "awk -v v=\"$v\" 'BEGIN { for (m = 1; m <= 12; m++) for (r = 1; r <= 2; r++)"
+            + " printf \"REACH%5d %8d %5d%12.4E%12.4E\\n\", r, 0, m, 101.0, r == 1 ? v * m : 0 }' >> output.rch\n"
+            + "echo '  Execution successfully completed'\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void findsTheBestParameterSet() throws Exception {
+        Assume.assumeTrue(File.separatorChar == '/' && new File("/bin/sh").canExecute());
+        File model = this.folder.newFolder("model");
+        FileUtils.writeStringToFile(new File(model, SwatFileCio.FILE_NAME), FILE_CIO, "ISO-8859-1");
+        FileUtils.writeStringToFile(new File(model, "000010001.gw"), " .gw file\n    0.0000    | SHALLST\n"
+                + "    31.000    | GW_DELAY : Groundwater delay [days]\n", "ISO-8859-1");
+        WorkspaceFiles.makeReadOnly(model);
+        File swat = this.folder.newFile("swat");
+        FileUtils.writeStringToFile(swat, FAKE_SWAT, "ISO-8859-1");
+        Assert.assertTrue(swat.setExecutable(true));
+
+        StringBuilder observed = new StringBuilder("date,discharge\n");
+        for (int month = 1; month <= 12; month++) {
+            observed.append("2005-").append(month).append(',').append(10 * month).append('\n');
+        }
+        File csv = this.folder.newFile("observed.csv");
+        FileUtils.writeStringToFile(csv, observed.toString(), "UTF-8");
+
+        SwatCalibration calibration = new SwatCalibration(
+                model, new SwatWorkspaces(null, 0, 0, this.folder.newFolder("work"), Long.MAX_VALUE, 0), swat,
+                Collections.singletonList(CalibrationParameter.parse("GW_DELAY:v:*.gw:3:1:0:20")),
+                ObservedSeries.read(csv), 1);
+        final List<Double> progress = Collections.synchronizedList(new ArrayList<Double>());
+        List<SwatCalibration.Evaluation> evaluations = calibration.run(
+                SwatCalibration.Sampling.SUFI2, 8, 2, SwatCalibration.Objective.NSE, 42,
+                new SwatProcessRunner.ProgressListener() {
+                    @Override
+                    public void progress(double completed) {
+                        progress.add(completed);
+                    }
+                });
+
+        Assert.assertEquals(16, evaluations.size());
+        Assert.assertEquals(16, progress.size());
+        Assert.assertEquals(1.0, progress.get(15), 0);
+        SwatCalibration.Evaluation best = SwatCalibration.best(evaluations, SwatCalibration.Objective.NSE, 1).get(0);
+        Assert.assertNull(best.getError());
+        Assert.assertEquals(10, best.getValues()[0], 1.25);
+        Assert.assertTrue(best.getNse() > 0.95);
+        // the second iteration samples closer to the optimum
+        Assert.assertEquals(2, best.getIteration());
+        // the base model is untouched and the workspaces are removed
+        Assert.assertTrue(FileUtils.readFileToString(new File(model, "000010001.gw"), "ISO-8859-1").contains("31.000"));
+        Assert.assertEquals(0, new File(this.folder.getRoot(), "work").list().length);
+    }
+
+    @Test
+    public void latinHypercubeHitsEveryStratum() {
+        double[][] points = SwatCalibration.latinHypercube(10, 3, new Random(1));
+        for (int d = 0; d < 3; d++) {
+            boolean[] hit = new boolean[10];
+            for (double[] point : points) {
+                hit[(int) (point[d] * 10)] = true;
+            }
+            for (boolean stratum : hit) {
+                Assert.assertTrue(stratum);
+            }
+        }
+    }
+
+    @Test
+    public void changesValuesByMethod() throws IOException {
+        File model = this.folder.newFolder("model");
+        FileUtils.writeStringToFile(new File(model, "1.gw"), "x\n  2.0  | A\n", "ISO-8859-1");
+        FileUtils.writeStringToFile(new File(model, "2.gw"), "x\n  4.0  | A\n", "ISO-8859-1");
+        FileUtils.writeStringToFile(new File(model, "1.sol"), "x\n  8.0  | A\n", "ISO-8859-1");
+
+        List<String> edits = new ArrayList<>();
+        CalibrationParameter.parse("A:r:*.gw:2:1:-0.5:0.5").resolve(model).addEdits(0.25, edits);
+        CalibrationParameter.parse("A:a:*.sol:2:1:-1:1").resolve(model).addEdits(-1, edits);
+        CalibrationParameter.parse("A:v:1.gw:2:1:0:1").resolve(model).addEdits(1.0 / 3, edits);
+        Assert.assertEquals(Arrays.asList("1.gw:2:1=2.5", "2.gw:2:1=5.0", "1.sol:2:1=7.0", "1.gw:2:1=0.3333"),
+                            edits);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidParameters() {
+        CalibrationParameter.parse("GW_DELAY:v:*.gw:3:1:20:0");
+    }
+
+    @Test
+    public void readsObservations() throws IOException {
+        File csv = this.folder.newFile("observed.csv");
+        FileUtils.writeStringToFile(csv, "# station 1\ndate;value\n2001-01-02;1.5\n2000-12-31;2\n2001-01-03;n/a\n",
+                                    "UTF-8");
+        ObservedSeries series = ObservedSeries.read(csv);
+        Assert.assertEquals(SwatOutputTable.DAILY, series.getPrintMode());
+        Assert.assertEquals(2, series.size());
+        Assert.assertEquals(1.5, series.get(2001, 2), 0);
+        Assert.assertEquals(2, series.get(2000, 366), 0);
+        Assert.assertTrue(Double.isNaN(series.get(2001, 3)));
+    }
+}
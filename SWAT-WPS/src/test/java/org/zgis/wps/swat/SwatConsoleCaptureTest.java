@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class SwatConsoleCaptureTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keepsAllLinesIfTheyFit() throws IOException {
+        File log = new File(folder.getRoot(), "console.log");
+        try (SwatConsoleCapture capture = new SwatConsoleCapture(log, 2, 3, 100, 0)) {
+            capture.append("a");
+            capture.append("b");
+            capture.append("c");
+            Assert.assertEquals("a\nb\nc\n", capture.getSummary());
+        }
+    }
+
+    @Test
+    public void keepsHeadAndTailAndStreamsEverything() throws IOException {
+        File log = new File(folder.getRoot(), "console.log");
+        try (SwatConsoleCapture capture = new SwatConsoleCapture(log, 2, 3, 100, 0)) {
+            for (int i = 0; i < 10; i++) {
+                capture.append("line " + i);
+            }
+            Assert.assertEquals(10, capture.getLineCount());
+            Assert.assertEquals("line 0\nline 1\n"
+                                        + "[... 5 lines omitted, see swat_console.log ...]\n"
+                                        + "line 7\nline 8\nline 9\n", capture.getSummary());
+        }
+
+        List<String> lines = FileUtils.readLines(log, SwatConsoleCapture.CHARSET.name());
+        Assert.assertEquals(10, lines.size());
+        Assert.assertEquals("line 9", lines.get(9));
+    }
+
+    @Test
+    public void truncatesLongLines() throws IOException {
+        File log = new File(folder.getRoot(), "console.log");
+        try (SwatConsoleCapture capture = new SwatConsoleCapture(log, 1, 0, 4, 0)) {
+            capture.append("0123456789");
+            Assert.assertEquals("0123\n", capture.getSummary());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class SwatExecutableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentExtractionsShareOneVerifiedFile() throws Exception {
+        byte[] binary = new byte[1 << 20];
+        new Random(1).nextBytes(binary);
+        File jar = this.folder.newFile("extension.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("swat/swat_rel64_linux"));
+            out.write(binary);
+            out.closeEntry();
+        }
+        final File cacheDir = new File(this.folder.getRoot(), "exe");
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<SwatExecutable>> futures = new ArrayList<>();
+        try (final ZipFile zipFile = new ZipFile(jar)) {
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<SwatExecutable>() {
+                    @Override
+                    public SwatExecutable call() throws Exception {
+                        start.await();
+                        return SwatExecutable.extractToTemp(zipFile, "swat/swat_rel64_linux", cacheDir);
+                    }
+                }));
+            }
+            start.countDown();
+            SwatExecutable first = futures.get(0).get();
+            for (Future<SwatExecutable> future : futures) {
+                SwatExecutable executable = future.get();
+                Assert.assertEquals(first.getFile(), executable.getFile());
+                Assert.assertEquals(first.getChecksum(), executable.getChecksum());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // a single file, named by and matching its checksum, and no partial copies
+        File[] files = cacheDir.listFiles();
+        Assert.assertEquals(1, files.length);
+        SwatExecutable executable = futures.get(0).get();
+        Assert.assertEquals("swat_rel64_linux-" + executable.getChecksum(), files[0].getName());
+        Assert.assertEquals(Checksums.sha256(files[0]), executable.getChecksum());
+        Assert.assertArrayEquals(binary, FileUtils.readFileToByteArray(files[0]));
+        Assert.assertTrue(files[0].canExecute());
+    }
+
+    @Test
+    public void usesTheConfiguredExecutable() throws Exception {
+        File swat = this.folder.newFile("swat");
+        FileUtils.writeStringToFile(swat, "#!/bin/sh\n", "ISO-8859-1");
+        String key = SwatConfiguration.PREFIX + "executable";
+        System.setProperty(key, swat.getPath());
+        try {
+            SwatExecutable executable = SwatExecutable.install();
+            Assert.assertEquals(swat, executable.getFile());
+            Assert.assertEquals(Checksums.sha256(swat), executable.getChecksum());
+            Assert.assertTrue(swat.canExecute());
+
+            System.setProperty(key, new File(this.folder.getRoot(), "missing").getPath());
+            try {
+                SwatExecutable.install();
+                Assert.fail("the configured executable does not exist");
+            } catch (FileNotFoundException expected) {
+                Assert.assertTrue(expected.getMessage().contains("swat.executable"));
+            }
+        } finally {
+            System.clearProperty(key);
+        }
+    }
+}
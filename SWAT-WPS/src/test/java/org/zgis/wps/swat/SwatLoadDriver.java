@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.n52.wps.commons.WPSConfig;
+import org.n52.wps.commons.context.ExecutionContext;
+import org.n52.wps.commons.context.ExecutionContextFactory;
+import org.n52.wps.io.data.GenericFileData;
+import org.n52.wps.io.data.IData;
+import org.n52.wps.io.data.binding.complex.GenericFileDataBinding;
+import org.n52.wps.io.data.binding.literal.LiteralBooleanBinding;
+import org.n52.wps.io.data.binding.literal.LiteralIntBinding;
+import org.n52.wps.io.data.binding.literal.LiteralStringBinding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Offline load test of {@code swat-runner-algorithm} and {@code swat-weather-fetch-algorithm}.
+ * <p/>
+ * Runs a generated model with {@link FakeSwat} as SWAT executable and fetches weather from a {@link SosStub},
+ * so neither the real binary nor a SOS is needed. A number of clients execute the algorithms concurrently;
+ * throughput, latency percentiles per algorithm, heap use and the {@link SwatMetrics} of the measured
+ * executions are printed at the end. Settings are {@code swat.load.*} system properties (see README), all
+ * other {@code swat.*} properties apply as in the server. Run it with {@code mvn -P load-test verify}.
+ */
+public final class SwatLoadDriver {
+
+    private static final Logger logger = LoggerFactory.getLogger(SwatLoadDriver.class);
+
+    private static final String RUNNER = "swat-runner-algorithm";
+    private static final String WEATHER = "swat-weather-fetch-algorithm";
+    private static final String PROCEDURE = "http://vocab.example.com/sensorweb/procedure/gsod";
+
+    private final File modelZip;
+    private final String sosUrl;
+    private final int stations;
+    private final int weatherYears;
+    private final int weatherPercent;
+    private final Map<String, List<Long>> latencies = new TreeMap<>();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private SwatLoadDriver(File modelZip, String sosUrl, int stations, int weatherYears, int weatherPercent) {
+        this.modelZip = modelZip;
+        this.sosUrl = sosUrl;
+        this.stations = stations;
+        this.weatherYears = weatherYears;
+        this.weatherPercent = weatherPercent;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("swat-load").toFile();
+        int failures;
+        try {
+            failures = run(dir, System.out);
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+        // a non-zero exit status lets scripts detect failed executions
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs the load test in {@code dir} and prints the report to {@code out}.
+     *
+     * @return number of failed executions
+     */
+    static int run(File dir, PrintStream out) throws Exception {
+        int clients = SwatConfiguration.getInt("load.clients", 4);
+        int executions = SwatConfiguration.getInt("load.executions", 40);
+        int warmup = SwatConfiguration.getInt("load.warmup.executions", clients);
+
+        FakeSwat swat = new FakeSwat(SwatConfiguration.getInt("load.swat.years", 5),
+                                     SwatConfiguration.getInt("load.swat.lines.per.year", 2000),
+                                     SwatConfiguration.getLong("load.swat.millis.per.year", 200),
+                                     SwatConfiguration.getLong("load.swat.output.bytes", 8L << 20));
+        setDefault("executable", swat.write(new File(dir, "swat_fake.sh")).getPath());
+        // repeated runs of the same model would be answered from the caches otherwise
+        setDefault("result.cache.enabled", "false");
+        setDefault("observation.store.enabled", "false");
+        // the fake output files are not meant to be queried
+        setDefault("output.store.enabled", "false");
+        WPSConfig.forceInitialization(SwatConfiguration.getString("load.wps.config",
+                                                                  "src/test/resources/wps_config.xml"));
+
+        File model = writeModel(new File(dir, "model.zip"), swat.getYears(),
+                                SwatConfiguration.getInt("load.model.files", 200),
+                                SwatConfiguration.getInt("load.model.file.bytes", 4096));
+        try (SosStub sos = new SosStub(SwatConfiguration.getLong("load.sos.interval.minutes", 60) * 60 * 1000,
+                                       SwatConfiguration.getLong("load.sos.latency.ms", 0))) {
+            SwatLoadDriver driver = new SwatLoadDriver(model, sos.getUrl(),
+                                                       SwatConfiguration.getInt("load.weather.stations", 4),
+                                                       SwatConfiguration.getInt("load.weather.years", 3),
+                                                       SwatConfiguration.getInt("load.weather.percent", 50));
+            logger.info("Warming up with " + warmup + " executions");
+            driver.execute(clients, warmup);
+            driver.latencies.clear();
+            driver.failures.set(0);
+            SwatMetrics.getInstance().reset();
+            long requests = sos.getRequests();
+            long observations = sos.getObservations();
+
+            logger.info("Running " + executions + " executions with " + clients + " clients");
+            HeapSampler heap = new HeapSampler();
+            long start = System.nanoTime();
+            driver.execute(clients, executions);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            heap.stop();
+
+            driver.report(out, clients, executions, millis);
+            heap.report(out);
+            out.printf(Locale.ROOT, "SOS stub: %d requests, %d observations%n", sos.getRequests() - requests,
+                       sos.getObservations() - observations);
+            SwatMetrics metrics = SwatMetrics.getInstance();
+            out.println("Phase medians (ms):         " + metrics.getHistogramMedians());
+            out.println("Phase 95th percentiles (ms): " + metrics.getHistogram95thPercentiles());
+            out.println("Counters:                   " + metrics.getCounters());
+            return driver.failures.get();
+        }
+    }
+
+    private void execute(int clients, int executions) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        try {
+            for (int i = 0; i < executions; i++) {
+                final int execution = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        execute(execution);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+
+    private void execute(int execution) {
+        // spreads the weather fetches evenly over the executions
+        boolean weather = (long) (execution + 1) * this.weatherPercent / 100
+                > (long) execution * this.weatherPercent / 100;
+        String algorithm = weather ? WEATHER : RUNNER;
+        ExecutionContextFactory.registerContext(new ExecutionContext());
+        File tempDir = new File(ExecutionContextFactory.getContext().getTempDirectoryPath());
+        long start = System.nanoTime();
+        try {
+            Map<String, IData> outputs = weather
+                    ? new WeatherFetchAlgorithm().run(weatherInputs())
+                    : new AnnotatedSwatRunnerAlgorithm().run(runnerInputs());
+            IData output = outputs.get(weather ? "weather_zip" : "swat_output_zipped");
+            if (output == null) {
+                throw new IOException(algorithm + " returned no output");
+            }
+            record(algorithm, System.nanoTime() - start);
+            FileUtils.deleteQuietly(((GenericFileDataBinding) output).getPayload().getBaseFile(false));
+        } catch (Exception e) {
+            this.failures.incrementAndGet();
+            logger.warn("Execution " + execution + " of " + algorithm + " failed", e);
+        } finally {
+            ExecutionContextFactory.unregisterContext();
+            FileUtils.deleteQuietly(tempDir);
+        }
+    }
+
+    private Map<String, List<IData>> runnerInputs() {
+        Map<String, List<IData>> inputs = new HashMap<>();
+        inputs.put("swat_model", Collections.<IData>singletonList(
+                new GenericFileDataBinding(new GenericFileData(this.modelZip, "application/zip"))));
+        inputs.put("force_run", Collections.<IData>singletonList(new LiteralBooleanBinding(true)));
+        return inputs;
+    }
+
+    private Map<String, List<IData>> weatherInputs() {
+        Map<String, List<IData>> inputs = new HashMap<>();
+        inputs.put("sos_url", Collections.<IData>singletonList(new LiteralStringBinding(this.sosUrl)));
+        inputs.put("sos_procedure", Collections.<IData>singletonList(new LiteralStringBinding(PROCEDURE)));
+        List<IData> stationInputs = new ArrayList<>();
+        for (int i = 1; i <= this.stations; i++) {
+            stationInputs.add(new LiteralStringBinding("station-" + i));
+        }
+        inputs.put("station", stationInputs);
+        inputs.put("end_date", Collections.<IData>singletonList(new LiteralStringBinding("2016-01-01")));
+        inputs.put("years", Collections.<IData>singletonList(new LiteralIntBinding(this.weatherYears)));
+        return inputs;
+    }
+
+    private synchronized void record(String algorithm, long nanos) {
+        List<Long> list = this.latencies.get(algorithm);
+        if (list == null) {
+            list = new ArrayList<>();
+            this.latencies.put(algorithm, list);
+        }
+        list.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+
+    private synchronized void report(PrintStream out, int clients, int executions, long millis) {
+        out.printf(Locale.ROOT, "%d executions with %d clients in %.1f s, %d failed%n", executions, clients,
+                   millis / 1000.0, this.failures.get());
+        out.printf(Locale.ROOT, "Throughput: %.2f executions/s%n",
+                   (executions - this.failures.get()) * 1000.0 / Math.max(1, millis));
+        for (Map.Entry<String, List<Long>> entry : this.latencies.entrySet()) {
+            long[] sorted = new long[entry.getValue().size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(sorted);
+            out.printf(Locale.ROOT, "%s: %d executions, latency p50 %d ms, p90 %d ms, p99 %d ms, max %d ms%n",
+                       entry.getKey(), sorted.length, percentile(sorted, 50), percentile(sorted, 90),
+                       percentile(sorted, 99), sorted[sorted.length - 1]);
+        }
+    }
+
+    /**
+     * @return the nearest rank percentile of sorted values
+     */
+    static long percentile(long[] sorted, double percent) {
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /**
+     * Writes a model with a {@code file.cio} simulating {@code years} years and {@code files} filler files.
+     */
+    static File writeModel(File zip, int years, int files, int fileBytes) throws IOException {
+        Random random = new Random(42);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry(SwatFileCio.FILE_NAME));
+            out.write(("Master Watershed File: file.cio\n"
+                    + String.format(Locale.ROOT, "%16d    | NBYR : Number of years simulated\n", years)
+                    + "            2005    | IYR : Beginning year of simulation\n"
+                    + "Output Information:\n"
+                    + "               1    | IPRINT: print code (month, day, year)\n"
+                    + "               0    | NYSKIP: number of years to skip output printing/summarization\n")
+                              .getBytes(StandardCharsets.ISO_8859_1));
+            out.closeEntry();
+            StringBuilder content = new StringBuilder();
+            for (int i = 1; i <= files; i++) {
+                out.putNextEntry(new ZipEntry(String.format(Locale.ROOT, "%05d0001.gw", i)));
+                content.setLength(0);
+                while (content.length() < fileBytes) {
+                    content.append(String.format(Locale.ROOT, "%14.4f    | PARAMETER %d\n",
+                                                 random.nextDouble() * 100, content.length()));
+                }
+                out.write(content.toString().getBytes(StandardCharsets.ISO_8859_1));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getProperty(SwatConfiguration.PREFIX + key) == null) {
+            System.setProperty(SwatConfiguration.PREFIX + key, value);
+        }
+    }
+
+    /**
+     * Samples the used heap while the executions run.
+     */
+    private static final class HeapSampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicLong peak = new AtomicLong();
+        private final long collections;
+        private final long collectionMillis;
+
+        HeapSampler() {
+            this.collections = collections();
+            this.collectionMillis = collectionMillis();
+            this.executor.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    long used = memory.getHeapMemoryUsage().getUsed();
+                    long current;
+                    while ((current = peak.get()) < used && !peak.compareAndSet(current, used)) {
+                        // retry
+                    }
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+        }
+
+        void stop() throws InterruptedException {
+            this.executor.shutdown();
+            this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        void report(PrintStream out) {
+            long collections = collections() - this.collections;
+            long collectionMillis = collectionMillis() - this.collectionMillis;
+            System.gc();
+            out.printf(Locale.ROOT, "Heap: peak %d MB used of %d MB max, %d MB after GC; %d collections took %d ms%n",
+                       this.peak.get() >> 20, this.memory.getHeapMemoryUsage().getMax() >> 20,
+                       this.memory.getHeapMemoryUsage().getUsed() >> 20, collections, collectionMillis);
+        }
+
+        private static long collections() {
+            long count = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long collectionMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+            return millis;
+        }
+    }
+}
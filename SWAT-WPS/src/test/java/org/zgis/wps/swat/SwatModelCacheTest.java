@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class SwatModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void extractsEachModelOnce() throws Exception {
+        final File zip = zip("file.cio", "basins.bsn");
+        final SwatModelCache cache = new SwatModelCache(this.folder.newFolder("models"), Long.MAX_VALUE,
+                                                        new SwatModelExtractor(Collections.<String>emptySet()));
+        final String hash = DirectoryCacheTest.key('a');
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<File>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        try (DirectoryCache.Lease lease = cache.acquire(hash, zip)) {
+                            return lease.getDirectory();
+                        }
+                    }
+                }));
+            }
+            for (Future<File> result : results) {
+                Assert.assertEquals(new File(this.folder.getRoot(), "models/" + hash), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals("file.cio", FileUtils.readFileToString(new File(this.folder.getRoot(),
+                                                                            "models/" + hash + "/file.cio"),
+                                                                   StandardCharsets.UTF_8.name()));
+
+        // a cached model is not extracted again
+        Assert.assertTrue(zip.delete());
+        try (DirectoryCache.Lease lease = cache.acquire(hash, zip)) {
+            Assert.assertTrue(new File(lease.getDirectory(), "basins.bsn").isFile());
+        }
+        Assert.assertNull(cache.acquire(DirectoryCacheTest.key('b')));
+    }
+
+    @Test
+    public void retriesFailedExtraction() throws Exception {
+        final File zip = zip("file.cio");
+        final File broken = this.folder.newFile("broken.zip");
+        FileUtils.writeStringToFile(broken, "no zip", StandardCharsets.UTF_8.name());
+        final SwatModelCache cache = new SwatModelCache(this.folder.newFolder("models"), Long.MAX_VALUE,
+                                                        new SwatModelExtractor(Collections.<String>emptySet()));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 100; round++) {
+                final String hash = String.format("%064x", round);
+                List<Future<File>> results = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    // the first and every third call fail, the others retry the extraction
+                    final File model = i % 3 == 0 ? broken : zip;
+                    results.add(executor.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            try (DirectoryCache.Lease lease = cache.acquire(hash, model)) {
+                                return lease.getDirectory();
+                            }
+                        }
+                    }));
+                }
+                int failed = 0;
+                for (Future<File> result : results) {
+                    try {
+                        Assert.assertEquals(new File(this.folder.getRoot(), "models/" + hash), result.get());
+                    } catch (ExecutionException e) {
+                        Assert.assertTrue(e.getCause() instanceof IOException);
+                        failed++;
+                    }
+                }
+                // a broken zip only fails while the model is not cached yet
+                Assert.assertTrue(failed <= 3);
+                try (DirectoryCache.Lease lease = cache.acquire(hash)) {
+                    Assert.assertTrue(new File(lease.getDirectory(), "file.cio").isFile());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private File zip(String... names) throws IOException {
+        File zip = new File(this.folder.getRoot(), "model.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String name : names) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
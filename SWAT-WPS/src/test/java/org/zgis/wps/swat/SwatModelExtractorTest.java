@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class SwatModelExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SwatModelExtractor extractor = new SwatModelExtractor(new HashSet<>(Arrays.asList("mdb", "tif")));
+
+    @Test
+    public void extractsModelAndSkipsGisFiles() throws IOException {
+        File zip = zip("file.cio", "basins.bsn", "000010001.mgt", "Watershed/Grid/dem.tif", "project.mdb");
+        File target = folder.newFolder("model");
+
+        Assert.assertEquals(3, extractor.extract(zip, target));
+        Assert.assertEquals("file.cio", FileUtils.readFileToString(new File(target, "file.cio"),
+                                                                   StandardCharsets.UTF_8.name()));
+        Assert.assertTrue(new File(target, "000010001.mgt").isFile());
+        Assert.assertFalse(new File(target, "project.mdb").exists());
+        Assert.assertFalse(new File(target, "Watershed/Grid/dem.tif").exists());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEntriesOutsideTarget() throws IOException {
+        File zip = zip("file.cio", "../../evil.sh");
+        extractor.extract(zip, folder.newFolder("model"));
+    }
+
+    @Test
+    public void skipsByExtensionOnly() {
+        Assert.assertTrue(extractor.isSkipped("a/b/PROJECT.MDB"));
+        Assert.assertFalse(extractor.isSkipped("tif.d/file"));
+        Assert.assertFalse(extractor.isSkipped("file.cio"));
+    }
+
+    private File zip(String... names) throws IOException {
+        File zip = new File(folder.getRoot(), "model.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            for (String name : names) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        return zip;
+    }
+}
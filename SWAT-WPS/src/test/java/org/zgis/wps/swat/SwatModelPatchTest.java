@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class SwatModelPatchTest {
+
+    private static final String GW = " .gw file Watershed HRU:1\r\n"
+            + "    0.0000    | SHALLST : Initial depth of water in the shallow aquifer [mm]\r\n"
+            + "    31.000    | GW_DELAY : Groundwater delay [days]\r\n"
+            + "  4  15  1  0.25\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void editsValuesInPlace() throws IOException {
+        File model = this.folder.newFolder("model");
+        File shared = new File(this.folder.getRoot(), "shared.gw");
+        FileUtils.writeStringToFile(shared, GW, "ISO-8859-1");
+        Files.createLink(new File(model, "000010001.gw").toPath(), shared.toPath());
+
+        SwatModelPatch patch = new SwatModelPatch(null, Arrays.asList("000010001.gw:3:5=120.5",
+                                                                      "000010001.gw:2:1=1000000.0",
+                                                                      "000010001.gw:4:12=0.5"));
+        Assert.assertEquals(1, patch.apply(model));
+
+        String patched = FileUtils.readFileToString(new File(model, "000010001.gw"), "ISO-8859-1");
+        Assert.assertEquals(" .gw file Watershed HRU:1\r\n"
+                                    + " 1000000.0    | SHALLST : Initial depth of water in the shallow aquifer [mm]\r\n"
+                                    + "     120.5    | GW_DELAY : Groundwater delay [days]\r\n"
+                                    + "  4  15  1   0.5\r\n", patched);
+        // the linked original is untouched
+        Assert.assertEquals(GW, FileUtils.readFileToString(shared, "ISO-8859-1"));
+        Assert.assertTrue(patch.touches("000010001.gw"));
+        Assert.assertFalse(patch.touches(SwatFileCio.FILE_NAME));
+    }
+
+    @Test
+    public void replacesFiles() throws IOException {
+        File model = this.folder.newFolder("model");
+        File shared = new File(this.folder.getRoot(), "shared.bsn");
+        FileUtils.writeStringToFile(shared, "old", "ISO-8859-1");
+        Files.createLink(new File(model, "basins.bsn").toPath(), shared.toPath());
+
+        File zip = new File(this.folder.getRoot(), "patch.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("basins.bsn"));
+            out.write("new".getBytes(StandardCharsets.ISO_8859_1));
+            out.closeEntry();
+        }
+        SwatModelPatch patch = new SwatModelPatch(zip, null);
+        Assert.assertEquals(1, patch.apply(model));
+        Assert.assertEquals("new", FileUtils.readFileToString(new File(model, "basins.bsn"), "ISO-8859-1"));
+        Assert.assertEquals("old", FileUtils.readFileToString(shared, "ISO-8859-1"));
+        Assert.assertTrue(patch.touches("basins.bsn"));
+    }
+
+    @Test
+    public void keyDependsOnChanges() throws IOException {
+        Assert.assertEquals("", new SwatModelPatch(null, null).toKey());
+        String key = new SwatModelPatch(null, Collections.singletonList("a.gw:1:1=1")).toKey();
+        Assert.assertEquals(key, new SwatModelPatch(null, Collections.singletonList(" a.gw:1:1=1 ")).toKey());
+        Assert.assertFalse(key.equals(new SwatModelPatch(null, Collections.singletonList("a.gw:1:1=2")).toKey()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsValuesThatDoNotFit() throws IOException {
+        File model = this.folder.newFolder("model");
+        FileUtils.writeStringToFile(new File(model, "a.gw"), "x 1\n", "ISO-8859-1");
+        new SwatModelPatch(null, Collections.singletonList("a.gw:1:3=100")).apply(model);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidEdits() throws IOException {
+        new SwatModelPatch(null, Collections.singletonList("a.gw:1=100"));
+    }
+
+    @Test
+    public void rejectsLinesAndColumnsOutOfRange() {
+        for (String edit : new String[]{"x.gw:99999999999:1=1", "x.gw:1:99999999999=1"}) {
+            try {
+                SwatModelPatch.Edit.parse(edit);
+                Assert.fail(edit);
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid parameter edit"));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class SwatOutputPackagerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void combinesCrcs() {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        CRC32 whole = new CRC32();
+        whole.update(data, 0, data.length);
+        CRC32 first = new CRC32();
+        first.update(data, 0, 30000);
+        CRC32 second = new CRC32();
+        second.update(data, 30000, 70000);
+
+        Assert.assertEquals(whole.getValue(),
+                            SwatOutputPackager.crc32Combine(first.getValue(), second.getValue(), 70000));
+    }
+
+    @Test
+    public void writesReadableArchives() throws IOException {
+        List<File> files = new ArrayList<>();
+        files.add(textFile("output.std", 100));
+        files.add(textFile("output.rch", 200000)); // several chunks
+        files.add(textFile("output.sed", 0));
+
+        for (int level : new int[]{0, 1, 6, 9}) {
+            File zip = new File(folder.getRoot(), "out" + level + ".zip");
+            new SwatOutputPackager(level).write(files, zip);
+
+            try (ZipFile zipFile = new ZipFile(zip)) {
+                Assert.assertEquals(files.size(), zipFile.size());
+                for (File file : files) {
+                    ZipEntry entry = zipFile.getEntry(file.getName());
+                    Assert.assertEquals(level == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        Assert.assertTrue(Arrays.equals(FileUtils.readFileToByteArray(file), IOUtils.toByteArray(in)));
+                    }
+                }
+            }
+            // streaming readers rely on the local headers
+            try (ZipInputStream in = new ZipInputStream(new FileInputStream(zip))) {
+                int count = 0;
+                while (in.getNextEntry() != null) {
+                    IOUtils.toByteArray(in);
+                    count++;
+                }
+                Assert.assertEquals(files.size(), count);
+            }
+        }
+    }
+
+    @Test
+    public void parsesLevels() throws IOException {
+        Assert.assertEquals(0, SwatOutputPackager.parseLevel("store"));
+        Assert.assertEquals(9, SwatOutputPackager.parseLevel("9"));
+        Assert.assertEquals(SwatOutputPackager.DEFAULT_LEVEL, SwatOutputPackager.parseLevel(null));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidLevels() throws IOException {
+        SwatOutputPackager.parseLevel("0");
+    }
+
+    private File textFile(String name, int lines) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(lines);
+        for (int i = 0; i < lines; i++) {
+            sb.append(String.format("REACH %4d %8d %5d %11.4E %11.4E%n", i % 50, 0, i % 12, random.nextDouble() * 1000,
+                                    random.nextDouble()));
+        }
+        FileUtils.writeStringToFile(file, sb.toString(), "US-ASCII");
+        return file;
+    }
+}
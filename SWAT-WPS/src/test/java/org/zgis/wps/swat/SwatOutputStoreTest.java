@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+
+public class SwatOutputStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storesAndQueriesRuns() throws IOException {
+        File run = this.folder.newFolder("run");
+        FileUtils.writeStringToFile(new File(run, SwatFileCio.FILE_NAME),
+                                    "Master Watershed File: file.cio\n"
+                                            + "               3    | NBYR : Number of years simulated\n"
+                                            + "            1998    | IYR : Beginning year of simulation\n"
+                                            + "               1    | NYSKIP: number of years to skip output\n"
+                                            + "               2    | IPRINT: print code (month, day, year)\n",
+                                    "ISO-8859-1");
+        FileUtils.writeStringToFile(new File(run, "output.sub"),
+                                    "      SUB      GIS  MON    AREAkm2  PRECIPmm LAT Q(mm)\n"
+                                            + "BIGSUB   1        0 1999 0.1000E+02   800.000    12.500\n"
+                                            + "BIGSUB   1        0 2000 0.1000E+02   900.000    13.500\n"
+                                            + "BIGSUB   1        0  2.0 0.1000E+02   850.000    13.000\n",
+                                    "ISO-8859-1");
+
+        SwatOutputStore store = new SwatOutputStore(this.folder.newFolder("store"), 1L << 30, 0);
+        String runId = SwatResultCache.key("run");
+        Assert.assertFalse(store.contains(runId));
+        store.store(runId, run, SwatFileCio.read(run), new SwatPrintOptions(null, null, null, null, null, null));
+        Assert.assertTrue(store.contains(runId));
+
+        StringWriter csv = new StringWriter();
+        Assert.assertEquals(2, store.query(runId, "output.sub", new int[]{1}, Collections.singletonList("LAT Q(mm)"),
+                                           null, null, csv));
+        Assert.assertEquals("unit,year,period,LAT Q(mm)\n1,1999,0,12.5\n1,2000,0,13.5\n", csv.toString());
+    }
+
+    @Test
+    public void skipsRunsWithoutFileCio() throws IOException {
+        File run = this.folder.newFolder("run");
+        FileUtils.writeStringToFile(new File(run, "output.sub"), "      SUB      GIS  MON    AREAkm2\n", "ISO-8859-1");
+
+        SwatOutputStore store = new SwatOutputStore(this.folder.newFolder("store"), 1L << 30, 0);
+        String runId = SwatResultCache.key("run");
+        store.store(runId, run, new SwatPrintOptions(null, null, null, null, null, null));
+        Assert.assertFalse(store.contains(runId));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownRuns() throws IOException {
+        new SwatOutputStore(this.folder.newFolder("store"), 1L << 30, 0)
+                .query(SwatResultCache.key("unknown"), "output.rch", new int[0], Collections.<String>emptyList(),
+                       null, null, new StringWriter());
+    }
+}
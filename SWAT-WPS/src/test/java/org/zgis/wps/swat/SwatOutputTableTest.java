@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+public class SwatOutputTableTest {
+
+    private static final String RCH_HEADER = "      RCH      GIS   MON     AREAkm2  FLOW_INcms FLOW_OUTcms"
+            + "     TOT Nkg     TOT Pkg";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertsMonthlyOutputWithSummaries() throws IOException {
+        StringBuilder rch = new StringBuilder(" SWAT Sep 7    VER 2012/Rev 637\n\n").append(RCH_HEADER).append('\n');
+        int step = 0;
+        for (int year = 2005; year <= 2006; year++) {
+            for (int month = 1; month <= 12; month++) {
+                step++;
+                for (int reach = 1; reach <= 3; reach++) {
+                    rch.append(reachLine(reach, String.format(Locale.ROOT, "%5d", month), reach * 1000 + step));
+                }
+            }
+            for (int reach = 1; reach <= 3; reach++) {
+                rch.append(reachLine(reach, String.format(Locale.ROOT, "%5d", year), -1));
+            }
+        }
+        for (int reach = 1; reach <= 3; reach++) {
+            rch.append(reachLine(reach, "  2.0", -2));
+        }
+        File text = this.folder.newFile("output.rch");
+        FileUtils.writeStringToFile(text, rch.toString(), "ISO-8859-1");
+
+        File dir = this.folder.newFolder("store");
+        SwatOutputTable.convert(SwatOutputTable.Kind.RCH, text, dir, 2005, SwatOutputTable.MONTHLY);
+        SwatOutputTable table = SwatOutputTable.open(dir, "output.rch");
+
+        Assert.assertEquals(Arrays.asList("AREAkm2", "FLOW_INcms", "FLOW_OUTcms", "TOT Nkg", "TOT Pkg"),
+                            Arrays.asList(table.getVariables()));
+        Assert.assertArrayEquals(new int[]{1, 2, 3}, table.getUnits());
+        Assert.assertEquals(24, table.getStepCount());
+
+        StringWriter csv = new StringWriter();
+        int rows = table.query(new int[]{2}, Arrays.asList("FLOW_OUTcms", "TOT Nkg"), 2006, 2006, csv);
+        Assert.assertEquals(12, rows);
+        String[] lines = csv.toString().split("\n");
+        Assert.assertEquals("unit,year,period,FLOW_OUTcms,TOT Nkg", lines[0]);
+        Assert.assertEquals("2,2006,1,2013.0,0.5", lines[1]);
+        Assert.assertEquals("2,2006,12,2024.0,0.5", lines[12]);
+
+        csv = new StringWriter();
+        Assert.assertEquals(72, table.query(new int[0], Collections.<String>emptyList(), null, null, csv));
+        Assert.assertEquals("3,2006,12,303.0,0.0,3024.0,0.5,-1.25", csv.toString().split("\n")[72]);
+    }
+
+    @Test
+    public void convertsDailyOutputAcrossYears() throws IOException {
+        StringBuilder rch = new StringBuilder(RCH_HEADER).append('\n');
+        int[] days = {364, 365, 1, 2};
+        for (int i = 0; i < days.length; i++) {
+            rch.append(reachLine(1, String.format(Locale.ROOT, "%5d", days[i]), i));
+        }
+        File text = this.folder.newFile("output.rch");
+        FileUtils.writeStringToFile(text, rch.toString(), "ISO-8859-1");
+
+        File dir = this.folder.newFolder("store");
+        SwatOutputTable.convert(SwatOutputTable.Kind.RCH, text, dir, 2007, SwatOutputTable.DAILY);
+        StringWriter csv = new StringWriter();
+        SwatOutputTable.open(dir, "output.rch").query(new int[]{1}, Collections.singletonList("FLOW_OUTcms"),
+                                                      2008, null, csv);
+        Assert.assertEquals("unit,year,period,FLOW_OUTcms\n1,2008,1,2.0\n1,2008,2,3.0\n", csv.toString());
+    }
+
+    @Test
+    public void streamsSingleUnit() throws IOException {
+        StringBuilder rch = new StringBuilder(RCH_HEADER).append('\n');
+        for (int month = 11; month <= 14; month++) {
+            int mon = month > 12 ? month - 12 : month;
+            for (int reach = 1; reach <= 2; reach++) {
+                rch.append(reachLine(reach, String.format(Locale.ROOT, "%5d", mon), reach * 100 + month));
+            }
+        }
+        File text = this.folder.newFile("output.rch");
+        FileUtils.writeStringToFile(text, rch.toString(), "ISO-8859-1");
+
+        final StringBuilder values = new StringBuilder();
+        int count = SwatOutputTable.stream(SwatOutputTable.Kind.RCH, text, 2010, SwatOutputTable.MONTHLY, 2,
+                                           "FLOW_OUTcms", new SwatOutputTable.ValueSink() {
+                    @Override
+                    public void value(int year, int period, float value) {
+                        values.append(year).append('/').append(period).append('=').append(value).append(' ');
+                    }
+                });
+        Assert.assertEquals(4, count);
+        Assert.assertEquals("2010/11=211.0 2010/12=212.0 2011/1=213.0 2011/2=214.0 ", values.toString());
+    }
+
+    @Test
+    public void slicesValuesFillingTheirField() throws IOException {
+        // values using all 12 columns of their field touch the value before them
+        String rch = RCH_HEADER + "\n"
+                + String.format(Locale.ROOT, "REACH%5d %8d %5d%12.4E%12.4E%12s%12.4E%12s%n", 1, 0, 1, 101.0, 7.0,
+                                "123456789.12", 0.5, "-12345678.12")
+                + reachLine(1, "    2", 2) + reachLine(1, "    3", 3);
+        File text = this.folder.newFile("output.rch");
+        FileUtils.writeStringToFile(text, rch, "ISO-8859-1");
+
+        File dir = this.folder.newFolder("store");
+        SwatOutputTable table = SwatOutputTable.convert(SwatOutputTable.Kind.RCH, text, dir, 2000,
+                                                        SwatOutputTable.MONTHLY);
+        Assert.assertEquals(Arrays.asList("AREAkm2", "FLOW_INcms", "FLOW_OUTcms", "TOT Nkg", "TOT Pkg"),
+                            Arrays.asList(table.getVariables()));
+        StringWriter csv = new StringWriter();
+        table.query(new int[]{1}, Arrays.asList("FLOW_INcms", "FLOW_OUTcms", "TOT Pkg"), null, null, csv);
+        Assert.assertEquals("unit,year,period,FLOW_INcms,FLOW_OUTcms,TOT Pkg\n"
+                                    + "1,2000,1,7.0,1.23456792E8,-1.2345678E7\n"
+                                    + "1,2000,2,0.0,2.0,-1.25\n"
+                                    + "1,2000,3,0.0,3.0,-1.25\n", csv.toString());
+
+        final StringBuilder values = new StringBuilder();
+        SwatOutputTable.stream(SwatOutputTable.Kind.RCH, text, 2000, SwatOutputTable.MONTHLY, 1, "TOT Pkg",
+                               new SwatOutputTable.ValueSink() {
+                                   @Override
+                                   public void value(int year, int period, float value) {
+                                       values.append(value).append(' ');
+                                   }
+                               });
+        Assert.assertEquals("-1.2345678E7 -1.25 -1.25 ", values.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownVariables() throws IOException {
+        File text = this.folder.newFile("output.rch");
+        FileUtils.writeStringToFile(text, RCH_HEADER + "\n" + reachLine(1, "    1", 1), "ISO-8859-1");
+        File dir = this.folder.newFolder("store");
+        SwatOutputTable.convert(SwatOutputTable.Kind.RCH, text, dir, 2000, SwatOutputTable.MONTHLY)
+                       .query(new int[]{1}, Collections.singletonList("FLOW"), null, null, new StringWriter());
+    }
+
+    @Test
+    public void parsesFortranNumbers() {
+        Assert.assertEquals(202.0f, parse("0.2020E+03"), 0);
+        Assert.assertEquals(-0.0001234f, parse("-0.1234E-03"), 1e-10);
+        Assert.assertEquals(12.345f, parse("12.345"), 0);
+        Assert.assertEquals(7f, parse("7"), 0);
+        Assert.assertTrue(Float.isNaN(parse("**********")));
+        Assert.assertTrue(Float.isNaN(parse("1.0X")));
+    }
+
+    private static float parse(String s) {
+        return SwatOutputTable.parseFloat(" " + s + " ", 1, s.length() + 1);
+    }
+
+    /**
+     * @return a line of output.rch like SWAT writes it, with {@code flowOut} as FLOW_OUTcms
+     */
+    private static String reachLine(int reach, String mon, double flowOut) {
+        return String.format(Locale.ROOT, "REACH%5d %8d %s%12.4E%12.4E%12.4E%12.4E%12.4E%n", reach, 0, mon,
+                             reach * 101.0, 0.0, flowOut, 0.5, -1.25);
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class SwatPrintOptionsTest {
+
+    private static final String FILE_CIO = "Master Watershed File: file.cio\n"
+            + "Output Information:\n"
+            + "               1    | IPRINT: print code (month, day, year)\n"
+            + "               3    | NYSKIP: number of years to skip output printing/summarization\n"
+            + "Reach output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "Subbasin output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "HRU output variables:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n"
+            + "HRU data to be printed:\n"
+            + "   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rewritesPrintSettings() throws IOException {
+        File model = this.folder.newFolder("model");
+        FileUtils.writeStringToFile(new File(model, SwatFileCio.FILE_NAME), FILE_CIO, "ISO-8859-1");
+
+        SwatPrintOptions options = new SwatPrintOptions("monthly", Arrays.asList("output.rch", "output.std"),
+                                                        Arrays.asList(2, 6), null, Arrays.asList(5), null);
+        SwatFileCio fileCio = SwatFileCio.read(model);
+        options.apply(fileCio);
+        fileCio.write(model);
+
+        List<String> lines = FileUtils.readLines(new File(model, SwatFileCio.FILE_NAME), "ISO-8859-1");
+        Assert.assertEquals("               0    | IPRINT: print code (month, day, year)", lines.get(2));
+        Assert.assertEquals("   2   6   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0",
+                            lines.get(5));
+        // not requested, reduced to one variable
+        Assert.assertEquals("   1   0   0   0   0   0   0   0   0   0   0   0   0   0   0", lines.get(7));
+        Assert.assertEquals("   1   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0",
+                            lines.get(9));
+        Assert.assertEquals("   1   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0   0",
+                            lines.get(11));
+
+        SwatFileCio reread = SwatFileCio.read(model);
+        Assert.assertEquals(Integer.valueOf(0), reread.getInt("IPRINT"));
+        Assert.assertEquals(Integer.valueOf(3), reread.getInt("NYSKIP"));
+
+        Assert.assertTrue(options.includes(new File(model, "output.std")));
+        Assert.assertFalse(options.includes(new File(model, "output.hru")));
+    }
+
+    @Test
+    public void keysDifferByOptions() throws IOException {
+        SwatPrintOptions model = new SwatPrintOptions(SwatPrintOptions.MODEL, Collections.<String>emptyList(),
+                                                      null, null, null, null);
+        Assert.assertTrue(model.isDefault());
+        Assert.assertEquals(SwatPrintOptions.MODEL, model.toKey());
+        Assert.assertFalse(new SwatPrintOptions("daily", null, null, null, null, null).toKey()
+                                   .equals(new SwatPrintOptions("yearly", null, null, null, null, null).toKey()));
+        Assert.assertEquals(new SwatPrintOptions(null, Arrays.asList("output.sub", "output.rch"), null, null,
+                                                 null, null).toKey(),
+                            new SwatPrintOptions(null, Arrays.asList("output.rch", "output.sub"), null, null,
+                                                 null, null).toKey());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTooManyCodes() throws IOException {
+        File model = this.folder.newFolder("model");
+        FileUtils.writeStringToFile(new File(model, SwatFileCio.FILE_NAME), FILE_CIO, "ISO-8859-1");
+        Integer[] codes = new Integer[16];
+        Arrays.fill(codes, 1);
+        new SwatPrintOptions(null, null, null, Arrays.asList(codes), null, null).apply(SwatFileCio.read(model));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidCodes() throws IOException {
+        new SwatPrintOptions(null, null, null, null, Collections.singletonList(0), null);
+    }
+}
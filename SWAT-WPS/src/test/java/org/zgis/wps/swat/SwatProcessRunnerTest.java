@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SwatProcessRunnerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void killsSwatWhenInterrupted() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/status").isFile() && new File("/bin/sh").canExecute());
+        final File dir = this.folder.newFolder("run");
+        File swat = this.folder.newFile("swat");
+        FileUtils.writeStringToFile(swat, "#!/bin/sh\necho $$ > pid\necho '  Executing year 1'\nexec sleep 600\n",
+                                    "ISO-8859-1");
+        Assert.assertTrue(swat.setExecutable(true));
+        final SwatProcessRunner runner = new SwatProcessRunner(swat);
+
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runner.run(dir, dir, null);
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        });
+        thread.start();
+        File pidFile = new File(dir, "pid");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!(pidFile.isFile() && pidFile.length() > 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        File proc = new File("/proc/" + FileUtils.readFileToString(pidFile, "US-ASCII").trim());
+        Assert.assertTrue(proc.exists());
+
+        thread.interrupt();
+        thread.join(10000);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+        while (proc.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse("SWAT still runs", proc.exists());
+    }
+}
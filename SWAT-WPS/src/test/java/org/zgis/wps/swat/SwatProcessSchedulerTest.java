@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SwatProcessSchedulerTest {
+
+    @Test
+    public void queuesRunsBeyondTheLimit() throws Exception {
+        final SwatProcessScheduler scheduler = new SwatProcessScheduler(1, 1, 0, null);
+        SwatProcessScheduler.Slot first = scheduler.acquire();
+        Assert.assertEquals(1, scheduler.getRunningProcesses());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (SwatProcessScheduler.Slot slot = scheduler.acquire()) {
+                    started.countDown();
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        waiting.start();
+        while (scheduler.getQueuedRequests() == 0) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, started.getCount());
+
+        try {
+            scheduler.acquire();
+            Assert.fail("queue is full");
+        } catch (IOException expected) {
+            Assert.assertEquals(1, scheduler.getRejectedRequests());
+        }
+
+        first.close();
+        first.close();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        waiting.join();
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(0, scheduler.getRunningProcesses());
+        Assert.assertEquals(0, scheduler.getQueuedRequests());
+        Assert.assertEquals(2, scheduler.getStartedProcesses());
+        Assert.assertEquals(1, scheduler.getRejectedRequests());
+        Assert.assertEquals(0, scheduler.getTimedOutRequests());
+        Assert.assertTrue(scheduler.getMaxWaitMillis() >= 0);
+        Assert.assertTrue(scheduler.getAverageWaitMillis() <= scheduler.getMaxWaitMillis());
+    }
+
+    @Test
+    public void lateRequestsDoNotOvertakeWaitingOnes() throws Exception {
+        final SwatProcessScheduler scheduler = new SwatProcessScheduler(1, 5, 0, null);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        SwatProcessScheduler.Slot first = scheduler.acquire();
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (SwatProcessScheduler.Slot slot = scheduler.acquire()) {
+                    order.add("waiting");
+                } catch (Exception e) {
+                    order.add(e.toString());
+                }
+            }
+        });
+        waiting.start();
+        while (waiting.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        // the freed slot belongs to the waiting request even though this thread asks for it first
+        first.close();
+        try (SwatProcessScheduler.Slot late = scheduler.acquire()) {
+            order.add("late");
+        }
+        waiting.join();
+        Assert.assertEquals(Arrays.asList("waiting", "late"), order);
+    }
+
+    @Test
+    public void failsAfterMaxWait() throws Exception {
+        SwatProcessScheduler scheduler = new SwatProcessScheduler(1, 5, 20, null);
+        try (SwatProcessScheduler.Slot slot = scheduler.acquire()) {
+            try {
+                scheduler.acquire();
+                Assert.fail("no slot became free");
+            } catch (IOException expected) {
+                Assert.assertEquals(1, scheduler.getTimedOutRequests());
+            }
+        }
+        Assert.assertEquals(0, scheduler.getQueuedRequests());
+    }
+
+    @Test
+    public void pinsProcessesToFreeCpus() throws Exception {
+        SwatProcessScheduler scheduler = new SwatProcessScheduler(2, 0, 0, "/usr/bin/taskset", new int[]{4, 6});
+        try (SwatProcessScheduler.Slot first = scheduler.acquire()) {
+            Assert.assertEquals(Arrays.asList("/usr/bin/taskset", "-c", "4", "swat"), first.command("swat"));
+            try (SwatProcessScheduler.Slot second = scheduler.acquire()) {
+                Assert.assertEquals("6", second.command("swat").get(2));
+            }
+            try (SwatProcessScheduler.Slot second = scheduler.acquire()) {
+                Assert.assertEquals("6", second.command("swat").get(2));
+            }
+        }
+        try (SwatProcessScheduler.Slot slot = new SwatProcessScheduler(1, 0, 0, null).acquire()) {
+            Assert.assertEquals(Arrays.asList("swat"), slot.command("swat"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToPinMoreProcessesThanCpus() {
+        new SwatProcessScheduler(3, 0, 0, "/usr/bin/taskset", new int[]{0, 1});
+    }
+
+    @Test
+    public void parsesCpuLists() {
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 3, 8, 10, 11}, SwatProcessScheduler.parseCpuList("0-3,8,10-11\n"));
+        Assert.assertArrayEquals(new int[]{5}, SwatProcessScheduler.parseCpuList(" 5"));
+        Assert.assertTrue(SwatProcessScheduler.allowedCpus().length > 0);
+    }
+}
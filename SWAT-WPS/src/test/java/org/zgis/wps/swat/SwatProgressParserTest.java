@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SwatProgressParserTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void understandsYearCounters() {
+        SwatProgressParser parser = new SwatProgressParser(2005, 4);
+        Assert.assertEquals(0, parser.parse("  Executing year 1"), DELTA);
+        Assert.assertEquals(0.25, parser.parse("  Executing year 2"), DELTA);
+        Assert.assertEquals(0.75, parser.parse("  EXECUTING YEAR    4"), DELTA);
+    }
+
+    @Test
+    public void understandsCalendarYears() {
+        SwatProgressParser parser = new SwatProgressParser(2005, 4);
+        Assert.assertEquals(0, parser.parse("  Executing year 2005"), DELTA);
+        Assert.assertEquals(0.5, parser.parse("  Executing year 2007"), DELTA);
+        // years past the period are capped
+        Assert.assertEquals(1, parser.parse("  Executing year 2020"), DELTA);
+    }
+
+    @Test
+    public void ignoresOtherLines() {
+        SwatProgressParser parser = new SwatProgressParser(2005, 4);
+        Assert.assertEquals(-1, parser.parse(""), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Execution successfully completed"), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Executing year"), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Executing year x"), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Executing year 0"), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Executing year 99999999999999999999"), DELTA);
+        Assert.assertEquals(-1, parser.parse("  Executing year 2147483648"), DELTA);
+        Assert.assertEquals(-1, new SwatProgressParser(0, 0).parse("  Executing year 1"), DELTA);
+    }
+}
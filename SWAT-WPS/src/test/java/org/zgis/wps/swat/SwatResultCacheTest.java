@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class SwatResultCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void returnsStoredResults() throws IOException {
+        SwatResultCache cache = new SwatResultCache(this.folder.newFolder("results"), Long.MAX_VALUE, 0);
+        String key = SwatResultCache.key("model", "exe", "9");
+        Assert.assertNull(cache.lookup(key, new File(this.folder.getRoot(), "miss.zip")));
+
+        cache.store(key, output("run.zip", 100), "  Execution successfully completed\n");
+
+        File outputZip = new File(this.folder.getRoot(), "hit.zip");
+        SwatResultCache.Result result = cache.lookup(key, outputZip);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(outputZip, result.getOutputZip());
+        Assert.assertEquals(100, outputZip.length());
+        Assert.assertEquals("  Execution successfully completed\n", result.getConsoleOutput());
+        Assert.assertNull(cache.lookup(SwatResultCache.key("model", "exe", "1"),
+                                       new File(this.folder.getRoot(), "other.zip")));
+    }
+
+    @Test
+    public void keysDependOnTheOrderOfTheParts() {
+        Assert.assertEquals(SwatResultCache.key("a", "b"), SwatResultCache.key("a", "b"));
+        Assert.assertFalse(SwatResultCache.key("a", "b").equals(SwatResultCache.key("b", "a")));
+        Assert.assertFalse(SwatResultCache.key("ab").equals(SwatResultCache.key("a", "b")));
+    }
+
+    @Test
+    public void dropsResultsNotUsedForMaxAge() throws IOException {
+        File root = this.folder.newFolder("results");
+        String old = SwatResultCache.key("old");
+        String recent = SwatResultCache.key("recent");
+        SwatResultCache cache = new SwatResultCache(root, Long.MAX_VALUE, HOUR);
+        cache.store(old, output("old.zip", 10), "");
+        cache.store(recent, output("recent.zip", 10), "");
+        Assert.assertTrue(new File(root, old).setLastModified(System.currentTimeMillis() - 2 * HOUR));
+
+        cache = new SwatResultCache(root, Long.MAX_VALUE, HOUR);
+        Assert.assertNull(cache.lookup(old, new File(this.folder.getRoot(), "a.zip")));
+        Assert.assertNotNull(cache.lookup(recent, new File(this.folder.getRoot(), "b.zip")));
+    }
+
+    @Test
+    public void dropsLeastRecentlyUsedResultsOverMaxBytes() throws IOException {
+        // every result holds its archive and an empty console log
+        SwatResultCache cache = new SwatResultCache(this.folder.newFolder("results"), 250, 0);
+        String first = SwatResultCache.key("first");
+        String second = SwatResultCache.key("second");
+        String third = SwatResultCache.key("third");
+        cache.store(first, output("first.zip", 100), "");
+        cache.store(second, output("second.zip", 100), "");
+        Assert.assertNotNull(cache.lookup(first, new File(this.folder.getRoot(), "a.zip")));
+
+        cache.store(third, output("third.zip", 100), "");
+
+        Assert.assertNull(cache.lookup(second, new File(this.folder.getRoot(), "b.zip")));
+        Assert.assertNotNull(cache.lookup(first, new File(this.folder.getRoot(), "c.zip")));
+        Assert.assertNotNull(cache.lookup(third, new File(this.folder.getRoot(), "d.zip")));
+    }
+
+    private File output(String name, int bytes) throws IOException {
+        File file = new File(this.folder.getRoot(), name);
+        FileUtils.writeByteArrayToFile(file, new byte[bytes]);
+        return file;
+    }
+}
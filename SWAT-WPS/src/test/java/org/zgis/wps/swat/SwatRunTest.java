@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * Runs {@link SwatRun} end to end with a {@link FakeSwat}. The shared executable and caches are set up
+ * once per JVM, so this is the only test that may use them.
+ */
+public class SwatRunTest {
+
+    private static final String[] KEYS = {"executable", "model.cache.dir", "result.cache.dir", "output.store.enabled"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void forceRunBypassesTheResultCache() throws Exception {
+        Assume.assumeTrue(File.separatorChar == '/' && new File("/bin/sh").canExecute());
+        File swat = new FakeSwat(2, 5, 0, 1000).write(this.folder.newFile("swat"));
+        String[] values = {swat.getPath(), this.folder.newFolder("models").getPath(),
+                           this.folder.newFolder("results").getPath(), "false"};
+        for (int i = 0; i < KEYS.length; i++) {
+            System.setProperty(SwatConfiguration.PREFIX + KEYS[i], values[i]);
+        }
+        try {
+            File model = SwatLoadDriver.writeModel(this.folder.newFile("model.zip"), 2, 3, 100);
+            SwatWorkspaces workspaces = new SwatWorkspaces(null, 0, 0, this.folder.newFolder("workspaces"),
+                                                           Long.MAX_VALUE, 0);
+
+            RunMetrics first = execute(workspaces, model, false);
+            Assert.assertEquals(0, first.get(RunMetrics.CACHED_RESULT));
+            Assert.assertEquals(4, first.get(RunMetrics.OUTPUT_FILES));
+
+            RunMetrics cached = execute(workspaces, model, false);
+            Assert.assertEquals(1, cached.get(RunMetrics.CACHED_RESULT));
+            // SWAT did not run
+            Assert.assertEquals(-1, cached.get(RunMetrics.OUTPUT_FILES));
+
+            RunMetrics forced = execute(workspaces, model, true);
+            Assert.assertEquals(0, forced.get(RunMetrics.CACHED_RESULT));
+            Assert.assertEquals(4, forced.get(RunMetrics.OUTPUT_FILES));
+        } finally {
+            for (String key : KEYS) {
+                System.clearProperty(SwatConfiguration.PREFIX + key);
+            }
+        }
+    }
+
+    private static RunMetrics execute(SwatWorkspaces workspaces, File model, boolean forceRun) throws Exception {
+        SwatRun run = new SwatRun(model, null, new SwatModelPatch(null, null), null,
+                                  new SwatPrintOptions(null, null, null, null, null, null), 1, forceRun);
+        RunMetrics metrics = new RunMetrics("test");
+        try (SwatWorkspaces.Workspace workspace = workspaces.create("run")) {
+            run.execute(workspace, new File(workspace.getDirectory(), "temp"), null, metrics);
+            Assert.assertTrue(run.getOutputZip().isFile());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SwatWeatherTest {
+
+    private static final String FILE_CIO = "Master Watershed File: file.cio\n"
+            + "               9    | NBYR : Number of years simulated\n"
+            + "            1990    | IYR : Beginning year of simulation\n"
+            + "               1    | IDAF : Beginning julian day of simulation\n"
+            + "             365    | IDAL : Ending julian day of simulation\n"
+            + "               1    | PCPSIM : precipitation input code: 1 measured, 2 simulated\n"
+            + "               2    | NRGAGE: number of pcp files used in simulation\n"
+            + "               4    | NRTOT : number of precip gage records used in the watershed\n"
+            + "               2    | NRGFIL: number of gage records in each pcp file\n"
+            + "               1    | TMPSIM : Temperature input code: 1 measured, 2 simulated\n"
+            + "               2    | NTGAGE: number of tmp files used in simulation\n"
+            + "               4    | NTTOT: number of temp gage records used in simulation\n"
+            + "               2    | NTGFIL: number of gage records in each tmp file\n"
+            + "               2    | RHSIM : relative humidity input code: 1 measured, 2 simulated\n"
+            + "               2    | WNDSIM : Windspeed input code: 1 measured, 2 simulated\n"
+            + "Precipitation Files:\n"
+            + "p1.pcp       p2.pcp       \n"
+            + "\n"
+            + "\n"
+            + "Temperature Files:\n"
+            + "t1.tmp       t2.tmp       \n"
+            + "\n"
+            + "\n"
+            + "             hmd.hmd    | RHFILE: name of relative humidity input file (.hmd)\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesFetchedWeatherIntoModel() throws IOException {
+        DateTime begin = new DateTime(2015, 12, 30, 12, 0, DateTimeZone.UTC);
+        DateTime end = new DateTime(2016, 1, 2, 12, 0, DateTimeZone.UTC);
+        Map<SosClient.Query, TimeValueSeries> observations = new LinkedHashMap<>();
+        observations.put(query(WeatherVariable.PRECIPITATION, "a"), series(begin, 2));
+        observations.put(query(WeatherVariable.HUMIDITY, "a"), series(begin, 0.5));
+        observations.put(query(WeatherVariable.WIND_SPEED, "a"), new TimeValueSeries());
+        observations.put(query(WeatherVariable.PRECIPITATION, "b"), new TimeValueSeries());
+        observations.put(query(WeatherVariable.TEMPERATURE_MAX, "b"), series(begin, 10));
+        File weatherDir = this.folder.newFolder("weather");
+
+        SwatWeather weather = SwatWeather.write(observations, begin, end, weatherDir);
+
+        Assert.assertEquals(3, weather.getFiles().size());
+        Assert.assertEquals(SwatWeather.PRECIPITATION_FILE, weather.getFiles().get(0).getName());
+        Assert.assertEquals(SwatWeather.TEMPERATURE_FILE, weather.getFiles().get(1).getName());
+        Assert.assertEquals(SwatWeather.HUMIDITY_FILE, weather.getFiles().get(2).getName());
+        String key = weather.toKey();
+
+        File modelDir = this.folder.newFolder("model");
+        Files.write(new File(modelDir, SwatFileCio.FILE_NAME).toPath(),
+                    FILE_CIO.getBytes(StandardCharsets.ISO_8859_1));
+        weather.apply(modelDir);
+
+        Assert.assertFalse(new File(weatherDir, SwatWeather.PRECIPITATION_FILE).exists());
+        Assert.assertEquals("2015364  2.0-99.0", FileUtils.readLines(new File(modelDir, SwatWeather.PRECIPITATION_FILE),
+                                                                     StandardCharsets.ISO_8859_1.name()).get(4));
+        SwatFileCio fileCio = SwatFileCio.read(modelDir);
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("NBYR"));
+        Assert.assertEquals(Integer.valueOf(2015), fileCio.getInt("IYR"));
+        Assert.assertEquals(Integer.valueOf(364), fileCio.getInt("IDAF"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("IDAL"));
+        Assert.assertEquals(Integer.valueOf(1), fileCio.getInt("RHSIM"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("WNDSIM"));
+        Assert.assertEquals(Integer.valueOf(1), fileCio.getInt("NRGAGE"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("NRTOT"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("NRGFIL"));
+        Assert.assertEquals(Integer.valueOf(1), fileCio.getInt("NTGAGE"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("NTTOT"));
+        Assert.assertEquals(Integer.valueOf(2), fileCio.getInt("NTGFIL"));
+        List<String> lines = Files.readAllLines(new File(modelDir, SwatFileCio.FILE_NAME).toPath(),
+                                                StandardCharsets.ISO_8859_1);
+        int pcpFiles = lines.indexOf("Precipitation Files:");
+        Assert.assertEquals("pcp1.pcp     ", lines.get(pcpFiles + 1));
+        Assert.assertEquals("", lines.get(pcpFiles + 2));
+        int tmpFiles = lines.indexOf("Temperature Files:");
+        Assert.assertEquals("tmp1.tmp     ", lines.get(tmpFiles + 1));
+        Assert.assertEquals("", lines.get(tmpFiles + 3));
+        Assert.assertEquals(64, key.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutPrecipitationFileNames() throws IOException {
+        DateTime begin = new DateTime(2015, 12, 30, 12, 0, DateTimeZone.UTC);
+        Map<SosClient.Query, TimeValueSeries> observations = new LinkedHashMap<>();
+        observations.put(query(WeatherVariable.PRECIPITATION, "a"), series(begin, 2));
+        SwatWeather weather = SwatWeather.write(observations, begin, begin, this.folder.newFolder("weather"));
+
+        File modelDir = this.folder.newFolder("model");
+        String fileCio = FILE_CIO.substring(0, FILE_CIO.indexOf("Precipitation Files:"));
+        Files.write(new File(modelDir, SwatFileCio.FILE_NAME).toPath(),
+                    fileCio.getBytes(StandardCharsets.ISO_8859_1));
+        weather.apply(modelDir);
+    }
+
+    @Test
+    public void parsesEndDate() throws IOException {
+        Assert.assertEquals(new DateTime(2016, 1, 2, 0, 0, DateTimeZone.UTC),
+                            SwatWeather.parseEndDate("2016-01-02"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInvalidEndDate() throws IOException {
+        SwatWeather.parseEndDate("yesterday");
+    }
+
+    private static SosClient.Query query(WeatherVariable variable, String station) {
+        return new SosClient.Query("gsod", variable.getObservedProperty(), station);
+    }
+
+    private static TimeValueSeries series(DateTime time, double value) {
+        TimeValueSeries series = new TimeValueSeries();
+        series.observation(time.getMillis(), value);
+        return series;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+public class SwatWeatherWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesSwatClimateFiles() throws IOException {
+        DateTime first = new DateTime(2015, 12, 31, 0, 0, DateTimeZone.UTC);
+        TimeValueSeries rain = new TimeValueSeries();
+        rain.observation(first.plusHours(1).getMillis(), 1.25);
+        rain.observation(first.plusHours(2).getMillis(), 10);
+        rain.observation(first.plusDays(2).getMillis(), 0);
+        TimeValueSeries max = new TimeValueSeries();
+        max.observation(first.plusHours(6).getMillis(), 4.5);
+        max.observation(first.plusHours(12).getMillis(), 12.35);
+        TimeValueSeries min = new TimeValueSeries();
+        min.observation(first.plusHours(6).getMillis(), -7.25);
+        List<SwatWeatherWriter.Station> stations = Arrays.asList(
+                new SwatWeatherWriter.Station("a", 47.8, 13.04, 424.6),
+                new SwatWeatherWriter.Station("b", -1, -70.5, 12));
+
+        SwatWeatherWriter writer = new SwatWeatherWriter(first.plusHours(3), 3);
+        File pcp = new File(this.folder.getRoot(), "pcp1.pcp");
+        writer.writePrecipitation(pcp, stations, Arrays.asList(rain, null));
+        File tmp = new File(this.folder.getRoot(), "tmp1.tmp");
+        writer.writeTemperature(tmp, stations, Arrays.asList(max, null), Arrays.asList(min, null));
+
+        Assert.assertEquals(Arrays.asList("Precipitation Input File pcp1.pcp",
+                                          "Lati    47.8 -1.0",
+                                          "Long    13.0-70.5",
+                                          "Elev     425   12",
+                                          "2015365 11.3-99.0",
+                                          "2016  1-99.0-99.0",
+                                          "2016  2  0.0-99.0"),
+                            FileUtils.readLines(pcp, StandardCharsets.ISO_8859_1.name()));
+        Assert.assertEquals(Arrays.asList("Temperature Input File tmp1.tmp",
+                                          "Lati         47.8      -1.0",
+                                          "Long         13.0     -70.5",
+                                          "Elev          425        12",
+                                          "2015365 12.4 -7.3-99.0-99.0",
+                                          "2016  1-99.0-99.0-99.0-99.0",
+                                          "2016  2-99.0-99.0-99.0-99.0"),
+                            FileUtils.readLines(tmp, StandardCharsets.ISO_8859_1.name()));
+    }
+
+    @Test
+    public void writesFilesWithoutLocations() throws IOException {
+        DateTime first = new DateTime(2016, 3, 1, 0, 0, DateTimeZone.UTC);
+        TimeValueSeries humidity = new TimeValueSeries();
+        humidity.observation(first.plusHours(6).getMillis(), 0.5);
+        humidity.observation(first.plusHours(18).getMillis(), 0.75);
+
+        File hmd = new File(this.folder.getRoot(), "hmd.hmd");
+        new SwatWeatherWriter(first, 2).writeHumidity(hmd, Arrays.asList(humidity, null));
+
+        Assert.assertEquals(Arrays.asList("Relative Humidity Input File hmd.hmd",
+                                          "2016 61   0.625 -99.000",
+                                          "2016 62 -99.000 -99.000"),
+                            FileUtils.readLines(hmd, StandardCharsets.ISO_8859_1.name()));
+    }
+
+    @Test
+    public void formatsFixedWidth() {
+        StringBuilder line = new StringBuilder();
+        SwatWeatherWriter.appendFixed(line, 0.04, 5, 1);
+        SwatWeatherWriter.appendFixed(line, -0.04, 5, 1);
+        SwatWeatherWriter.appendFixed(line, 99.96, 5, 1);
+        SwatWeatherWriter.appendFixed(line, -12.345, 8, 3);
+        Assert.assertEquals("  0.0  0.0100.0 -12.345", line.toString());
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SwatWorkspacesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void spillsToDiskWhenMemoryBudgetIsUsed() throws IOException {
+        File memory = this.folder.newFolder("memory");
+        File disk = this.folder.newFolder("disk");
+        SwatWorkspaces workspaces = new SwatWorkspaces(memory, 2000, 1000, disk, Long.MAX_VALUE, 0);
+
+        SwatWorkspaces.Workspace first = workspaces.create("run");
+        SwatWorkspaces.Workspace second = workspaces.create("run");
+        Assert.assertTrue(first.isInMemory());
+        Assert.assertTrue(second.isInMemory());
+        Assert.assertEquals(memory, first.getDirectory().getParentFile());
+        Assert.assertEquals(2000, workspaces.getMemoryBytes());
+
+        SwatWorkspaces.Workspace third = workspaces.create("run");
+        Assert.assertFalse(third.isInMemory());
+        Assert.assertEquals(disk, third.getDirectory().getParentFile());
+        Assert.assertEquals(1, workspaces.getSpilledWorkspaces());
+
+        // a finished workspace makes room right away
+        first.close();
+        SwatWorkspaces.Workspace fourth = workspaces.create("run");
+        Assert.assertTrue(fourth.isInMemory());
+        Assert.assertFalse(first.getDirectory().exists());
+        Assert.assertEquals(3, workspaces.getActiveWorkspaces());
+    }
+
+    @Test
+    public void concurrentCreatesStayWithinMemoryBudget() throws Exception {
+        File memory = this.folder.newFolder("memory");
+        File disk = this.folder.newFolder("disk");
+        final SwatWorkspaces workspaces = new SwatWorkspaces(memory, 2000, 1000, disk, Long.MAX_VALUE, 0);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger inMemory = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    if (workspaces.create("run").isInMemory()) {
+                        inMemory.incrementAndGet();
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Assert.assertEquals(2, inMemory.get());
+        Assert.assertEquals(2000, workspaces.getMemoryBytes());
+        Assert.assertEquals(14, workspaces.getSpilledWorkspaces());
+    }
+
+    @Test
+    public void reapsFinishedWorkspaces() throws IOException {
+        File disk = this.folder.newFolder("disk");
+        SwatWorkspaces workspaces = new SwatWorkspaces(null, 0, 0, disk, 2000, 60 * 60 * 1000);
+        SwatWorkspaces.Workspace active = workspaces.create("run");
+        SwatWorkspaces.Workspace older = workspaces.create("run");
+        SwatWorkspaces.Workspace newer = workspaces.create("run");
+        for (SwatWorkspaces.Workspace workspace : new SwatWorkspaces.Workspace[]{active, older, newer}) {
+            FileUtils.writeByteArrayToFile(new File(workspace.getDirectory(), "sub/output.rch"), new byte[1000]);
+        }
+        older.close();
+        newer.close();
+
+        workspaces.reap();
+        // retained for an hour, but over the disk limit: the longest finished goes first
+        Assert.assertTrue(active.getDirectory().exists());
+        Assert.assertFalse(older.getDirectory().exists());
+        Assert.assertTrue(newer.getDirectory().exists());
+        Assert.assertEquals(2000, workspaces.getDiskBytes());
+        Assert.assertEquals(1, workspaces.getFinishedWorkspaces());
+        Assert.assertEquals(1, workspaces.getRemovedWorkspaces());
+
+        newer.discard();
+        Assert.assertFalse(newer.getDirectory().exists());
+        Assert.assertEquals(1000, workspaces.getDiskBytes());
+    }
+
+    @Test
+    public void removesLeftoversOfPreviousProcesses() throws IOException {
+        File disk = this.folder.newFolder("disk");
+        File leftover = new File(disk, "ws-run-1");
+        FileUtils.writeStringToFile(new File(leftover, "file.cio"), "x", "UTF-8");
+        File other = new File(disk, "keep.txt");
+        FileUtils.writeStringToFile(other, "x", "UTF-8");
+
+        new SwatWorkspaces(null, 0, 0, disk, Long.MAX_VALUE, 0);
+        Assert.assertFalse(leftover.exists());
+        Assert.assertTrue(other.exists());
+    }
+}
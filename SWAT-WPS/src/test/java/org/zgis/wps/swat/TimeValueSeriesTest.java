@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TimeValueSeriesTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Test
+    public void growsAndSortsAcrossChunks() {
+        TimeValueSeries series = new TimeValueSeries(16);
+        Random random = new Random(42);
+        int size = 50000;
+        for (int i = 0; i < size; i++) {
+            long time = random.nextInt(1000000);
+            series.observation(time, time * 0.5);
+        }
+        Assert.assertEquals(size, series.size());
+        series.sortByTime();
+        for (int i = 1; i < size; i++) {
+            Assert.assertTrue(series.getTime(i - 1) <= series.getTime(i));
+            Assert.assertEquals(series.getTime(i) * 0.5, series.getValue(i), 0);
+        }
+        Assert.assertEquals(0, series.indexOf(Long.MIN_VALUE));
+        Assert.assertEquals(size, series.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void mergeReplacesRange() {
+        TimeValueSeries base = series(1, 1, 2, 3, 4, 5, 6);
+        TimeValueSeries update = series(-1, 0, 3, 4, 7);
+        TimeValueSeries merged = new TimeValueSeries();
+        TimeValueSeries.merge(base, update, 3, 5, merged);
+        Assert.assertEquals(5, merged.size());
+        long[] times = {1, 2, 3, 4, 6};
+        double[] values = {1, 2, -3, -4, 6};
+        for (int i = 0; i < times.length; i++) {
+            Assert.assertEquals(times[i], merged.getTime(i));
+            Assert.assertEquals(values[i], merged.getValue(i), 0);
+        }
+    }
+
+    @Test
+    public void aggregatesDays() {
+        TimeValueSeries series = new TimeValueSeries();
+        series.observation(-1, 100);
+        series.observation(0, 1);
+        series.observation(DAY / 2, 3);
+        series.observation(DAY - 1, Double.NaN);
+        series.observation(2 * DAY, -2);
+        series.observation(3 * DAY, 100);
+        double[] daily = new double[3];
+
+        Assert.assertEquals(2, series.aggregateDaily(0, daily, TimeValueSeries.Aggregation.SUM));
+        Assert.assertArrayEquals(new double[]{4, Double.NaN, -2}, daily, 0);
+        series.aggregateDaily(0, daily, TimeValueSeries.Aggregation.MIN);
+        Assert.assertArrayEquals(new double[]{1, Double.NaN, -2}, daily, 0);
+        series.aggregateDaily(0, daily, TimeValueSeries.Aggregation.MAX);
+        Assert.assertArrayEquals(new double[]{3, Double.NaN, -2}, daily, 0);
+        series.aggregateDaily(0, daily, TimeValueSeries.Aggregation.MEAN);
+        Assert.assertArrayEquals(new double[]{2, Double.NaN, -2}, daily, 0);
+    }
+
+    /**
+     * @return series with the given times, valued {@code sign * time}
+     */
+    private static TimeValueSeries series(double sign, long... times) {
+        TimeValueSeries series = new TimeValueSeries();
+        for (long time : times) {
+            series.observation(time, sign * time);
+        }
+        return series;
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016 Z_GIS (http://www.zgis.at)
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.zgis.wps.swat;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class WorkspaceFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void linksInputFilesAndCopiesTheRest() throws IOException {
+        File model = this.folder.newFolder("model");
+        String[] names = {"file.cio", "000010001.gw", "Weather/pcp1.PCP", "input.std", "output.rch", "watout.dat",
+                          "notes.txt", "README"};
+        for (String name : names) {
+            FileUtils.writeStringToFile(new File(model, name), name, "ISO-8859-1");
+        }
+        File workspace = new File(this.folder.getRoot(), "workspace");
+
+        Assert.assertEquals(names.length, WorkspaceFiles.linkTree(model, workspace));
+
+        for (String name : names) {
+            File file = new File(workspace, name);
+            Assert.assertEquals(name, FileUtils.readFileToString(file, "ISO-8859-1"));
+            boolean linked = name.endsWith(".cio") || name.endsWith(".gw") || name.endsWith(".PCP");
+            Assert.assertEquals(name, linked, fileKey(new File(model, name)).equals(fileKey(file)));
+        }
+    }
+
+    @Test
+    public void privateCopiesLeaveTheCachedFileAlone() throws IOException {
+        File model = this.folder.newFolder("model");
+        File cached = new File(model, "000010001.gw");
+        FileUtils.writeStringToFile(cached, "cached", "ISO-8859-1");
+        WorkspaceFiles.makeReadOnly(model);
+        Object cachedKey = fileKey(cached);
+        File workspace = new File(this.folder.getRoot(), "workspace");
+        WorkspaceFiles.linkTree(model, workspace);
+        File file = new File(workspace, "000010001.gw");
+
+        WorkspaceFiles.makePrivate(file);
+        FileUtils.writeStringToFile(file, "patched", "ISO-8859-1");
+
+        Assert.assertEquals("patched", FileUtils.readFileToString(file, "ISO-8859-1"));
+        Assert.assertFalse(cachedKey.equals(fileKey(file)));
+        Assert.assertEquals("cached", FileUtils.readFileToString(cached, "ISO-8859-1"));
+        Assert.assertEquals(cachedKey, fileKey(cached));
+    }
+
+    static Object fileKey(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+}